@@ -0,0 +1,338 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.imageio.ImageIO;
+import javax.swing.Icon;
+import javax.swing.ImageIcon;
+
+/**
+ * Icons and images from std or hi-res resource folders (see {@link AppUIResolution}), 
+ * decoded once and cached.
+ * 
+ * Cache is keyed by resource name and resolution, holds at most a given number 
+ * of images with soft references, so memory can be reclaimed. A set of icons 
+ * can be decoded in background at startup with prefetch().
+ * 
+ * <pre>
+ * AppImages.setResourceClass(MyApp.class);
+ * AppImages.prefetch("open.png", "save.png", "exit.png");
+ * ...
+ * menuItem.setIcon(AppImages.getIcon("open.png"));
+ * </pre>
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public class AppImages {
+	
+	public static final int DEFAULT_CACHE_SIZE = 256;
+	
+	private static Class<?> resClass = AppImages.class;
+	private static int cacheSize = DEFAULT_CACHE_SIZE;
+	
+	// access ordered, least recently used is removed first
+	private static final Map<String,SoftReference<ImageIcon>> cache = 
+			new LinkedHashMap<String,SoftReference<ImageIcon>>(64, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String,SoftReference<ImageIcon>> eldest) {
+			return size() > cacheSize;
+		}
+	};
+	
+	// resources not found or not decoded, not retried until cache is cleared
+	private static final Set<String> missing = new HashSet<String>();
+	
+	private static ExecutorService loader;
+	
+	
+	
+	/**
+	 * Sets class used to load resources, resource folders are relative to this class
+	 * @param c class from application jar
+	 */
+	public static void setResourceClass(Class<?> c) {
+		
+		if (c == null)
+			throw new IllegalArgumentException("[AppImages] Resource class cannot be null");
+		synchronized (cache) {
+			resClass = c;
+			cache.clear();
+			missing.clear();
+		}
+	}
+	
+	
+	
+	/**
+	 * Sets maximum number of cached images
+	 * @param size maximum number of images
+	 */
+	public static void setCacheSize(int size) {
+		
+		if (size <= 0)
+			throw new IllegalArgumentException("[AppImages] Cache size must be positive");
+		synchronized (cache) {
+			cacheSize = size;
+			Iterator<String> it = cache.keySet().iterator();
+			while (cache.size() > size && it.hasNext()) {
+				it.next();
+				it.remove();
+			}
+		}
+	}
+	
+	
+	
+	/**
+	 * Empties cache, resources not found are looked up again
+	 */
+	public static void clear() {
+		
+		synchronized (cache) {
+			cache.clear();
+			missing.clear();
+		}
+	}
+	
+	
+	
+	/**
+	 * Gets an image for current resolution of primary screen
+	 * @param name resource name, relative to resource folder
+	 * @return decoded image, or null if resource doesn't exist or can't be decoded
+	 */
+	public static ImageIcon getImageIcon(String name) {
+		
+		return getImageIcon(name, AppUIResolution.isHiRes());
+	}
+	
+	
+	
+	/**
+	 * Gets an image for a resolution
+	 * @param name resource name, relative to resource folder
+	 * @param hiRes true to get image from hi-res folder
+	 * @return decoded image, or null if resource doesn't exist or can't be decoded
+	 */
+	public static ImageIcon getImageIcon(String name, boolean hiRes) {
+		
+		String folder = AppUIResolution.getFolder(hiRes);
+		String key = folder + name;
+		Class<?> c;
+		synchronized (cache) {
+			SoftReference<ImageIcon> ref = cache.get(key);
+			ImageIcon icon = ref != null ? ref.get() : null;
+			if (icon != null || missing.contains(key))
+				return icon;
+			c = resClass;
+		}
+		// decoding is done without lock, two threads may decode same image
+		ImageIcon icon = load(c, key);
+		synchronized (cache) {
+			if (resClass == c) {
+				if (icon != null)
+					cache.put(key, new SoftReference<ImageIcon>(icon));
+				else
+					// warning is logged only once
+					missing.add(key);
+			}
+		}
+		return icon;
+	}
+	
+	
+	
+	private static ImageIcon load(Class<?> c, String path) {
+		
+		URL url = c.getResource(path);
+		if (url == null) {
+			Logger.getGlobal().log(Level.WARNING,"Image resource not found: "+path);
+			return null;
+		}
+		try {
+			BufferedImage img = ImageIO.read(url);
+			if (img == null) {
+				Logger.getGlobal().log(Level.WARNING,"Unknown image format: "+path);
+				return null;
+			}
+			return new ImageIcon(img);
+		} catch (IOException e) {
+			Logger.getGlobal().log(Level.WARNING,"Image read error: "+path, e);
+			return null;
+		}
+	}
+	
+	
+	
+	/**
+	 * Gets an icon that follows resolution of screen where it is painted: 
+	 * std or hi-res image is chosen on paint, so icon is right even if 
+	 * resolution changes or window is moved to another screen.
+	 * @param name resource name, relative to resource folder
+	 * @return an icon, empty if resource doesn't exist
+	 */
+	public static Icon getIcon(String name) {
+		
+		return new ResIcon(name);
+	}
+	
+	
+	
+	/**
+	 * Decodes images for current resolution in background
+	 * @param names resource names, relative to resource folder
+	 * @return future completed when all images are loaded
+	 */
+	public static CompletableFuture<Void> prefetch(String... names) {
+		
+		return prefetch(Arrays.asList(names));
+	}
+	
+	
+	
+	/**
+	 * Decodes images for current resolution in background
+	 * @param names resource names, relative to resource folder
+	 * @return future completed when all images are loaded
+	 */
+	public static CompletableFuture<Void> prefetch(Collection<String> names) {
+		
+		final String[] n = names.toArray(new String[names.size()]);
+		final CompletableFuture<Void> result = new CompletableFuture<Void>();
+		getLoader().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					boolean hiRes = AppUIResolution.isHiRes();
+					for (String name : n) {
+						getImageIcon(name, hiRes);
+					}
+					result.complete(null);
+				}
+				catch (RuntimeException e) {
+					result.completeExceptionally(e);
+				}
+			}
+		});
+		return result;
+	}
+	
+	
+	
+	private static synchronized ExecutorService getLoader() {
+		
+		if (loader == null) {
+			loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "AppSettings-images");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return loader;
+	}
+	
+	
+	
+	/**
+	 * Icon choosing image by resolution of screen where it is painted
+	 */
+	private static final class ResIcon implements Icon {
+		
+		private final String name;
+		private ImageIcon icon;
+		private boolean hiRes;
+		private boolean loaded = false;
+		
+		
+		ResIcon(String name) {
+			this.name = name;
+		}
+		
+		
+		/**
+		 * @param c component where icon is painted, or null for size queries: 
+		 * size follows image chosen on last paint, primary screen before first paint
+		 */
+		private synchronized ImageIcon get(Component c) {
+			
+			if (c == null && loaded)
+				return icon;
+			boolean h = c != null ? AppUIResolution.isHiRes(c.getGraphicsConfiguration()) : AppUIResolution.isHiRes();
+			if (!loaded || h != hiRes) {
+				icon = getImageIcon(name, h);
+				hiRes = h;
+				loaded = true;
+			}
+			return icon;
+		}
+		
+		
+		@Override
+		public void paintIcon(Component c, Graphics g, int x, int y) {
+			
+			ImageIcon i = get(c);
+			if (i != null)
+				i.paintIcon(c, g, x, y);
+		}
+		
+		
+		@Override
+		public int getIconWidth() {
+			
+			ImageIcon i = get(null);
+			return i != null ? i.getIconWidth() : 0;
+		}
+		
+		
+		@Override
+		public int getIconHeight() {
+			
+			ImageIcon i = get(null);
+			return i != null ? i.getIconHeight() : 0;
+		}
+	}
+
+}
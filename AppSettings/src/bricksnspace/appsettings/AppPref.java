@@ -0,0 +1,139 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+/**
+ * Handle for a registered preference
+ * 
+ * Handle is bound to preference slot, so reading and writing values with a typed handle 
+ * doesn't need any lookup by name. 
+ * Use asInt(), asBool(), asFloat(), asString() or asBlob() to get typed handle for preference type.
+ * 
+ * @see AppSettings#addPref(String, String, int)
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public abstract class AppPref {
+	
+	final PrefTable table;
+	final int slot;
+	
+	
+	AppPref(PrefTable table, int slot) {
+		
+		this.table = table;
+		this.slot = slot;
+	}
+	
+	
+	/**
+	 * @return preference name
+	 */
+	public String getName() {
+		return table.getName(slot);
+	}
+	
+	
+	/**
+	 * @return preference description text
+	 */
+	public String getDescr() {
+		return table.getDescr(slot);
+	}
+	
+	
+	/**
+	 * @return preference type (see AppSettings)
+	 */
+	public int getType() {
+		return table.getType(slot);
+	}
+	
+	
+	/**
+	 * @return true if preference is app private
+	 */
+	public boolean isAppPrivate() {
+		return table.isAppPrivate(slot);
+	}
+	
+	
+	/**
+	 * @return typed handle for an INTEGER preference
+	 */
+	public IntPref asInt() {
+		
+		if (this instanceof IntPref)
+			return (IntPref) this;
+		throw new IllegalStateException("Preference '" + getName() + "' isn't of type INTEGER");
+	}
+	
+	
+	/**
+	 * @return typed handle for a BOOLEAN preference
+	 */
+	public BoolPref asBool() {
+		
+		if (this instanceof BoolPref)
+			return (BoolPref) this;
+		throw new IllegalStateException("Preference '" + getName() + "' isn't of type BOOLEAN");
+	}
+	
+	
+	/**
+	 * @return typed handle for a FLOAT preference
+	 */
+	public FloatPref asFloat() {
+		
+		if (this instanceof FloatPref)
+			return (FloatPref) this;
+		throw new IllegalStateException("Preference '" + getName() + "' isn't of type FLOAT");
+	}
+	
+	
+	/**
+	 * @return typed handle for a BLOB preference
+	 */
+	public BlobPref asBlob() {
+		
+		if (this instanceof BlobPref)
+			return (BlobPref) this;
+		throw new IllegalStateException("Preference '" + getName() + "' isn't of type BLOB");
+	}
+	
+	
+	/**
+	 * @return typed handle for a STRING, FILE or FOLDER preference
+	 */
+	public StringPref asString() {
+		
+		if (this instanceof StringPref)
+			return (StringPref) this;
+		throw new IllegalStateException("Preference '" + getName() + "' isn't of type STRING, FILE or FOLDER");
+	}
+	
+	
+	@Override
+	public String toString() {
+		return getName();
+	}
+	
+}
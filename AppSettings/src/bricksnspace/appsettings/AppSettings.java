@@ -21,16 +21,10 @@
 package bricksnspace.appsettings;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.List;
-import java.util.Map;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.concurrent.Executor;
 import java.util.prefs.BackingStoreException;
 import java.util.prefs.InvalidPreferencesFormatException;
 import java.util.prefs.Preferences;
@@ -38,19 +32,23 @@ import java.util.prefs.Preferences;
 /**
  * Java application settings/preferences helper
  * 
- * Uses Java Preferences from java.util
- * Can save and load preferences from file
+ * Keeps preferences in memory, or in Java Preferences from java.util (see setBackend)
+ * Can save and load preferences from file, in Preferences XML export format or in binary format
+ * Parsed values are cached, so repeated reads don't go through Preferences
+ * Registered preferences can be read and written with typed handles (see AppPref)
+ * Preferences can be added from any thread, readers always see a consistent registry
+ * 
+ * Static methods use a default SettingsStore, create more SettingsStore 
+ * for independent sets of preferences.
  * 
  * @see Preferences
+ * @see SettingsStore
  * 
  * @author Mario Pascucci
  *
  */
 public class AppSettings {
 	
-	// true if preferences was read from file
-	private static boolean configured = false;
-	
 	// type definition for preference type
 	public static final int STRING = 1;
 	public static final int BOOLEAN = 2;
@@ -58,45 +56,71 @@ public class AppSettings {
 	public static final int FLOAT = 4;
 	public static final int FILE = 5;
 	public static final int FOLDER = 6;
-	public static final int MAXTYPES = 6;
+	// binary content in a file next to preferences file, see BlobPref
+	public static final int BLOB = 7;
+	public static final int MAXTYPES = 7;
 	
-	private static Preferences prefs;
+	// backend for preferences values
+	public static final int MEMORY_BACKEND = 1;
+	public static final int PREFERENCES_BACKEND = 2;
+	public static final int SHARED_BACKEND = 3;
 	
-	// internal structures for preferences name, description and type
-	private static Map<String,String> displayName = new HashMap<String,String>();
-	private static Map<String,Integer> types = new HashMap<String,Integer>();
-	private static Map<String,Boolean> appPrivate = new HashMap<String,Boolean>();
+	// configuration layers, from lowest to highest priority (see getSource)
+	public static final int LAYER_NONE = 0;
+	public static final int LAYER_DEFAULT = 1;
+	public static final int LAYER_SITE = 2;
+	public static final int LAYER_USER = 3;
+	public static final int LAYER_ENVIRONMENT = 4;
+	public static final int LAYER_SYSTEM = 5;
+	public static final int LAYER_COMMAND_LINE = 6;
 	
-	// defaults 
-	private static Map<String,String> defStrings = new HashMap<String,String>();
-	private static Map<String,Integer> defInts = new HashMap<String,Integer>();
-	private static Map<String,Boolean> defBools = new HashMap<String,Boolean>();
-	private static Map<String,Float> defFloats = new HashMap<String,Float>();
+	// store used by static methods
+	private static final SettingsStore store = new SettingsStore();
+	
+	
+	
+	/**
+	 * @return default store, used by static methods
+	 */
+	public static SettingsStore getDefault() {
+		
+		return store;
+	}
+	
+	
+	/**
+	 * Checks parameters for a new preference
+	 */
+	static void checkPref(String name, String dispName, int type) {
+		
+		if (name == null || name == "")
+			throw new IllegalArgumentException("Invalid name for Preference");
+		if (dispName == null || dispName == "")
+			throw new IllegalArgumentException("Invalid description for Preference");
+		if (type <= 0 || type > MAXTYPES)
+			throw new IllegalArgumentException("Invalid type for Preference");
+	}
 	
-	private static List<String> names = new ArrayList<String>(); 
 	
-	private static String prefsFile = null;
 	
-
-
 	/**
 	 * @return the prefsFile
 	 */
 	public static String getPrefsFile() {
-		return prefsFile;
+		
+		return store.getPrefsFile();
 	}
-
-
-
+	
+	
 	/**
 	 * @param prefsFile the prefsFile to set
 	 */
 	public static void setPrefsFile(String prefsFile) {
-		AppSettings.prefsFile = prefsFile;
+		
+		store.setPrefsFile(prefsFile);
 	}
-
-
-
+	
+	
 	/**
 	 * Opens and reads preferences from file, if exists.
 	 * If not exists, creates a new file, and set a boolean to false to notify that is a first run.
@@ -105,50 +129,33 @@ public class AppSettings {
 	 * @param app application object Class
 	 * @return true if 
 	 */
-	public static boolean openPreferences(Object app) {		
-		
-		if (prefsFile == null) {
-			if (app == null) {
-				throw new IllegalArgumentException("Application Class can't be null"); 
-			}
-			else {
-				prefsFile = app.getClass().getSimpleName()+".prefs";
-			}
-		}
-		File pf = new File(prefsFile);
-		configured = false;
-		//prefs = Preferences.userNodeForPackage(app.getClass());
-		if (pf.canRead() && pf.isFile()) {
-			try {
-				prefs = Preferences.userNodeForPackage(app.getClass());
-				prefs.clear();
-				Preferences.importPreferences(new FileInputStream(pf));
-				configured = true;
-
-			} catch (FileNotFoundException e) {
-				try {
-					prefs.clear();
-				} catch (BackingStoreException e1) {
-					// nothing to do
-					Logger.getGlobal().log(Level.SEVERE,"Preferences read error", e1);
-				}
-			} catch (IOException e) {
-				Logger.getGlobal().log(Level.SEVERE,"Preferences read error", e);
-			} catch (InvalidPreferencesFormatException | BackingStoreException e) {
-				Logger.getGlobal().log(Level.SEVERE,"Preferences read error", e);
-			}
-		}
-		else {
-			try {
-				prefs = Preferences.userNodeForPackage(app.getClass());
-				prefs.clear();
-			} catch (BackingStoreException e1) {
-				// nothing to do
-				Logger.getGlobal().log(Level.SEVERE,"Preferences internal error", e1);
-			}
-		}
-		
-		return isConfigured();
+	public static boolean openPreferences(Object app) {
+		
+		return store.openPreferences(app);
+	}
+	
+	
+	/**
+	 * Choose where preferences values are kept. Takes effect on next openPreferences().
+	 * MEMORY_BACKEND (default) keeps values in memory, and stores them only in preferences file.
+	 * PREFERENCES_BACKEND keeps values in Java Preferences user node for application package, 
+	 * as in previous versions, for code that reads that node directly. 
+	 * SHARED_BACKEND keeps values in a memory mapped file shared by all processes using same 
+	 * preferences file (see SettingsStore#setBackend(int)).
+	 * @param type MEMORY_BACKEND, PREFERENCES_BACKEND or SHARED_BACKEND
+	 */
+	public static void setBackend(int type) {
+		
+		store.setBackend(type);
+	}
+	
+	
+	/**
+	 * @return current backend type
+	 */
+	public static int getBackend() {
+		
+		return store.getBackend();
 	}
 	
 	
@@ -158,17 +165,26 @@ public class AppSettings {
 	 */
 	public static boolean isConfigured() {
 		
-		return configured;
+		return store.isConfigured();
 	}
-
-
+	
+	
+	/**
+	 * @return true if preferences are opened
+	 */
+	static boolean isOpen() {
+		
+		return store.isOpen();
+	}
+	
+	
 	/**
 	 * Gets a list of user defined preferences
-	 * @return list of preferences 
+	 * @return an immutable snapshot of preferences list
 	 */
 	public static List<String> getPrefsList() {
 		
-		return names;
+		return store.getPrefsList();
 	}
 	
 	
@@ -179,11 +195,10 @@ public class AppSettings {
 	 */
 	public static String getDescr(String name) {
 		
-		return displayName.get(name);
+		return store.getDescr(name);
 	}
 	
 	
-	
 	/**
 	 * Add a preference to settings list.
 	 * A preference is defined by a unique name, with a description text (used in OptionDialog as text description) and a type
@@ -191,21 +206,13 @@ public class AppSettings {
 	 * @param name unique name for preference
 	 * @param dispName description text
 	 * @param type chosen from defined type (see above)
+	 * @return handle for preference, use asInt(), asBool()... to get a typed handle
 	 */
-	public static void addPref(String name, String dispName, int type) {
+	public static AppPref addPref(String name, String dispName, int type) {
 		
-		if (name == null || name == "")
-			throw new IllegalArgumentException("Invalid name for Preference");
-		if (dispName == null || dispName == "")
-			throw new IllegalArgumentException("Invalid description for Preference");
-		if (type <= 0 || type > MAXTYPES)
-			throw new IllegalArgumentException("Invalid type for Preference");
-		names.add(name);
-		displayName.put(name, dispName);
-		types.put(name, type);
-		appPrivate.put(name, false); 	// user defined
+		return store.addPref(name, dispName, type);
 	}
-
+	
 	
 	/**
 	 * Add an app private preference to settings list.
@@ -215,13 +222,135 @@ public class AppSettings {
 	 * @param name unique name for preference
 	 * @param dispName description text
 	 * @param type chosen from defined type (see above)
+	 * @return handle for preference, use asInt(), asBool()... to get a typed handle
 	 */
-	public static void addPrivatePref(String name, String dispName, int type) {
+	public static AppPref addPrivatePref(String name, String dispName, int type) {
 		
-		addPref(name, dispName, type);
-		appPrivate.put(name, true); 	// app private
+		return store.addPrivatePref(name, dispName, type);
 	}
-
+	
+	
+	/**
+	 * Starts a batch of preferences definitions, registered all at once with commit()
+	 * @return a new empty batch
+	 */
+	public static PrefBatch batch() {
+		
+		return store.batch();
+	}
+	
+	
+	/**
+	 * Enables metrics for default store, published as platform MBean
+	 * @see SettingsStore#enableMetrics(String)
+	 * @param name name for MBean
+	 * @return metrics collected
+	 */
+	public static SettingsMetrics enableMetrics(String name) {
+		
+		return store.enableMetrics(name);
+	}
+	
+	
+	/**
+	 * Disables metrics for default store
+	 */
+	public static void disableMetrics() {
+		
+		store.disableMetrics();
+	}
+	
+	
+	/**
+	 * @return metrics for default store, or null if disabled
+	 */
+	public static SettingsMetrics getMetrics() {
+		
+		return store.getMetrics();
+	}
+	
+	
+	/**
+	 * Reads a site-wide preferences file as a layer below user preferences
+	 * @see SettingsStore#loadSiteFile(File)
+	 */
+	public static void loadSiteFile(File f) throws IOException {
+		
+		store.loadSiteFile(f);
+	}
+	
+	
+	/**
+	 * Uses environment variables named prefix + preference name as overrides
+	 * @see SettingsStore#useEnvironment(String)
+	 */
+	public static void useEnvironment(String prefix) {
+		
+		store.useEnvironment(prefix);
+	}
+	
+	
+	/**
+	 * Uses system properties named prefix + preference name as overrides
+	 * @see SettingsStore#useSystemProperties(String)
+	 */
+	public static void useSystemProperties(String prefix) {
+		
+		store.useSystemProperties(prefix);
+	}
+	
+	
+	/**
+	 * Uses command line arguments "--name=value" as overrides
+	 * @see SettingsStore#setCommandLine(String...)
+	 * @return arguments not used as preferences
+	 */
+	public static List<String> setCommandLine(String... args) {
+		
+		return store.setCommandLine(args);
+	}
+	
+	
+	/**
+	 * Reads again environment variables and system properties
+	 */
+	public static void refreshLayers() {
+		
+		store.refreshLayers();
+	}
+	
+	
+	/**
+	 * @param key preference name
+	 * @return layer current value comes from, one of LAYER_* constants
+	 */
+	public static int getSource(String key) {
+		
+		return store.getSource(key);
+	}
+	
+	
+	/**
+	 * Starts a transaction, to write many preferences at once with commit() 
+	 * or discard them with rollback()
+	 * @return a new empty transaction
+	 */
+	public static PrefTransaction begin() {
+		
+		return store.begin();
+	}
+	
+	
+	/**
+	 * Gets handle for a registered preference
+	 * @param name preference name
+	 * @return handle for preference, use asInt(), asBool()... to get a typed handle
+	 */
+	public static AppPref getPref(String name) {
+		
+		return store.getPref(name);
+	}
+	
 	
 	/**
 	 * @param name preference to query
@@ -229,29 +358,204 @@ public class AppSettings {
 	 */
 	public static int getType(String name) {
 		
-		return types.get(name);
+		return store.getType(name);
 	}
 	
 	
-	
 	public static boolean isAppPrivate(String key) {
 		
-		if (key == null || key =="")
-			throw new IllegalArgumentException("Parameter 'key' is null or empty string.");
-		return appPrivate.get(key);
+		return store.isAppPrivate(key);
 	}
 	
 	
-	
 	/**
-	 * Write current preferences to preference file
+	 * Write current preferences to preference file.
+	 * Preferences are written to a temporary file, then renamed over preference file, 
+	 * so a crash during save never leaves a damaged file. Previous file is kept 
+	 * as backup, with ".bak" extension.
+	 * If journal is enabled, only changed preferences are appended to journal file. 
 	 * @throws IOException
 	 * @throws BackingStoreException
 	 */
 	public static void savePreferences() throws IOException, BackingStoreException {
 		
-		File spf = new File(prefsFile);
-		prefs.exportSubtree(new FileOutputStream(spf));
+		store.savePreferences();
+	}
+	
+	
+	/**
+	 * Enables journal: savePreferences() appends changed preferences to a journal file, 
+	 * next to preferences file, instead of writing all preferences. 
+	 * When journal grows over compactSize bytes, all preferences are written 
+	 * to preferences file in background, and journal is deleted.
+	 * Preferences must be already opened.
+	 * @param compactSize journal size in bytes that triggers compaction
+	 */
+	public static void enableJournal(long compactSize) {
+		
+		store.enableJournal(compactSize);
+	}
+	
+	
+	/**
+	 * Disables journal, writing all preferences to preferences file
+	 * @throws IOException
+	 * @throws BackingStoreException
+	 */
+	public static void disableJournal() throws IOException, BackingStoreException {
+		
+		store.disableJournal();
+	}
+	
+	
+	/**
+	 * @return true if journal is enabled
+	 */
+	public static boolean isJournal() {
+		
+		return store.isJournal();
+	}
+	
+	
+	/**
+	 * Choose preferences file format. Binary files are smaller and faster to open, 
+	 * because values are read only when needed. XML files are standard Preferences 
+	 * export files. File format is detected when preferences are opened, and 
+	 * same format is used to save. Use exportXml() and importXml() to exchange 
+	 * preferences in XML format.
+	 * @param binary true to save in binary format
+	 */
+	public static void setBinaryFormat(boolean binary) {
+		
+		store.setBinaryFormat(binary);
+	}
+	
+	
+	/**
+	 * @return true if preferences are saved in binary format
+	 */
+	public static boolean isBinaryFormat() {
+		
+		return store.isBinaryFormat();
+	}
+	
+	
+	/**
+	 * Writes all preferences to a file in XML format, as Preferences export
+	 * @param f file to write
+	 * @throws IOException
+	 * @throws BackingStoreException
+	 */
+	public static void exportXml(File f) throws IOException, BackingStoreException {
+		
+		store.exportXml(f);
+	}
+	
+	
+	/**
+	 * Reads preferences from a file in XML format, as Preferences export. 
+	 * Values read replace current values, and are saved with next save.
+	 * @param f file to read
+	 * @throws IOException
+	 * @throws InvalidPreferencesFormatException
+	 * @throws BackingStoreException
+	 */
+	public static void importXml(File f) throws IOException, InvalidPreferencesFormatException, BackingStoreException {
+		
+		store.importXml(f);
+	}
+	
+	
+	/**
+	 * Choose if saved preferences are forced to disk before replacing old file.
+	 * Without sync saving is faster, but a system crash can lose last saved changes.
+	 * Default is true.
+	 * @param sync false to skip sync to disk
+	 */
+	public static void setSyncOnSave(boolean sync) {
+		
+		store.setSyncOnSave(sync);
+	}
+	
+	
+	/**
+	 * @return true if saved preferences are forced to disk
+	 */
+	public static boolean isSyncOnSave() {
+		
+		return store.isSyncOnSave();
+	}
+	
+	
+	/**
+	 * Enables hot reload: preferences file is watched for changes done by other programs, 
+	 * and changed values replace current values. Bursts of file changes are reloaded 
+	 * once, after delay milliseconds without changes, and only if file content really changed.
+	 * Changes not saved yet are kept. Preferences must be already opened.
+	 * @param delay milliseconds without file changes before reloading
+	 * @throws IOException if preferences file folder can't be watched
+	 */
+	public static void enableHotReload(long delay) throws IOException {
+		
+		store.enableHotReload(delay);
+	}
+	
+	
+	/**
+	 * Disables hot reload
+	 */
+	public static void disableHotReload() {
+		
+		store.disableHotReload();
+	}
+	
+	
+	/**
+	 * @return true if hot reload is enabled
+	 */
+	public static boolean isHotReload() {
+		
+		return store.isHotReload();
+	}
+	
+	
+	/**
+	 * Enables write-behind saving: changes done with put methods or handles are saved 
+	 * to preferences file after a delay, coalescing all changes done in the meantime.
+	 * Pending changes are saved when autosave is disabled and on JVM shutdown. 
+	 * Preferences must be already opened.
+	 * @param delay milliseconds from first change to save
+	 */
+	public static void enableAutoSave(long delay) {
+		
+		store.enableAutoSave(delay);
+	}
+	
+	
+	/**
+	 * Disables write-behind saving, saving pending changes
+	 */
+	public static void disableAutoSave() {
+		
+		store.disableAutoSave();
+	}
+	
+	
+	/**
+	 * @return true if write-behind saving is enabled
+	 */
+	public static boolean isAutoSave() {
+		
+		return store.isAutoSave();
+	}
+	
+	
+	/**
+	 * @return true if there are changes not saved to preferences file
+	 */
+	public static boolean isModified() {
+		
+		return store.isModified();
 	}
 	
 	
@@ -261,7 +565,8 @@ public class AppSettings {
 	 * @param value
 	 */
 	public static void put(String key, String value) {
-		prefs.put(key, value);
+		
+		store.put(key, value);
 	}
 	
 	
@@ -271,7 +576,8 @@ public class AppSettings {
 	 * @param value
 	 */
 	public static void putBool(String key, boolean value) {
-		prefs.putBoolean(key, value);
+		
+		store.putBool(key, value);
 	}
 	
 	
@@ -281,7 +587,8 @@ public class AppSettings {
 	 * @param value
 	 */
 	public static void putInt(String key, int value) {
-		prefs.putInt(key, value);
+		
+		store.putInt(key, value);
 	}
 	
 	
@@ -291,7 +598,8 @@ public class AppSettings {
 	 * @param value
 	 */
 	public static void putFloat(String key, float value) {
-		prefs.putFloat(key, value);
+		
+		store.putFloat(key, value);
 	}
 	
 	
@@ -301,35 +609,32 @@ public class AppSettings {
 	 * @param def default value if "key" is not present
 	 */
 	public static void defString(String key, String def) {
-		defStrings.put(key, def);
+		
+		store.defString(key, def);
 	}
 	
-
+	
 	/**
 	 * Read a preference of type STRING, FILE or FOLDER
 	 * @param key preference name to read
 	 * @return value for preference or default if defined or empty string if preference is not defined
 	 */
 	public static String get(String key) {
-		if (defStrings.containsKey(key))
-			return prefs.get(key, defStrings.get(key));
-		else
-			return prefs.get(key, "");
+		
+		return store.get(key);
 	}
 	
-
+	
 	/**
 	 * Read a preference of type BOOLEAN
 	 * @param key preference name to read
 	 * @return value for preference or default if defined or false if preference is not defined
 	 */
 	public static boolean getBool(String key) {
-		if (defBools.containsKey(key))
-			return prefs.getBoolean(key,defBools.get(key));
-		else
-			return prefs.getBoolean(key, false);
+		
+		return store.getBool(key);
 	}
-
+	
 	
 	/**
 	 * Define a default for type BOOLEAN
@@ -337,20 +642,19 @@ public class AppSettings {
 	 * @param def default value if "key" is not present
 	 */
 	public static void defBool(String key, boolean def) {
-		defBools.put(key, def);
+		
+		store.defBool(key, def);
 	}
 	
-
+	
 	/**
 	 * Read a preference of type INTEGER
 	 * @param key preference name to read
 	 * @return value for preference or default if defined or zero if preference is not defined
 	 */
 	public static int getInt(String key) {
-		if (defInts.containsKey(key))
-			return prefs.getInt(key, defInts.get(key));
-		else
-			return prefs.getInt(key, 0);
+		
+		return store.getInt(key);
 	}
 	
 	
@@ -360,31 +664,77 @@ public class AppSettings {
 	 * @param def default value if "key" is not present
 	 */
 	public static void defInt(String key, int def) {
-		defInts.put(key, def);
+		
+		store.defInt(key, def);
 	}
 	
-
+	
 	/**
 	 * Read a preference of type FLOAT
 	 * @param key preference name to read
 	 * @return value for preference or zero if preference is not defined
 	 */
 	public static float getFloat(String key) {
-		if (defFloats.containsKey(key))
-			return prefs.getFloat(key, defFloats.get(key));
-		else
-			return prefs.getFloat(key, 0f);
+		
+		return store.getFloat(key);
 	}
 	
-
+	
 	/**
 	 * Define a default for type FLOAT
 	 * @param key preference name to read
 	 * @param def default value if "key" is not present
 	 */
 	public static void defFloat(String key, float def) {
-		defFloats.put(key, def);
+		
+		store.defFloat(key, def);
+	}
+	
+	
+	/**
+	 * Adds a listener for changes to a preference. 
+	 * Changes are delivered on executor, coalesced by key (see SettingsListener)
+	 * @param key preference name
+	 * @param l listener
+	 * @param executor executor for listener calls, i.e. one using SwingUtilities.invokeLater() for Swing components
+	 */
+	public static void addSettingsListener(String key, SettingsListener l, Executor executor) {
+		
+		store.addSettingsListener(key, l, executor);
+	}
+	
+	
+	/**
+	 * Adds a listener for changes to a set of preferences
+	 * @param keys preferences names
+	 * @param l listener
+	 * @param executor executor for listener calls
+	 */
+	public static void addSettingsListener(Collection<String> keys, SettingsListener l, Executor executor) {
+		
+		store.addSettingsListener(keys, l, executor);
+	}
+	
+	
+	/**
+	 * Adds a listener for changes to all preferences with name starting with a prefix
+	 * @param prefix preferences name prefix, empty string for all preferences
+	 * @param l listener
+	 * @param executor executor for listener calls
+	 */
+	public static void addPrefixListener(String prefix, SettingsListener l, Executor executor) {
+		
+		store.addPrefixListener(prefix, l, executor);
 	}
 	
+	
+	/**
+	 * Removes a listener from all preferences it was added to
+	 * @param l listener to remove
+	 */
+	public static void removeSettingsListener(SettingsListener l) {
+		
+		store.removeSettingsListener(l);
+	}
 
 }
@@ -19,12 +19,22 @@
 
 package bricksnspace.appsettings;
 
-import java.awt.Dimension;
-import java.awt.Toolkit;
+import java.awt.Component;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsDevice;
+import java.awt.GraphicsEnvironment;
+import java.awt.HeadlessException;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
 
 /**
  * Static utilities for UI resolution versus screen size handling
  * 
+ * Display metrics are cached: checking resolution or getting resource folder
+ * reads a field, and display configuration is checked again at most once
+ * every second. Size is in device pixels, so a HiDPI display with scaling 
+ * counts with its real resolution. In headless mode display is never hi-res.
+ * 
  * @author Mario Pascucci
  *
  */
@@ -36,6 +46,36 @@ public class AppUIResolution {
 	private static String hiresFolder = "imghires/";
 	private static String stdresFolder = "images/";
 	
+	// nanoseconds between display configuration checks
+	private static final long RECHECK = 1000000000L;
+	
+	private static volatile Metrics primary;
+	private static volatile Metrics lastConfig;
+	private static volatile long nextCheck;
+	private static volatile long nextConfigCheck;
+	
+	
+	/**
+	 * Immutable display metrics for a screen, and decisions taken with current limits 
+	 */
+	private static final class Metrics {
+		
+		final GraphicsConfiguration gc;
+		final Rectangle bounds;
+		final double scale;
+		final boolean hiRes;
+		final String imgDir;
+		
+		Metrics(GraphicsConfiguration gc, Rectangle bounds, double scale) {
+			
+			this.gc = gc;
+			this.bounds = bounds;
+			this.scale = scale;
+			hiRes = gc != null && bounds.width * scale > xLimit && bounds.height * scale > yLimit;
+			imgDir = hiRes ? hiresFolder : stdresFolder;
+		}
+	}
+	
 	
 	
 	
@@ -50,6 +90,7 @@ public class AppUIResolution {
 			throw new IllegalArgumentException("Resource folder(s) cannot be null or empty string");
 		stdresFolder = std;
 		hiresFolder = hires;
+		refresh();
 	}
 	
 	
@@ -62,6 +103,82 @@ public class AppUIResolution {
 		
 		xLimit = x;
 		yLimit = y;
+		refresh();
+	}
+	
+	
+	
+	/**
+	 * Discards cached display metrics, to read them again on next call
+	 */
+	public static void refresh() {
+		
+		primary = null;
+		lastConfig = null;
+	}
+	
+	
+	
+	/**
+	 * Gets metrics for primary screen, reading them again if display configuration changed
+	 */
+	private static Metrics primary() {
+		
+		Metrics m = primary;
+		long now = System.nanoTime();
+		// headless can't change, no checks
+		if (m != null && (m.gc == null || now - nextCheck < 0)) {
+			return m;
+		}
+		nextCheck = now + RECHECK;
+		GraphicsConfiguration gc = null;
+		if (!GraphicsEnvironment.isHeadless()) {
+			try {
+				gc = GraphicsEnvironment.getLocalGraphicsEnvironment()
+						.getDefaultScreenDevice().getDefaultConfiguration();
+			}
+			catch (HeadlessException e) {
+				// no display
+			}
+		}
+		Metrics n = gc == null ? new Metrics(null, new Rectangle(), 1.0) : metrics(gc);
+		if (m != null && m.gc == n.gc && m.scale == n.scale && m.bounds.equals(n.bounds)) {
+			// no changes
+			return m;
+		}
+		// display configuration changed, other screens too
+		lastConfig = null;
+		primary = n;
+		return n;
+	}
+	
+	
+	
+	private static Metrics metrics(GraphicsConfiguration gc) {
+		
+		AffineTransform t = gc.getDefaultTransform();
+		return new Metrics(gc, gc.getBounds(), Math.max(t.getScaleX(), 1.0));
+	}
+	
+	
+	
+	/**
+	 * Gets metrics for a screen. Last one is cached, and read again after
+	 * same interval as primary screen metrics
+	 */
+	private static Metrics forScreen(GraphicsConfiguration gc) {
+		
+		if (gc == null)
+			return primary();
+		Metrics m = lastConfig;
+		long now = System.nanoTime();
+		if (m != null && m.gc == gc && now - nextConfigCheck < 0) {
+			return m;
+		}
+		nextConfigCheck = now + RECHECK;
+		m = metrics(gc);
+		lastConfig = m;
+		return m;
 	}
 	
 	
@@ -72,12 +189,18 @@ public class AppUIResolution {
 	 */
 	public static String getImgDir() {
 		
-		if (isHiRes()) {
-			return hiresFolder;
-		}
-		else {
-			return stdresFolder;
-		}
+		return primary().imgDir;
+	}
+	
+	
+	/**
+	 * Returns resource folder for a resolution
+	 * @param hiRes true for hi-res folder
+	 * @return a string containing resource folder
+	 */
+	public static String getFolder(boolean hiRes) {
+		
+		return hiRes ? hiresFolder : stdresFolder;
 	}
 	
 	
@@ -87,11 +210,68 @@ public class AppUIResolution {
 	 */
 	public static boolean isHiRes() {
 		
-		Dimension d = Toolkit.getDefaultToolkit().getScreenSize();
-		if (d.width > xLimit && d.height > yLimit) {
-			return true;
+		return primary().hiRes;
+	}
+	
+	
+	/**
+	 * Returns resource folder for a screen
+	 * @param gc screen configuration, null for primary screen
+	 * @return a string containing resource folder
+	 */
+	public static String getImgDir(GraphicsConfiguration gc) {
+		
+		return forScreen(gc).imgDir;
+	}
+	
+	
+	/**
+	 * Checking for screen size against user-defined limits
+	 * @param gc screen configuration, null for primary screen
+	 * @return true if screen is bigger than defined limits
+	 */
+	public static boolean isHiRes(GraphicsConfiguration gc) {
+		
+		return forScreen(gc).hiRes;
+	}
+	
+	
+	/**
+	 * Returns resource folder for screen where a component is shown
+	 * @param c component, primary screen is used if component isn't displayed yet
+	 * @return a string containing resource folder
+	 */
+	public static String getImgDir(Component c) {
+		
+		return forScreen(c.getGraphicsConfiguration()).imgDir;
+	}
+	
+	
+	/**
+	 * Gets HiDPI scale factor for a screen, 1.0 if display isn't scaled or in headless mode
+	 * @param gc screen configuration, null for primary screen
+	 * @return scale factor between user space and device pixels
+	 */
+	public static double getScale(GraphicsConfiguration gc) {
+		
+		return forScreen(gc).scale;
+	}
+	
+	
+	/**
+	 * Gets all screens in current display configuration
+	 * @return screen configurations, an empty array in headless mode
+	 */
+	public static GraphicsConfiguration[] getScreens() {
+		
+		if (GraphicsEnvironment.isHeadless())
+			return new GraphicsConfiguration[0];
+		GraphicsDevice[] devs = GraphicsEnvironment.getLocalGraphicsEnvironment().getScreenDevices();
+		GraphicsConfiguration[] gcs = new GraphicsConfiguration[devs.length];
+		for (int i = 0; i < devs.length; i++) {
+			gcs[i] = devs[i].getDefaultConfiguration();
 		}
-		return false;
+		return gcs;
 	}
 	
 	
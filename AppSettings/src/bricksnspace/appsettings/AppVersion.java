@@ -19,17 +19,11 @@
 
 package bricksnspace.appsettings;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLConnection;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 /**
  * 
@@ -43,6 +37,7 @@ public class AppVersion {
 	public static int MAJOR = 0;
 	public static int MINOR = 0;
 	public static int PATCH = 0;
+	private static volatile Version current = Version.ZERO;
 	
 
 	
@@ -79,40 +74,14 @@ public class AppVersion {
 	 * Parses a standard version string to integer values. 
 	 * Accepts up to three version levels, major, minor and patchlevel, assigning zero to omitted values. 
 	 * "1.4" -> "1.4.0"
-	 * DO NOT ACCEPT non-numeric values, like "1.0.3a", evaluated as 0. -> "1.0.3a" == "1.0.0"
+	 * Suffixes are ignored: "1.0.3a" -> "1.0.3", "2.0.0-rc1" -> "2.0.0". Use {@link Version#parse(String)}
+	 * to keep pre-release and build suffixes.
 	 * @param version standard version string (major.minor.patchlevel) es. "0.2.12" "2.3.0"
 	 * @return integer array with versions values (three integers)
 	 */
 	public static int[] parseVersionString(String version) {
 
-		int[] ver = {0,0,0};
-		
-		String[] s = version.split("\\.");
-		if (s.length >= 1) {
-			try {
-				ver[0] = Integer.parseInt(s[0]);
-			}
-			catch (NumberFormatException e) {
-				// unable to read major-> 0
-			}
-		}
-		if (s.length >= 2) {
-			try {
-				ver[1] = Integer.parseInt(s[1]);
-			}
-			catch (NumberFormatException e) {
-				// unable to read minor-> 0
-			}
-		}
-		if (s.length >= 3) {
-			try {
-				ver[2] = Integer.parseInt(s[2]);
-			}
-			catch (NumberFormatException e) {
-				// unable to read patch-> 0
-			}
-		}
-		return ver;
+		return Version.parse(version).toArray();
 	}
 	
 	
@@ -122,10 +91,27 @@ public class AppVersion {
 	 */
 	public static void setMyVersion(String version) {
 		
-		int[] v = parseVersionString(version);
-		MAJOR = v[0];
-		MINOR = v[1];
-		PATCH = v[2];
+		Version v = Version.parse(version);
+		current = v;
+		MAJOR = v.getMajor();
+		MINOR = v.getMinor();
+		PATCH = v.getPatch();
+	}
+	
+	
+	/**
+	 * Gets current version, including pre-release suffix if set with {@link #setMyVersion(String)}
+	 * @return current version
+	 */
+	public static Version myVersionValue() {
+		
+		Version v = current;
+		if (v.getMajor() != MAJOR || v.getMinor() != MINOR || v.getPatch() != PATCH) {
+			// fields changed directly
+			v = Version.of(MAJOR, MINOR, PATCH);
+			current = v;
+		}
+		return v;
 	}
 	
 	
@@ -136,24 +122,19 @@ public class AppVersion {
 	 */
 	public static int compareVersion(String ver) {
 		
-		int v[] = parseVersionString(ver);
+		return compareVersion(Version.parse(ver));
+	}
+	
+	
+	/**
+	 * Compares given version to current stored version
+	 * @param ver version to compare
+	 * @return 0 if equals, 1 if given version is newer that current, -1 if older
+	 */
+	public static int compareVersion(Version ver) {
 		
-		if (v[0] > MAJOR)
-			return 1;
-		else if (v[0] < MAJOR)
-			return -1;
-		// major version is equal, checks minor
-		if (v[1] > MINOR)
-			return 1;
-		else if (v[1] < MINOR)
-			return -1;
-		// major and minor are equal, check patchlevel
-		if (v[2] > PATCH)
-			return 1;
-		else if (v[2] < PATCH)
-			return -1;
-		// version are equal
-		return 0;
+		int r = ver.compareTo(myVersionValue());
+		return r > 0 ? 1 : (r < 0 ? -1 : 0);
 	}
 	
 	
@@ -161,101 +142,61 @@ public class AppVersion {
 	/**
 	 * gets a version from an URL
 	 * 
-	 * version is a plain text file with a string representing a version triplet
+	 * version is a plain text file with a string representing a version triplet.
+	 * Blocks until version is read or timeout expires, see {@link #checkUpdate(String)}
 	 * 
 	 * @param updateUrl
 	 * @return version read from url
 	 */
 	public static String getUrlVersion(String updateUrl) {
 
-		URL updUrl;
+		UpdateCheck check;
 		try {
-			updUrl = new URL(updateUrl);
-		} catch (MalformedURLException e1) {
+			check = new UpdateCheck(updateUrl);
+		} catch (IllegalArgumentException e1) {
 			Logger.getGlobal().log(Level.SEVERE,"URL read error", e1);
 			return "";
 		}
-		URLConnection connect = null;
-		InputStream urlStream = null;
 		try {
-			HttpURLConnection.setFollowRedirects(false);
-			connect = updUrl.openConnection();
-			urlStream = connect.getInputStream();
+			return check.readOnce();
 		}
 		catch (IOException ex) {
 			// probably no Internet connection is available...
 			return "";
 		}
-		if (connect.getContentLength() == 0) {
-			// no updates
-			return "";
-		}
-		InputStreamReader isr = new InputStreamReader(urlStream);
-		String readVer = "";
-		try {
-			int c;
-			do {
-				c = isr.read();
-				if (c != -1) {
-					readVer += (char)c;
-				}
-			} while (c != -1);
-			readVer = readVer.trim();
-			return readVer;
-		}
-		catch (IOException e) {
-			return readVer;
-		}
+	}
+	
+	
+	/**
+	 * checks for updates in background, with default timeouts and cache TTL
+	 * 
+	 * @see UpdateCheck
+	 * @param updateUrl URL of a plain text file with a version string
+	 * @return future completed with version read from url
+	 */
+	public static CompletableFuture<Version> checkUpdate(String updateUrl) {
+		
+		return new UpdateCheck(updateUrl).check();
 	}
 	
 	
 	/**
 	 * gets version from a zipfile
-	 * Version number must be inside a text file called VERSION as a version string triplet
+	 * Version number must be inside a text file called VERSION as a version string triplet,
+	 * or in manifest as Implementation-Version.
+	 * To read many files see {@link ZipVersionIndex}
 	 * 
 	 * @param zf
 	 * @return version from zipfile
 	 */
 	public static String getZipVersion(String zf) {
 		
-		ZipFile z;
 		try {
-			z = new ZipFile(zf);
+			return ZipVersionIndex.readVersion(new File(zf));
 		} catch (IOException e) {
 			Logger.getGlobal().log(Level.SEVERE,"Zip file read error", e);
 			return "";
 		}
-		ZipEntry ze = z.getEntry("VERSION");
-		if (ze == null) {
-			try {
-				z.close();
-			} catch (IOException e) {
-				Logger.getGlobal().log(Level.WARNING,"Zip file close error", e);
-			}
-			return "";
-		}
-		String readVer;
-		try {
-			InputStream is = z.getInputStream(ze);
-			readVer = "";
-			int c;
-			do {
-				c = is.read();
-				if (c != -1) {
-					readVer += (char)c;
-				}
-			} while (c != -1);
-		} catch (IOException e) {
-			Logger.getGlobal().log(Level.SEVERE,"Zip file read error", e);
-			return "";
-		}
-		try {
-			z.close();
-		} catch (IOException e1) {
-			Logger.getGlobal().log(Level.WARNING,"Zip file close error", e1);
-		}
-		readVer = readVer.trim();
-		return readVer;
 	}
 
 	
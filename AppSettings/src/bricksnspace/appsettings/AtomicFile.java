@@ -0,0 +1,210 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Crash-safe file replacement
+ * 
+ * New content is written to a temporary file in same folder, forced to disk 
+ * and renamed over target file, so target file is always complete. 
+ * Previous content is kept as a backup file, target name + ".bak"
+ * 
+ * <pre>
+ * OutputStream os = af.startWrite();
+ * try {
+ *     // write content
+ *     af.finishWrite(os, true);
+ * } 
+ * catch (IOException e) {
+ *     af.failWrite(os);
+ * }
+ * </pre>
+ * 
+ * @author Mario Pascucci
+ *
+ */
+class AtomicFile {
+	
+	private static final int BUFFER_SIZE = 64*1024;
+	
+	private final Path file;
+	private final Path backup;
+	
+	
+	/**
+	 * Output to temporary file, keeps channel to force content on disk
+	 */
+	private static final class TempOutput extends BufferedOutputStream {
+		
+		final Path tmp;
+		final FileChannel channel;
+		
+		TempOutput(Path tmp, FileChannel channel) {
+			super(Channels.newOutputStream(channel), BUFFER_SIZE);
+			this.tmp = tmp;
+			this.channel = channel;
+		}
+	}
+	
+	
+	
+	AtomicFile(File f) {
+		
+		file = f.getAbsoluteFile().toPath();
+		backup = file.resolveSibling(file.getFileName() + ".bak");
+	}
+	
+	
+	/**
+	 * @return target file
+	 */
+	File getFile() {
+		return file.toFile();
+	}
+	
+	
+	/**
+	 * @return backup file, previous content of target
+	 */
+	File getBackup() {
+		return backup.toFile();
+	}
+	
+	
+	/**
+	 * Starts writing new content
+	 * @return a stream to temporary file
+	 * @throws IOException
+	 */
+	OutputStream startWrite() throws IOException {
+		
+		Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+		copyPermissions(tmp);
+		FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		return new TempOutput(tmp, ch);
+	}
+	
+	
+	/**
+	 * Gives temporary file same permissions of target file, 
+	 * temporary files are created readable only by owner
+	 * @param tmp temporary file
+	 */
+	private void copyPermissions(Path tmp) {
+		
+		PosixFileAttributeView view = Files.getFileAttributeView(file, PosixFileAttributeView.class);
+		if (view == null || !Files.exists(file))
+			return;
+		try {
+			Files.setPosixFilePermissions(tmp, view.readAttributes().permissions());
+		} catch (IOException e) {
+			Logger.getGlobal().log(Level.WARNING,"Unable to copy permissions of "+file, e);
+		}
+	}
+	
+	
+	/**
+	 * Completes writing, replacing target file with new content
+	 * @param os stream returned by startWrite()
+	 * @param sync true to force content on disk before replacing target
+	 * @throws IOException
+	 */
+	void finishWrite(OutputStream os, boolean sync) throws IOException {
+		
+		TempOutput out = (TempOutput) os;
+		try {
+			out.flush();
+			if (sync) {
+				out.channel.force(true);
+			}
+		}
+		finally {
+			out.close();
+		}
+		if (Files.exists(file)) {
+			Files.deleteIfExists(backup);
+			try {
+				Files.createLink(backup, file);
+			} catch (IOException | UnsupportedOperationException e) {
+				// no hard links on this file system
+				Files.copy(file, backup, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		try {
+			Files.move(out.tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(out.tmp, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+		if (sync) {
+			syncFolder();
+		}
+	}
+	
+	
+	/**
+	 * Aborts writing, target file is left untouched
+	 * @param os stream returned by startWrite(), can be null
+	 */
+	void failWrite(OutputStream os) {
+		
+		if (os == null)
+			return;
+		TempOutput out = (TempOutput) os;
+		try {
+			out.close();
+		} catch (IOException e) {
+			// nothing to do
+		}
+		try {
+			Files.deleteIfExists(out.tmp);
+		} catch (IOException e) {
+			Logger.getGlobal().log(Level.WARNING,"Unable to delete temporary file "+out.tmp, e);
+		}
+	}
+	
+	
+	/**
+	 * Forces rename on disk, where file system allows it
+	 */
+	private void syncFolder() {
+		
+		try (FileChannel dir = FileChannel.open(file.getParent(), StandardOpenOption.READ)) {
+			dir.force(true);
+		} catch (IOException e) {
+			// folders can't be opened or forced on some platforms
+		}
+	}
+
+}
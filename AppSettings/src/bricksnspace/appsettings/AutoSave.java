@@ -0,0 +1,142 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Write-behind saving of preferences
+ * 
+ * First change after a save schedules a save after a fixed delay, 
+ * all changes done in the meantime are written together.
+ * If nothing changed when save runs, preferences file is left untouched.
+ * Pending changes are saved on JVM shutdown.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+class AutoSave implements Runnable {
+	
+	private final SettingsStore store;
+	private final PrefTable table;
+	private final long delay;
+	private final ScheduledExecutorService scheduler;
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+	private final Thread shutdownHook;
+	
+	
+	/**
+	 * Starts autosave for a preferences table
+	 * @param store store to save
+	 * @param table preferences table of store, to watch
+	 * @param delay delay in milliseconds from first change to save
+	 */
+	AutoSave(SettingsStore store, PrefTable table, long delay) {
+		
+		if (delay < 0)
+			throw new IllegalArgumentException("Autosave delay can't be negative");
+		this.store = store;
+		this.table = table;
+		this.delay = delay;
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "AppSettings-autosave");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		shutdownHook = new Thread("AppSettings-autosave-shutdown") {
+			@Override
+			public void run() {
+				flush();
+			}
+		};
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+		table.setWriteHook(this);
+		if (table.isDirty()) {
+			run();
+		}
+	}
+	
+	
+	/**
+	 * @return delay in milliseconds from first change to save
+	 */
+	long getDelay() {
+		return delay;
+	}
+	
+	
+	/**
+	 * Called on every change, schedules a save if none is pending
+	 */
+	@Override
+	public void run() {
+		
+		if (scheduled.compareAndSet(false, true)) {
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					flush();
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	
+	/**
+	 * Saves preferences now if there are unsaved changes
+	 */
+	void flush() {
+		
+		scheduled.set(false);
+		if (!table.isDirty())
+			return;
+		try {
+			store.savePreferences();
+		} catch (Exception e) {
+			Logger.getGlobal().log(Level.SEVERE,"Preferences autosave error", e);
+		}
+	}
+	
+	
+	/**
+	 * Stops autosave, saving pending changes
+	 */
+	void stop() {
+		
+		table.setWriteHook(null);
+		scheduler.shutdownNow();
+		flush();
+		try {
+			Runtime.getRuntime().removeShutdownHook(shutdownHook);
+		} catch (IllegalStateException e) {
+			// JVM is shutting down, hook is already running
+		}
+	}
+
+}
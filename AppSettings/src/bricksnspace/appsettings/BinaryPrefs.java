@@ -0,0 +1,414 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary preferences file, read in a single buffer
+ * 
+ * File is read on open with a single bulk read, and values are decoded only 
+ * when looked up. File isn't kept open or mapped, so it can be replaced 
+ * on save on every platform.
+ * 
+ * Layout (big endian):
+ * <pre>
+ * header:  magic "ASB1", version, key count, index offset, keys offset, values offset, 
+ *          CRC32 of everything after header
+ * index:   key count entries, sorted by key hash: hash, key offset, value offset
+ * keys:    length + UTF-8 bytes
+ * values:  type tag + value (int, float, byte for boolean, length + UTF-8 bytes for strings)
+ * </pre>
+ * 
+ * Header is checked on open, offsets and lengths of an entry are checked when entry 
+ * is read, so opening costs the same for any number of keys. A damaged entry is 
+ * logged and ignored, as if key isn't in file. CRC32 is checked only if requested 
+ * on open, i.e. when all values are read anyway.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+class BinaryPrefs {
+
+	static final int MAGIC = 0x41534231;		// "ASB1"
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 28;
+	private static final int ENTRY_SIZE = 12;
+	
+	// value type tags
+	private static final byte T_STRING = 1;
+	private static final byte T_INT = 2;
+	private static final byte T_FLOAT = 3;
+	private static final byte T_BOOL = 4;
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private final ByteBuffer buf;
+	private final int count;
+	private final int indexOff;
+	private final int keysOff;
+	private final int valuesOff;
+	// a damaged entry was logged
+	private volatile boolean damaged = false;
+	
+	
+	
+	private BinaryPrefs(ByteBuffer buf, boolean check) throws IOException {
+		
+		this.buf = buf;
+		if (buf.limit() < HEADER_SIZE || buf.getInt(0) != MAGIC)
+			throw new IOException("Not a binary preferences file");
+		int version = buf.getInt(4);
+		if (version != VERSION)
+			throw new IOException("Unsupported binary preferences version: " + version);
+		count = buf.getInt(8);
+		indexOff = buf.getInt(12);
+		keysOff = buf.getInt(16);
+		valuesOff = buf.getInt(20);
+		if (count < 0 || indexOff < HEADER_SIZE || (long) indexOff + (long) count * ENTRY_SIZE > keysOff 
+				|| keysOff > valuesOff || valuesOff > buf.limit())
+			throw new IOException("Damaged binary preferences file");
+		if (check) {
+			CRC32 crc = new CRC32();
+			ByteBuffer body = buf.duplicate();
+			body.position(HEADER_SIZE);
+			crc.update(body);
+			if (buf.getInt(24) != (int) crc.getValue())
+				throw new IOException("Damaged binary preferences file: checksum error");
+		}
+	}
+	
+	
+	/**
+	 * @return true if a string at pos, length and bytes, ends before end
+	 */
+	private boolean isString(long pos, int end) {
+		
+		if (pos < 0 || pos + 4 > end)
+			return false;
+		int len = buf.getInt((int) pos);
+		return len >= 0 && pos + 4 + len <= end;
+	}
+	
+	
+	/**
+	 * Logs a damaged entry, only once for a file
+	 */
+	private void damaged(int entry) {
+		
+		if (!damaged) {
+			damaged = true;
+			Logger.getGlobal().log(Level.WARNING,"Damaged binary preferences file, entry " + entry + " ignored");
+		}
+	}
+	
+	
+	/**
+	 * Checks file signature
+	 * @param f file to check
+	 * @return true if file is a binary preferences file
+	 * @throws IOException
+	 */
+	static boolean isBinary(File f) throws IOException {
+		
+		try (InputStream is = Files.newInputStream(f.toPath())) {
+			byte[] m = new byte[4];
+			int n = 0;
+			while (n < 4) {
+				int r = is.read(m, n, 4 - n);
+				if (r < 0)
+					return false;
+				n += r;
+			}
+			return ByteBuffer.wrap(m).getInt() == MAGIC;
+		}
+	}
+	
+	
+	/**
+	 * Reads a binary preferences file, checking only header
+	 * @param f file to open
+	 * @return binary preferences
+	 * @throws IOException if file can't be read or header is damaged
+	 */
+	static BinaryPrefs open(File f) throws IOException {
+		return open(f, false);
+	}
+	
+	
+	/**
+	 * Reads a binary preferences file
+	 * @param f file to open
+	 * @param check true to check CRC32 of whole file
+	 * @return binary preferences
+	 * @throws IOException if file can't be read or is damaged
+	 */
+	static BinaryPrefs open(File f, boolean check) throws IOException {
+		
+		try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+			// a mapping would keep file in use until garbage collected, 
+			// and a mapped file can't be replaced on Windows
+			long size = ch.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("Binary preferences file too big: " + f.getPath());
+			ByteBuffer b = ByteBuffer.allocate((int) size);
+			while (b.hasRemaining() && ch.read(b) >= 0) {
+				// read all
+			}
+			b.flip();
+			return new BinaryPrefs(b, check);
+		}
+	}
+	
+	
+	/**
+	 * @return number of keys in file
+	 */
+	int size() {
+		return count;
+	}
+	
+	
+	/**
+	 * Lookup a value
+	 * @param key preference name
+	 * @return value as string, like Preferences would store it, or null if key isn't in file 
+	 * or its entry is damaged
+	 */
+	String get(String key) {
+		
+		int h = key.hashCode();
+		int lo = 0;
+		int hi = count - 1;
+		// first entry with same hash
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (buf.getInt(indexOff + mid * ENTRY_SIZE) < h)
+				lo = mid + 1;
+			else
+				hi = mid - 1;
+		}
+		for (int i = lo; i < count && buf.getInt(indexOff + i * ENTRY_SIZE) == h; i++) {
+			if (key.equals(getKey(i))) {
+				return getValue(i);
+			}
+		}
+		return null;
+	}
+	
+	
+	/**
+	 * @return all keys in file, except damaged ones
+	 */
+	List<String> keys() {
+		
+		List<String> k = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			String key = getKey(i);
+			if (key != null) {
+				k.add(key);
+			}
+		}
+		return k;
+	}
+	
+	
+	/**
+	 * @return key of an entry, or null if entry is damaged
+	 */
+	private String getKey(int entry) {
+		
+		long pos = (long) keysOff + buf.getInt(indexOff + entry * ENTRY_SIZE + 4);
+		if (pos < keysOff || !isString(pos, valuesOff)) {
+			damaged(entry);
+			return null;
+		}
+		return readString((int) pos);
+	}
+	
+	
+	/**
+	 * @return value of an entry, or null if entry is damaged
+	 */
+	private String getValue(int entry) {
+		
+		int end = buf.limit();
+		long v = (long) valuesOff + buf.getInt(indexOff + entry * ENTRY_SIZE + 8);
+		if (v >= valuesOff && v < end) {
+			int pos = (int) v;
+			switch (buf.get(pos)) {
+			case T_INT:
+				if (v + 5 <= end)
+					return Integer.toString(buf.getInt(pos + 1));
+				break;
+			case T_FLOAT:
+				if (v + 5 <= end)
+					return Float.toString(buf.getFloat(pos + 1));
+				break;
+			case T_BOOL:
+				if (v + 2 <= end)
+					return buf.get(pos + 1) != 0 ? "true" : "false";
+				break;
+			case T_STRING:
+				if (isString(v + 1, end))
+					return readString(pos + 1);
+				break;
+			}
+		}
+		damaged(entry);
+		return null;
+	}
+	
+	
+	private String readString(int pos) {
+		
+		int len = buf.getInt(pos);
+		byte[] b = new byte[len];
+		ByteBuffer d = buf.duplicate();
+		d.position(pos + 4);
+		d.get(b);
+		return new String(b, UTF8);
+	}
+	
+	
+	/**
+	 * Writes preferences in binary format
+	 * @param os output stream
+	 * @param values preferences values as strings
+	 * @param types preferences types (see AppSettings), missing keys are written as strings
+	 * @throws IOException
+	 */
+	static void write(OutputStream os, Map<String,String> values, Map<String,Integer> types) throws IOException {
+		
+		int n = values.size();
+		String[] keys = values.keySet().toArray(new String[n]);
+		// sort by hash, index is searched by hash
+		Arrays.sort(keys, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				int c = Integer.compare(a.hashCode(), b.hashCode());
+				return c != 0 ? c : a.compareTo(b);
+			}
+		});
+		ByteArrayOutputStream kb = new ByteArrayOutputStream(n * 24);
+		DataOutputStream kout = new DataOutputStream(kb);
+		ByteArrayOutputStream vb = new ByteArrayOutputStream(n * 16);
+		DataOutputStream vout = new DataOutputStream(vb);
+		int[] keyPos = new int[n];
+		int[] valPos = new int[n];
+		for (int i = 0; i < n; i++) {
+			keyPos[i] = kout.size();
+			byte[] k = keys[i].getBytes(UTF8);
+			kout.writeInt(k.length);
+			kout.write(k);
+			valPos[i] = vout.size();
+			writeValue(vout, values.get(keys[i]), types.get(keys[i]));
+		}
+		kout.flush();
+		vout.flush();
+		ByteArrayOutputStream ib = new ByteArrayOutputStream(n * ENTRY_SIZE);
+		DataOutputStream iout = new DataOutputStream(ib);
+		for (int i = 0; i < n; i++) {
+			iout.writeInt(keys[i].hashCode());
+			iout.writeInt(keyPos[i]);
+			iout.writeInt(valPos[i]);
+		}
+		iout.flush();
+		CRC32 crc = new CRC32();
+		crc.update(ib.toByteArray());
+		crc.update(kb.toByteArray());
+		crc.update(vb.toByteArray());
+		DataOutputStream out = new DataOutputStream(os);
+		int indexOff = HEADER_SIZE;
+		int keysOff = indexOff + n * ENTRY_SIZE;
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(n);
+		out.writeInt(indexOff);
+		out.writeInt(keysOff);
+		out.writeInt(keysOff + kb.size());
+		out.writeInt((int) crc.getValue());
+		ib.writeTo(out);
+		kb.writeTo(out);
+		vb.writeTo(out);
+		out.flush();
+	}
+	
+	
+	/**
+	 * Writes a typed value, falling back to string if value doesn't match type
+	 */
+	private static void writeValue(DataOutputStream out, String v, Integer type) throws IOException {
+		
+		if (type != null) {
+			try {
+				switch (type) {
+				case AppSettings.INTEGER:
+					int i = Integer.parseInt(v);
+					out.writeByte(T_INT);
+					out.writeInt(i);
+					return;
+				case AppSettings.FLOAT:
+					float f = Float.parseFloat(v);
+					// only if it can be read back unchanged
+					if (Float.toString(f).equals(v)) {
+						out.writeByte(T_FLOAT);
+						out.writeFloat(f);
+						return;
+					}
+					break;
+				case AppSettings.BOOLEAN:
+					if (v.equals("true") || v.equals("false")) {
+						out.writeByte(T_BOOL);
+						out.writeByte(v.equals("true") ? 1 : 0);
+						return;
+					}
+					break;
+				}
+			}
+			catch (NumberFormatException e) {
+				// stored as string
+			}
+		}
+		byte[] b = v.getBytes(UTF8);
+		out.writeByte(T_STRING);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+	
+}
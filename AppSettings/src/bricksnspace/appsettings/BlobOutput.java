@@ -0,0 +1,118 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Stream for new content of a BLOB preference (see {@link BlobPref#openOutput()})
+ * 
+ * Content replaces old one only when commit() is called: closing stream without 
+ * commit, i.e. when an exception is thrown while writing, discards content written.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public final class BlobOutput extends FilterOutputStream {
+	
+	private final BlobStore store;
+	private final int slot;
+	private final String gen;
+	private final AtomicFile file;
+	private final boolean sync;
+	private final CRC32 crc = new CRC32();
+	private long size = 0;
+	private boolean done = false;
+	
+	
+	BlobOutput(BlobStore store, int slot, String gen, AtomicFile file, OutputStream os, boolean sync) {
+		
+		super(os);
+		this.store = store;
+		this.slot = slot;
+		this.gen = gen;
+		this.file = file;
+		this.sync = sync;
+	}
+	
+	
+	@Override
+	public void write(int b) throws IOException {
+		
+		out.write(b);
+		crc.update(b);
+		size++;
+	}
+	
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		
+		out.write(b, off, len);
+		crc.update(b, off, len);
+		size += len;
+	}
+	
+	
+	/**
+	 * Replaces old content with content written, and notifies preference change.
+	 * Stream is closed.
+	 * @throws IOException if content can't be stored, old content is kept
+	 */
+	public void commit() throws IOException {
+		
+		if (done)
+			throw new IOException("[BlobOutput] Stream already closed");
+		done = true;
+		try {
+			file.finishWrite(out, sync);
+		}
+		catch (IOException | RuntimeException e) {
+			file.failWrite(out);
+			throw e;
+		}
+		store.stored(slot, gen, size, crc.getValue());
+	}
+	
+	
+	/**
+	 * Discards content written, old content is kept
+	 */
+	public void abort() {
+		
+		if (done)
+			return;
+		done = true;
+		file.failWrite(out);
+	}
+	
+	
+	/**
+	 * Closes stream, discarding content if commit() wasn't called
+	 */
+	@Override
+	public void close() {
+		abort();
+	}
+
+}
@@ -0,0 +1,110 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Typed handle for a preference of type BLOB
+ * 
+ * BLOB content is kept in a file next to preferences file, and read or written 
+ * only through this handle, never as a string.
+ * 
+ * <pre>
+ * BlobPref layout = AppSettings.addPrivatePref("layout", "Window layout", AppSettings.BLOB).asBlob();
+ * try (BlobOutput os = layout.openOutput()) {
+ *     // write layout
+ *     os.commit();
+ * }
+ * </pre>
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public final class BlobPref extends AppPref {
+	
+	
+	BlobPref(PrefTable table, int slot) {
+		super(table, slot);
+	}
+	
+	
+	/**
+	 * @return size in bytes of content file, -1 if preference has no content or file is missing
+	 */
+	public long size() {
+		return table.getBlobs().size(slot);
+	}
+	
+	
+	/**
+	 * Opens content for reading
+	 * @return stream with content, empty if preference has no content. 
+	 * Stream throws an IOException at end if content is damaged
+	 * @throws IOException
+	 */
+	public InputStream openStream() throws IOException {
+		return table.getBlobs().open(slot);
+	}
+	
+	
+	/**
+	 * Reads whole content
+	 * @return read-only buffer with content, empty if preference has no content
+	 * @throws IOException if content can't be read or is damaged
+	 */
+	public ByteBuffer get() throws IOException {
+		return table.getBlobs().read(slot);
+	}
+	
+	
+	/**
+	 * Opens a stream to write new content. New content replaces old one 
+	 * when stream is committed, and preference change is notified to listeners. 
+	 * Closing stream without commit discards new content.
+	 * @return stream for new content
+	 * @throws IOException
+	 */
+	public BlobOutput openOutput() throws IOException {
+		return table.getBlobs().write(slot);
+	}
+	
+	
+	/**
+	 * Save new content
+	 * @param data content, from position to limit. Buffer position isn't changed
+	 * @throws IOException
+	 */
+	public void set(ByteBuffer data) throws IOException {
+		table.getBlobs().write(slot, data);
+	}
+	
+	
+	/**
+	 * Removes content. Content file is deleted on next savePreferences()
+	 * @throws IOException
+	 */
+	public void remove() throws IOException {
+		table.getBlobs().remove(slot);
+	}
+	
+}
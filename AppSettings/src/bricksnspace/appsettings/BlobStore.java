@@ -0,0 +1,430 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Values of BLOB preferences, stored in files in a folder next to preferences file
+ * 
+ * Every BLOB content has its own file, written with {@link AtomicFile}. Preference 
+ * value in preferences file is only a short reference with size, CRC32 of content and 
+ * a random generation, that is part of file name, so opening and saving preferences never 
+ * reads or writes BLOB contents, and changes to reference are notified to listeners as 
+ * for other preferences. Size and CRC32 are checked when content is read.
+ * Content is written to a new file when stream is committed, without waiting for 
+ * savePreferences(). Files replaced are deleted on next save, so preferences file 
+ * never refers to a missing file.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+class BlobStore {
+	
+	private static final String PREFIX = "blob:";
+	private static final int MAX_NAME = 40;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private final PrefTable table;
+	private volatile File folder = null;
+	private volatile boolean sync = true;
+	// files replaced or removed, by slot, deleted when preferences are saved. Guarded by itself
+	private final Map<File,Integer> stale = new HashMap<File,Integer>();
+	
+	
+	BlobStore(PrefTable table) {
+		
+		this.table = table;
+	}
+	
+	
+	/**
+	 * @param folder folder for BLOB files, created when first BLOB is written
+	 */
+	void setFolder(File folder) {
+		this.folder = folder;
+	}
+	
+	
+	/**
+	 * @param sync true to force BLOB files on disk when written
+	 */
+	void setSync(boolean sync) {
+		this.sync = sync;
+	}
+	
+	
+	/**
+	 * @return folder for BLOB files for a preferences file
+	 */
+	static File folderFor(File prefsFile) {
+		
+		return new File(prefsFile.getPath() + ".blobs");
+	}
+	
+	
+	/**
+	 * Reference to BLOB content, stored as preference value
+	 */
+	private static final class Ref {
+		
+		final long size;
+		final long crc;
+		// random hex string, part of file name
+		final String gen;
+		
+		Ref(long size, long crc, String gen) {
+			this.size = size;
+			this.crc = crc;
+			this.gen = gen;
+		}
+		
+		/**
+		 * @return reference in preference value, or null if value isn't a reference
+		 */
+		static Ref parse(String v) {
+			
+			if (!v.startsWith(PREFIX))
+				return null;
+			String[] f = v.substring(PREFIX.length()).split(":");
+			if (f.length != 3 || !f[2].matches("[0-9a-f]{16}"))
+				return null;
+			try {
+				return new Ref(Long.parseLong(f[0]), Long.parseLong(f[1], 16), f[2]);
+			}
+			catch (NumberFormatException e) {
+				return null;
+			}
+		}
+		
+		@Override
+		public String toString() {
+			return PREFIX + size + ":" + String.format("%08x", crc) + ":" + gen;
+		}
+	}
+	
+	
+	/**
+	 * @return current reference of a BLOB preference, or null if it has no BLOB
+	 */
+	private Ref ref(int slot) {
+		return Ref.parse(table.getString(slot));
+	}
+	
+	
+	/**
+	 * @return file for a BLOB content: readable part of key, a CRC32 of whole key 
+	 * and generation of content
+	 */
+	private File fileFor(int slot, String gen) {
+		
+		File f = folder;
+		if (f == null)
+			throw new IllegalStateException("Preferences must be opened before using BLOB preferences");
+		String key = table.getName(slot);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < key.length() && sb.length() < MAX_NAME; i++) {
+			char c = key.charAt(i);
+			sb.append((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') 
+					|| c == '.' || c == '-' ? c : '_');
+		}
+		CRC32 crc = new CRC32();
+		crc.update(key.getBytes(UTF8));
+		sb.append('-').append(String.format("%08x", crc.getValue())).append('-').append(gen);
+		return new File(f, sb.append(".blob").toString());
+	}
+	
+	
+	/**
+	 * @return size of BLOB file, -1 if preference has no BLOB or file is missing
+	 */
+	long size(int slot) {
+		
+		Ref r = ref(slot);
+		if (r == null)
+			return -1;
+		File f = fileFor(slot, r.gen);
+		return f.isFile() ? f.length() : -1;
+	}
+	
+	
+	/**
+	 * Opens BLOB file of a reference, checking its size
+	 */
+	private FileChannel openFile(int slot, Ref r) throws IOException {
+		
+		FileChannel ch;
+		try {
+			ch = FileChannel.open(fileFor(slot, r.gen).toPath(), StandardOpenOption.READ);
+		}
+		catch (NoSuchFileException e) {
+			throw new FileNotFoundException("BLOB file missing for preference " + table.getName(slot));
+		}
+		try {
+			if (ch.size() != r.size)
+				throw damaged(slot);
+			return ch;
+		}
+		catch (IOException | RuntimeException e) {
+			ch.close();
+			throw e;
+		}
+	}
+	
+	
+	private IOException damaged(int slot) {
+		return new IOException("BLOB file damaged for preference " + table.getName(slot));
+	}
+	
+	
+	/**
+	 * Opens BLOB content for reading. Stream throws an IOException at end of content 
+	 * if content doesn't match its CRC32
+	 * @return stream with content, empty if preference has no BLOB
+	 * @throws IOException if BLOB file can't be read
+	 */
+	InputStream open(int slot) throws IOException {
+		
+		Ref r = ref(slot);
+		if (r == null)
+			return new ByteArrayInputStream(new byte[0]);
+		return new CheckedInput(slot, r, Channels.newInputStream(openFile(slot, r)));
+	}
+	
+	
+	/**
+	 * Reads whole BLOB content
+	 * @return read-only buffer with content, empty if preference has no BLOB
+	 * @throws IOException if BLOB file can't be read or doesn't match its reference
+	 */
+	ByteBuffer read(int slot) throws IOException {
+		
+		Ref r = ref(slot);
+		if (r == null)
+			return ByteBuffer.allocate(0).asReadOnlyBuffer();
+		if (r.size > Integer.MAX_VALUE - 8)
+			throw new IOException("BLOB too big for a buffer, use a stream: " + table.getName(slot));
+		try (FileChannel ch = openFile(slot, r)) {
+			ByteBuffer b = ByteBuffer.allocate((int) r.size);
+			while (b.hasRemaining() && ch.read(b) >= 0) {
+				// read all
+			}
+			b.flip();
+			CRC32 crc = new CRC32();
+			crc.update(b.array(), 0, b.limit());
+			if (b.limit() != r.size || crc.getValue() != r.crc)
+				throw damaged(slot);
+			return b.asReadOnlyBuffer();
+		}
+	}
+	
+	
+	/**
+	 * Starts writing new BLOB content. Content replaces old one when stream is committed
+	 * @return stream for new content
+	 * @throws IOException if BLOB file can't be created
+	 */
+	BlobOutput write(int slot) throws IOException {
+		
+		String gen = String.format("%016x", ThreadLocalRandom.current().nextLong());
+		File f = fileFor(slot, gen);
+		Files.createDirectories(f.getParentFile().toPath());
+		AtomicFile af = new AtomicFile(f);
+		return new BlobOutput(this, slot, gen, af, af.startWrite(), sync);
+	}
+	
+	
+	/**
+	 * Writes new BLOB content
+	 * @param data content, from position to limit
+	 * @throws IOException if BLOB file can't be written
+	 */
+	void write(int slot, ByteBuffer data) throws IOException {
+		
+		BlobOutput out = write(slot);
+		try {
+			ByteBuffer b = data.duplicate();
+			byte[] buf = new byte[Math.min(b.remaining(), 64*1024)];
+			while (b.hasRemaining()) {
+				int n = Math.min(buf.length, b.remaining());
+				b.get(buf, 0, n);
+				out.write(buf, 0, n);
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			out.abort();
+			throw e;
+		}
+		out.commit();
+	}
+	
+	
+	/**
+	 * Updates reference to new content written by a BlobOutput
+	 */
+	void stored(int slot, String gen, long size, long crc) {
+		
+		Ref old = ref(slot);
+		table.putString(slot, new Ref(size, crc, gen).toString());
+		replaced(slot, old);
+	}
+	
+	
+	/**
+	 * Removes BLOB reference, file is deleted on next save
+	 */
+	void remove(int slot) {
+		
+		Ref r = ref(slot);
+		table.putString(slot, "");
+		replaced(slot, r);
+	}
+	
+	
+	/**
+	 * Marks file of an old reference for deletion
+	 */
+	private void replaced(int slot, Ref r) {
+		
+		if (r != null) {
+			synchronized (stale) {
+				stale.put(fileFor(slot, r.gen), slot);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Deletes files replaced or removed, if preference doesn't refer to them again. 
+	 * Called after preferences are saved.
+	 */
+	void cleanup() {
+		
+		synchronized (stale) {
+			for (Iterator<Map.Entry<File,Integer>> it = stale.entrySet().iterator(); it.hasNext(); ) {
+				Map.Entry<File,Integer> e = it.next();
+				Ref r = ref(e.getValue());
+				if (r != null && fileFor(e.getValue(), r.gen).equals(e.getKey())) {
+					// reference restored, i.e. by a reload
+					it.remove();
+					continue;
+				}
+				try {
+					Files.deleteIfExists(e.getKey().toPath());
+					it.remove();
+				} catch (IOException ex) {
+					Logger.getGlobal().log(Level.WARNING,"Unable to delete BLOB file "+e.getKey().getPath(), ex);
+				}
+			}
+		}
+	}
+	
+	
+	/**
+	 * Stream checking content against size and CRC32 of reference
+	 */
+	private final class CheckedInput extends FilterInputStream {
+		
+		private final int slot;
+		private final Ref ref;
+		private final CRC32 crc = new CRC32();
+		private long size = 0;
+		
+		CheckedInput(int slot, Ref ref, InputStream is) {
+			super(is);
+			this.slot = slot;
+			this.ref = ref;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			
+			int b = in.read();
+			if (b < 0) {
+				check();
+			}
+			else {
+				crc.update(b);
+				size++;
+			}
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			
+			int n = in.read(b, off, len);
+			if (n < 0) {
+				check();
+			}
+			else {
+				crc.update(b, off, n);
+				size += n;
+			}
+			return n;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException {
+			
+			// skipped bytes are read, to check CRC32
+			byte[] buf = new byte[(int) Math.min(n, 8192)];
+			long skipped = 0;
+			while (skipped < n) {
+				int r = read(buf, 0, (int) Math.min(buf.length, n - skipped));
+				if (r < 0)
+					break;
+				skipped += r;
+			}
+			return skipped;
+		}
+		
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+		
+		private void check() throws IOException {
+			
+			if (size != ref.size || crc.getValue() != ref.crc)
+				throw damaged(slot);
+		}
+	}
+
+}
@@ -0,0 +1,237 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Delivers preferences changes to subscribed listeners
+ * 
+ * Every subscription collects pending changes, coalesced by key, and 
+ * schedules a single delivery on its executor for all changes collected.
+ * 
+ * fire() only collects changes and is called holding table lock, flush() 
+ * hands deliveries to executors and must be called after releasing it, 
+ * so a direct or blocking executor never runs holding table lock.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+class ChangeDispatcher {
+	
+	/**
+	 * A listener subscribed to a set of keys or to a key prefix
+	 */
+	private static final class Subscription implements Runnable {
+		
+		final SettingsListener listener;
+		final Executor executor;
+		final Set<String> keys;
+		final String prefix;
+		private final Map<String,SettingChange> pending = new LinkedHashMap<String,SettingChange>();
+		private boolean scheduled = false;
+		
+		Subscription(SettingsListener listener, Executor executor, Set<String> keys, String prefix) {
+			this.listener = listener;
+			this.executor = executor;
+			this.keys = keys;
+			this.prefix = prefix;
+		}
+		
+		boolean matches(String key) {
+			return keys != null ? keys.contains(key) : key.startsWith(prefix);
+		}
+		
+		/**
+		 * Collects changes
+		 * @return true if subscription must be scheduled for delivery
+		 */
+		boolean add(List<SettingChange> changes) {
+			
+			synchronized (this) {
+				for (SettingChange c : changes) {
+					SettingChange p = pending.get(c.getKey());
+					pending.put(c.getKey(), p == null ? c : p.merge(c));
+				}
+				if (scheduled)
+					return false;
+				scheduled = true;
+				return true;
+			}
+		}
+		
+		/**
+		 * Hands delivery of collected changes to executor
+		 */
+		void schedule() {
+			
+			try {
+				executor.execute(this);
+			}
+			catch (RejectedExecutionException e) {
+				synchronized (this) {
+					scheduled = false;
+					pending.clear();
+				}
+				Logger.getGlobal().log(Level.WARNING,"Settings listener executor rejected changes", e);
+			}
+		}
+		
+		@Override
+		public void run() {
+			
+			List<SettingChange> batch = new ArrayList<SettingChange>();
+			synchronized (this) {
+				for (SettingChange c : pending.values()) {
+					// changed and then restored
+					if (c.isChanged()) {
+						batch.add(c);
+					}
+				}
+				pending.clear();
+				scheduled = false;
+			}
+			if (batch.isEmpty())
+				return;
+			try {
+				listener.settingsChanged(Collections.unmodifiableList(batch));
+			}
+			catch (RuntimeException e) {
+				Logger.getGlobal().log(Level.SEVERE,"Settings listener error", e);
+			}
+		}
+	}
+	
+	
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+	// subscriptions with changes collected, waiting for flush()
+	private final Queue<Subscription> ready = new ConcurrentLinkedQueue<Subscription>();
+	
+	
+	/**
+	 * @return true if some listener is subscribed
+	 */
+	boolean isActive() {
+		return !subscriptions.isEmpty();
+	}
+	
+	
+	/**
+	 * Subscribes a listener to a set of keys
+	 */
+	void add(SettingsListener l, Executor ex, Collection<String> keys) {
+		
+		check(l, ex);
+		subscriptions.add(new Subscription(l, ex, new HashSet<String>(keys), null));
+	}
+	
+	
+	/**
+	 * Subscribes a listener to all keys starting with prefix
+	 */
+	void add(SettingsListener l, Executor ex, String prefix) {
+		
+		check(l, ex);
+		if (prefix == null)
+			throw new IllegalArgumentException("Prefix can't be null");
+		subscriptions.add(new Subscription(l, ex, null, prefix));
+	}
+	
+	
+	private static void check(SettingsListener l, Executor ex) {
+		
+		if (l == null)
+			throw new IllegalArgumentException("Listener can't be null");
+		if (ex == null)
+			throw new IllegalArgumentException("Executor can't be null");
+	}
+	
+	
+	/**
+	 * Removes all subscriptions for a listener
+	 */
+	void remove(SettingsListener l) {
+		
+		for (Subscription s : subscriptions) {
+			if (s.listener == l) {
+				subscriptions.remove(s);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Queues a change for all matching subscriptions
+	 */
+	void fire(SettingChange c) {
+		
+		for (Subscription s : subscriptions) {
+			if (s.matches(c.getKey()) && s.add(Collections.singletonList(c))) {
+				ready.add(s);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Queues a group of changes, every matching subscription gets them in a single delivery
+	 */
+	void fire(List<SettingChange> changes) {
+		
+		for (Subscription s : subscriptions) {
+			List<SettingChange> matching = new ArrayList<SettingChange>();
+			for (SettingChange c : changes) {
+				if (s.matches(c.getKey())) {
+					matching.add(c);
+				}
+			}
+			if (!matching.isEmpty() && s.add(matching)) {
+				ready.add(s);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Schedules delivery of queued changes. Must be called without holding table lock.
+	 */
+	void flush() {
+		
+		Subscription s;
+		while ((s = ready.poll()) != null) {
+			s.schedule();
+		}
+	}
+
+}
@@ -0,0 +1,64 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+/**
+ * Typed handle for a preference of type INTEGER
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public final class IntPref extends AppPref {
+	
+	
+	IntPref(PrefTable table, int slot) {
+		super(table, slot);
+	}
+	
+	
+	/**
+	 * Read preference value
+	 * @return value for preference or default if preference is not set
+	 */
+	public int get() {
+		return table.getInt(slot);
+	}
+	
+	
+	/**
+	 * Save preference value
+	 * @param value
+	 */
+	public void set(int value) {
+		table.putInt(slot, value);
+	}
+	
+	
+	/**
+	 * Define a default for preference
+	 * @param def default value if preference is not set
+	 * @return this handle
+	 */
+	public IntPref setDefault(int def) {
+		table.defInt(slot, def);
+		return this;
+	}
+	
+}
@@ -0,0 +1,357 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of preferences changes, stored next to preferences file 
+ * with ".journal" extension.
+ * 
+ * Every save appends changed keys only, so saving cost depends on size of changes.
+ * Preferences file is the base snapshot: when log grows over a threshold 
+ * it is compacted in background, writing a new base snapshot and deleting log.
+ * 
+ * File format: 4 bytes magic, length and CRC32 of base snapshot the journal applies to, 
+ * then records. Every record is a length, a payload (operation, key and value as 
+ * length-prefixed UTF-8 bytes) and a CRC32 of payload. A damaged record (i.e. 
+ * partially written in a crash) and all following records are discarded. 
+ * A journal is discarded if base snapshot changed, i.e. after a crash between 
+ * writing a new snapshot and deleting journal. 
+ * 
+ * @author Mario Pascucci
+ *
+ */
+class Journal {
+	
+	private static final int MAGIC = 0x41534a32;		// "ASJ2"
+	private static final int HEADER_SIZE = 16;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final byte PUT = 1;
+	private static final byte REMOVE = 2;
+	
+	private final Path file;
+	private final Path base;
+	private final long compactSize;
+	private final Runnable compactTask;
+	private FileChannel channel = null;
+	private final ExecutorService compactor;
+	private final AtomicBoolean compacting = new AtomicBoolean(false);
+	
+	
+	/**
+	 * @param prefsFile preferences file, base snapshot for journal
+	 * @param compactSize journal size that triggers compaction
+	 * @param compactTask task that writes a new base snapshot and resets journal
+	 */
+	Journal(File prefsFile, long compactSize, Runnable compactTask) {
+		
+		if (compactSize <= 0)
+			throw new IllegalArgumentException("Journal compaction size must be positive");
+		file = fileFor(prefsFile).toPath();
+		base = prefsFile.toPath();
+		this.compactSize = compactSize;
+		this.compactTask = compactTask;
+		compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "AppSettings-journal");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	
+	
+	/**
+	 * @param prefsFile preferences file
+	 * @return journal file for preferences file
+	 */
+	static File fileFor(File prefsFile) {
+		
+		return new File(prefsFile.getPath() + ".journal");
+	}
+	
+	
+	/**
+	 * @return size threshold for compaction
+	 */
+	long getCompactSize() {
+		return compactSize;
+	}
+	
+	
+	/**
+	 * Appends current values of changed keys
+	 * @param store preferences backend with current values
+	 * @param keys changed keys
+	 * @param sync true to force journal on disk
+	 * @throws IOException
+	 */
+	void append(SettingsBackend store, Collection<String> keys, boolean sync) throws IOException {
+		
+		if (keys.isEmpty())
+			return;
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(keys.size() * 64);
+		DataOutputStream out = new DataOutputStream(buffer);
+		ByteArrayOutputStream rec = new ByteArrayOutputStream(128);
+		DataOutputStream recOut = new DataOutputStream(rec);
+		CRC32 crc = new CRC32();
+		for (String k : keys) {
+			rec.reset();
+			String v = store.get(k);
+			if (v == null) {
+				recOut.writeByte(REMOVE);
+				writeString(recOut, k);
+			}
+			else {
+				recOut.writeByte(PUT);
+				writeString(recOut, k);
+				writeString(recOut, v);
+			}
+			recOut.flush();
+			crc.reset();
+			crc.update(rec.toByteArray());
+			out.writeInt(rec.size());
+			rec.writeTo(out);
+			out.writeInt((int) crc.getValue());
+		}
+		out.flush();
+		FileChannel ch = open();
+		ByteBuffer b = ByteBuffer.wrap(buffer.toByteArray());
+		while (b.hasRemaining()) {
+			ch.write(b);
+		}
+		if (sync) {
+			ch.force(false);
+		}
+		if (ch.size() > compactSize && compacting.compareAndSet(false, true)) {
+			compactor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						compactTask.run();
+					}
+					finally {
+						compacting.set(false);
+					}
+				}
+			});
+		}
+	}
+	
+	
+	/**
+	 * Opens journal for append, writing header with base snapshot stamp if journal is new
+	 */
+	private FileChannel open() throws IOException {
+		
+		if (channel != null && !Files.exists(file)) {
+			// discarded when preferences file was read again
+			close();
+		}
+		if (channel == null) {
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, 
+					StandardOpenOption.APPEND);
+			if (channel.size() == 0) {
+				ByteBuffer h = ByteBuffer.allocate(HEADER_SIZE);
+				h.putInt(MAGIC).putLong(Files.size(base)).putInt(crc(base)).flip();
+				while (h.hasRemaining()) {
+					channel.write(h);
+				}
+			}
+		}
+		return channel;
+	}
+	
+	
+	/**
+	 * @return CRC32 of a file content
+	 */
+	private static int crc(Path f) throws IOException {
+		
+		CRC32 crc = new CRC32();
+		try (InputStream in = Files.newInputStream(f)) {
+			byte[] b = new byte[64*1024];
+			int n;
+			while ((n = in.read(b)) > 0) {
+				crc.update(b, 0, n);
+			}
+		}
+		return (int) crc.getValue();
+	}
+	
+	
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		
+		byte[] b = s.getBytes(UTF8);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+	
+	
+	private static String readString(DataInputStream in) throws IOException {
+		
+		int len = in.readInt();
+		if (len < 0 || len > in.available())
+			throw new IOException("Invalid string length in journal record");
+		byte[] b = new byte[len];
+		in.readFully(b);
+		return new String(b, UTF8);
+	}
+	
+	
+	/**
+	 * Deletes journal, after a new base snapshot was written
+	 * @throws IOException
+	 */
+	void reset() throws IOException {
+		
+		close();
+		Files.deleteIfExists(file);
+	}
+	
+	
+	/**
+	 * Closes journal file
+	 */
+	void close() {
+		
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				Logger.getGlobal().log(Level.WARNING,"Journal close error", e);
+			}
+			channel = null;
+		}
+	}
+	
+	
+	/**
+	 * Stops background compaction and closes journal
+	 */
+	void stop() {
+		
+		compactor.shutdown();
+		close();
+	}
+	
+	
+	/**
+	 * Applies journal records to preferences backend. 
+	 * A damaged tail is cut off, so new records are appended after last good one. 
+	 * A journal written for another base snapshot is deleted.
+	 * @param prefsFile preferences file
+	 * @param store preferences backend with base snapshot
+	 * @return number of records applied
+	 * @throws IOException
+	 */
+	static int replay(File prefsFile, SettingsBackend store) throws IOException {
+		
+		Path jf = fileFor(prefsFile).toPath();
+		if (!Files.isRegularFile(jf))
+			return 0;
+		int count = 0;
+		long good = 0;
+		boolean stale = false;
+		try (FileChannel ch = FileChannel.open(jf, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			InputStream is = Channels.newInputStream(ch);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+			CRC32 crc = new CRC32();
+			try {
+				int magic = in.readInt();
+				if (magic == MAGIC) {
+					long len = in.readLong();
+					int baseCrc = in.readInt();
+					Path pf = prefsFile.toPath();
+					if (Files.isRegularFile(pf) && Files.size(pf) == len && crc(pf) == baseCrc) {
+						good = HEADER_SIZE;
+					}
+					else {
+						stale = true;
+					}
+				}
+				else {
+					Logger.getGlobal().log(Level.WARNING,"Invalid journal file "+jf+", ignored");
+				}
+				while (good > 0) {
+					int len = in.readInt();
+					if (len <= 0 || len > ch.size())
+						break;
+					byte[] rec = new byte[len];
+					in.readFully(rec);
+					crc.reset();
+					crc.update(rec);
+					if (in.readInt() != (int) crc.getValue())
+						break;
+					DataInputStream r = new DataInputStream(new ByteArrayInputStream(rec));
+					byte op = r.readByte();
+					String k = readString(r);
+					if (op == PUT) {
+						store.put(k, readString(r));
+					}
+					else if (op == REMOVE) {
+						store.remove(k);
+					}
+					count++;
+					good += len + 8;
+				}
+			}
+			catch (EOFException e) {
+				// end of journal or partial record
+			}
+			if (!stale && good < ch.size()) {
+				Logger.getGlobal().log(Level.WARNING,"Damaged journal tail discarded: "+jf);
+				ch.truncate(good);
+			}
+		}
+		if (stale) {
+			// base snapshot was replaced after journal was written, and already contains its changes
+			Logger.getGlobal().log(Level.WARNING,"Journal for a previous preferences file discarded: "+jf);
+			Files.delete(jf);
+		}
+		return count;
+	}
+
+}
@@ -0,0 +1,133 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.prefs.InvalidPreferencesFormatException;
+
+/**
+ * Preferences backend in memory, stored only in preferences file
+ * 
+ * Doesn't use java.util.prefs storage, so there is no hidden I/O, 
+ * file locking or sync thread. XML files are compatible with Preferences 
+ * export of node for same package.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+class MemoryBackend implements SettingsBackend {
+	
+	private final Map<String,String> values = new ConcurrentHashMap<String,String>();
+	private final String path;
+	
+	
+	/**
+	 * @param path absolute path of equivalent Preferences node, used in XML files
+	 */
+	MemoryBackend(String path) {
+		
+		this.path = path;
+	}
+	
+	
+	/**
+	 * Returns path of Preferences node for class package, like Preferences.userNodeForPackage()
+	 * @param c a class
+	 * @return absolute node path
+	 */
+	static String pathForPackage(Class<?> c) {
+		
+		String name = c.getName();
+		int dot = name.lastIndexOf('.');
+		if (dot < 0)
+			return "/<unnamed>";
+		return "/" + name.substring(0, dot).replace('.', '/');
+	}
+	
+
+	@Override
+	public String get(String key) {
+		return values.get(key);
+	}
+
+	
+	@Override
+	public void put(String key, String value) {
+		
+		if (key == null || value == null)
+			throw new NullPointerException();
+		values.put(key, value);
+	}
+
+	
+	@Override
+	public void remove(String key) {
+		values.remove(key);
+	}
+
+	
+	@Override
+	public String[] keys() {
+		return values.keySet().toArray(new String[0]);
+	}
+	
+	
+	@Override
+	public int size() {
+		return values.size();
+	}
+
+	
+	@Override
+	public void clear() {
+		values.clear();
+	}
+
+	
+	@Override
+	public void importXml(InputStream is) throws IOException, InvalidPreferencesFormatException {
+		
+		values.putAll(PrefsXml.read(is, path));
+	}
+
+	
+	@Override
+	public void exportXml(OutputStream os) throws IOException {
+		
+		PrefsXml.write(os, path, values);
+	}
+
+	
+	@Override
+	public void setListener(Listener l) {
+		// no changes from outside
+	}
+	
+	
+	@Override
+	public void close() {
+		// nothing to release
+	}
+
+}
@@ -16,36 +16,48 @@
 	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
 
 */
-
-
 package bricksnspace.appsettings;
 
 import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.Dimension;
 import java.awt.FlowLayout;
-import java.awt.GridBagConstraints;
-import java.awt.GridBagLayout;
-import java.awt.Insets;
+import java.awt.Font;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
-import java.util.TreeSet;
-import java.util.Vector;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.swing.AbstractCellEditor;
 import javax.swing.JButton;
-import javax.swing.JCheckBox;
-import javax.swing.JComponent;
 import javax.swing.JDialog;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JScrollPane;
 import javax.swing.JSpinner;
+import javax.swing.JTable;
 import javax.swing.JTextField;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.DefaultTableCellRenderer;
+import javax.swing.table.TableCellEditor;
+import javax.swing.table.TableCellRenderer;
 
 
 
@@ -57,6 +69,11 @@ import javax.swing.border.EmptyBorder;
  * INTEGER: use a spinner <br>
  * FLOAT: use a text entry (always use "." for decimal) <br>
  * BOOLEAN: use a checkbox <br>
+ * <br>
+ * Preferences are shown in a table grouped by name prefix (text before first "."), 
+ * and can be filtered by name or description. Table creates editors only for the 
+ * cell being edited, so dialog opens fast with many preferences. Use 
+ * {@link #getDialog(JFrame, String)} to reuse same dialog every time.
  * 
  * @author Mario Pascucci
  *
@@ -65,10 +82,16 @@ public class OptionsDialog extends JDialog implements ActionListener {
 
 
 	private static final long serialVersionUID = -2663213467371102L;
+	private static OptionsDialog shared;
+	
+	private final SettingsStore store;
 	private final JPanel contentPanel = new JPanel();
 	private JButton okButton;
 	private JButton cancelButton;
-	private Vector<JComponent> controls = new Vector<JComponent>();
+	private JTextField search;
+	private JTable table;
+	private PrefsModel model;
+	private SearchIndex index;
 	private int userChoice = JOptionPane.CANCEL_OPTION;
 
 	/**
@@ -76,10 +99,20 @@ public class OptionsDialog extends JDialog implements ActionListener {
 	 */
 	public OptionsDialog(JFrame frame, String title, boolean modal) {
 		
+		this(frame, title, modal, AppSettings.getDefault());
+	}
+	
+	
+	/**
+	 * Create the dialog for preferences in a store.
+	 */
+	public OptionsDialog(JFrame frame, String title, boolean modal, SettingsStore store) {
+		
 		super(frame,title,modal);
+		this.store = store;
 		setBounds(100, 100, 450, 300);
 		getContentPane().setLayout(new BorderLayout());
-		contentPanel.setLayout(new GridBagLayout());
+		contentPanel.setLayout(new BorderLayout(2, 2));
 		contentPanel.setBorder(new EmptyBorder(5, 5, 5, 5));
 		getContentPane().add(contentPanel, BorderLayout.CENTER);
 		
@@ -95,80 +128,125 @@ public class OptionsDialog extends JDialog implements ActionListener {
 		cancelButton.addActionListener(this);
 		buttonPane.add(cancelButton);
 		
-		GridBagConstraints gbc = new GridBagConstraints();
-		gbc.weightx = 0.0;
-		gbc.weighty = 0.0;
-		gbc.fill = GridBagConstraints.BOTH;
-		gbc.insets = new Insets(2, 2, 2, 2);
-		gbc.ipady = 2;
-		gbc.ipadx = 2;
-
-		gbc.gridy = 0;
-		
-		// display controls, using preference name for control ID, description for labels.
-		for (String k : new TreeSet<String>(AppSettings.getPrefsList())) {
-			if (AppSettings.isAppPrivate(k))
-				continue;
-			gbc.gridx = 0;
-			switch (AppSettings.getType(k)) {
-			case AppSettings.INTEGER:
-				JLabel l = new JLabel(AppSettings.getDescr(k));
-				l.setHorizontalAlignment(JLabel.RIGHT);
-				contentPanel.add(l,gbc);
-				JSpinner sp = new JSpinner();
-				sp.setName(k);
-				sp.setValue(AppSettings.getInt(k));
-				gbc.gridx = 1;
-				contentPanel.add(sp,gbc);
-				controls.add(sp);
-				break;
-			case AppSettings.BOOLEAN:
-				JCheckBox ck = new JCheckBox(AppSettings.getDescr(k));
-				ck.setName(k);
-				ck.setSelected(AppSettings.getBool(k));
-				gbc.gridx = 1;
-				contentPanel.add(ck,gbc);
-				controls.add(ck);
-				break;
-			case AppSettings.STRING:
-				JLabel lab = new JLabel(AppSettings.getDescr(k));
-				lab.setHorizontalAlignment(JLabel.RIGHT);
-				contentPanel.add(lab,gbc);
-				JTextField s = new JTextField(AppSettings.get(k));
-				s.setName(k);
-				gbc.gridx = 1;
-				contentPanel.add(s,gbc);
-				controls.add(s);
-				break;
-			case AppSettings.FLOAT:
-				JLabel lab1 = new JLabel(AppSettings.getDescr(k));
-				lab1.setHorizontalAlignment(JLabel.RIGHT);
-				contentPanel.add(lab1,gbc);
-				JTextField n = new JTextField(String.format(Locale.US,"%s", AppSettings.getFloat(k)));
-				n.setName(k);
-				gbc.gridx = 1;
-				contentPanel.add(n,gbc);
-				controls.add(n);
-				break;
-			case AppSettings.FILE:
-			case AppSettings.FOLDER:
-				JLabel lab2 = new JLabel(AppSettings.getDescr(k));
-				lab2.setHorizontalAlignment(JLabel.RIGHT);
-				contentPanel.add(lab2,gbc);
-				JButton s1 = new JButton(AppSettings.get(k));
-				s1.setName(k);
-				s1.setBorderPainted(false);
-				s1.addActionListener(this);
-				gbc.gridx = 1;
-				contentPanel.add(s1,gbc);
-				controls.add(s1);
-				break;
+		JPanel searchPane = new JPanel(new BorderLayout(4, 0));
+		searchPane.add(new JLabel("Search:"), BorderLayout.WEST);
+		search = new JTextField();
+		search.getDocument().addDocumentListener(new DocumentListener() {
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				filter();
+			}
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				filter();
 			}
-			gbc.gridy++;
+			@Override
+			public void changedUpdate(DocumentEvent e) {
+				filter();
+			}
+		});
+		searchPane.add(search, BorderLayout.CENTER);
+		contentPanel.add(searchPane, BorderLayout.NORTH);
+		
+		model = new PrefsModel(store);
+		table = new JTable(model) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public TableCellRenderer getCellRenderer(int row, int column) {
+				return rendererFor(row, column);
+			}
+			
+			@Override
+			public TableCellEditor getCellEditor(int row, int column) {
+				return editorFor(row, column);
+			}
+		};
+		table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+		table.setRowHeight(table.getRowHeight() + 4);
+		table.putClientProperty("terminateEditOnFocusLost", Boolean.TRUE);
+		JScrollPane scroll = new JScrollPane(table);
+		scroll.setPreferredSize(new Dimension(560, 400));
+		contentPanel.add(scroll, BorderLayout.CENTER);
+		
+		load();
+		pack();
+	}
+	
+	
+	
+	/**
+	 * Gets a dialog shared between calls, created on first call.
+	 * Dialog is modal, and shows current preferences every time it is opened.
+	 * @param frame parent frame, a new dialog is created if parent changes
+	 * @param title dialog title
+	 * @return shared dialog
+	 */
+	public static OptionsDialog getDialog(JFrame frame, String title) {
+		
+		return getDialog(frame, title, AppSettings.getDefault());
+	}
 	
+	
+	/**
+	 * Gets a dialog shared between calls for preferences in a store
+	 * @param frame parent frame, a new dialog is created if parent changes
+	 * @param title dialog title
+	 * @param store preferences store, a new dialog is created if store changes
+	 * @return shared dialog
+	 */
+	public static OptionsDialog getDialog(JFrame frame, String title, SettingsStore store) {
+		
+		if (shared == null || shared.getOwner() != frame || shared.store != store) {
+			if (shared != null)
+				shared.dispose();
+			shared = new OptionsDialog(frame, title, true, store);
 		}
+		shared.setTitle(title);
+		return shared;
+	}
+	
+	
+	
+	/**
+	 * Shows dialog with current preferences and list of defined preferences
+	 */
+	@Override
+	public void setVisible(boolean b) {
 		
-		pack();
+		if (b && !isVisible()) {
+			userChoice = JOptionPane.CANCEL_OPTION;
+			load();
+		}
+		super.setVisible(b);
+	}
+	
+	
+	
+	/**
+	 * Reads preferences list, discarding pending edits
+	 */
+	private void load() {
+		
+		if (table.isEditing())
+			table.getCellEditor().cancelCellEditing();
+		List<String> names = new ArrayList<String>();
+		for (String k : store.getPrefsList()) {
+			if (!store.isAppPrivate(k) && store.getType(k) != AppSettings.BLOB)
+				names.add(k);
+		}
+		index = new SearchIndex(names, store);
+		model.begin();
+		filter();
+	}
+	
+	
+	
+	private void filter() {
+		
+		if (table.isEditing())
+			table.getCellEditor().stopCellEditing();
+		model.setRows(index.find(search.getText()));
 	}
 
 	
@@ -183,56 +261,397 @@ public class OptionsDialog extends JDialog implements ActionListener {
 	public void actionPerformed(ActionEvent e) {
 		
 		if (e.getSource() == cancelButton) {
+			if (table.isEditing())
+				table.getCellEditor().cancelCellEditing();
 			userChoice = JOptionPane.CANCEL_OPTION;
 			setVisible(false);
+			model.tx.rollback();
 		}
 		else if (e.getSource() == okButton) {
+			if (table.isEditing())
+				table.getCellEditor().stopCellEditing();
 			userChoice = JOptionPane.OK_OPTION;
 			setVisible(false);
-			for (JComponent c : controls) {
-				if (c.getClass() == JCheckBox.class) {
-					AppSettings.putBool(c.getName(),((JCheckBox)c).isSelected());
-				}
-				else if (c.getClass() == JSpinner.class) {
-					AppSettings.putInt(c.getName(),(Integer)((JSpinner)c).getValue());
+			// only changed values are written, all at once
+			model.tx.commit();
+		}
+		
+	}
+	
+	
+	
+	private final TableCellRenderer headerRenderer = new DefaultTableCellRenderer() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public Component getTableCellRendererComponent(JTable table, Object value,
+				boolean isSelected, boolean hasFocus, int row, int column) {
+			super.getTableCellRendererComponent(table, value, false, false, row, column);
+			setFont(getFont().deriveFont(Font.BOLD));
+			return this;
+		}
+	};
+	
+	
+	private final TableCellRenderer descrRenderer = new DefaultTableCellRenderer() {
+		private static final long serialVersionUID = 1L;
+		{
+			setHorizontalAlignment(JLabel.RIGHT);
+		}
+	};
+	
+	
+	private final SpinnerEditor spinnerEditor = new SpinnerEditor();
+	private final FileEditor fileEditor = new FileEditor();
+	
+	
+	
+	private TableCellRenderer rendererFor(int row, int column) {
+		
+		String k = model.getName(row);
+		if (k == null)
+			return headerRenderer;
+		if (column == 0)
+			return descrRenderer;
+		if (store.getType(k) == AppSettings.BOOLEAN)
+			return table.getDefaultRenderer(Boolean.class);
+		return table.getDefaultRenderer(Object.class);
+	}
+	
+	
+	
+	private TableCellEditor editorFor(int row, int column) {
+		
+		String k = model.getName(row);
+		if (k == null)
+			return table.getDefaultEditor(Object.class);
+		switch (store.getType(k)) {
+		case AppSettings.BOOLEAN:
+			return table.getDefaultEditor(Boolean.class);
+		case AppSettings.INTEGER:
+			return spinnerEditor;
+		case AppSettings.FILE:
+		case AppSettings.FOLDER:
+			return fileEditor;
+		default:
+			return table.getDefaultEditor(Object.class);
+		}
+	}
+	
+	
+	
+	/**
+	 * Preferences names with lowercase searchable text, and last search results,
+	 * so a search for a longer text looks only in previous results
+	 */
+	private static class SearchIndex {
+		
+		private final String[] names;
+		private final String[] text;
+		private String lastQuery = "";
+		private int[] lastResult;
+		
+		
+		SearchIndex(List<String> prefs, SettingsStore store) {
+			
+			names = prefs.toArray(new String[prefs.size()]);
+			// sort by group, then by name
+			Arrays.sort(names, new Comparator<String>() {
+				@Override
+				public int compare(String a, String b) {
+					int r = group(a).compareTo(group(b));
+					return r != 0 ? r : a.compareTo(b);
 				}
-				else if (c.getClass() == JTextField.class) {
-					if (AppSettings.getType(c.getName()) == AppSettings.STRING) { 
-						AppSettings.put(c.getName(),((JTextField)c).getText());
-					}
-					else if (AppSettings.getType(c.getName()) == AppSettings.FLOAT) {
-						try {
-							AppSettings.putFloat(c.getName(), Float
-									.parseFloat(((JTextField) c).getText()));
-						} catch (NumberFormatException e2) {
-							AppSettings.putFloat(c.getName(), 0f);
-						}
+			});
+			text = new String[names.length];
+			lastResult = new int[names.length];
+			for (int i = 0; i < names.length; i++) {
+				text[i] = (names[i] + "\n" + store.getDescr(names[i])).toLowerCase(Locale.ROOT);
+				lastResult[i] = i;
+			}
+		}
+		
+		
+		/**
+		 * @return names matching query, sorted by group and name
+		 */
+		List<String> find(String query) {
+			
+			String q = query.trim().toLowerCase(Locale.ROOT);
+			int[] from;
+			if (q.startsWith(lastQuery)) {
+				from = lastResult;
+			}
+			else {
+				from = new int[names.length];
+				for (int i = 0; i < from.length; i++)
+					from[i] = i;
+			}
+			int[] res = new int[from.length];
+			int n = 0;
+			for (int i : from) {
+				if (q.length() == 0 || text[i].indexOf(q) >= 0)
+					res[n++] = i;
+			}
+			lastQuery = q;
+			lastResult = Arrays.copyOf(res, n);
+			List<String> l = new ArrayList<String>(n);
+			for (int i = 0; i < n; i++)
+				l.add(names[res[i]]);
+			return l;
+		}
+	}
+	
+	
+	
+	/**
+	 * Group for a preference, name prefix before first dot, empty for no prefix
+	 */
+	static String group(String name) {
+		
+		int i = name.indexOf('.');
+		return i > 0 ? name.substring(0, i) : "";
+	}
+	
+	
+	
+	/**
+	 * Table with preferences description and value, and a header row for every group.
+	 * Edited values are shown from pending map and staged in a transaction, 
+	 * committed when user press OK
+	 */
+	private static class PrefsModel extends AbstractTableModel {
+		
+		private static final long serialVersionUID = 1L;
+		// preference name for every row, null for group rows
+		private List<String> rows = new ArrayList<String>();
+		private List<String> groups = new ArrayList<String>();
+		private final SettingsStore store;
+		private final Map<String,Object> pending = new HashMap<String,Object>();
+		PrefTransaction tx;
+		
+		
+		PrefsModel(SettingsStore store) {
+			
+			this.store = store;
+		}
+		
+		
+		/**
+		 * Discards edits and starts a new transaction
+		 */
+		void begin() {
+			
+			if (tx != null && tx.isActive())
+				tx.rollback();
+			tx = store.begin();
+			pending.clear();
+		}
+		
+		
+		void setRows(List<String> names) {
+			
+			rows = new ArrayList<String>(names.size() + 8);
+			groups = new ArrayList<String>(names.size() + 8);
+			String g = null;
+			for (String k : names) {
+				String kg = group(k);
+				if (!kg.equals(g)) {
+					if (kg.length() > 0) {
+						rows.add(null);
+						groups.add(kg);
 					}
+					g = kg;
 				}
+				rows.add(k);
+				groups.add(kg);
 			}
+			fireTableDataChanged();
+		}
+		
+		
+		String getName(int row) {
+			return rows.get(row);
+		}
+		
+		
+		@Override
+		public int getRowCount() {
+			return rows.size();
+		}
+		
+		
+		@Override
+		public int getColumnCount() {
+			return 2;
 		}
-		else if (e.getSource() instanceof JButton) {
-			String name = ((JButton)e.getSource()).getName();
-			JFileChooser dlg = new JFileChooser(AppSettings.get(name));
-			if (AppSettings.getType(name) == AppSettings.FILE) {
+		
+		
+		@Override
+		public String getColumnName(int column) {
+			return column == 0 ? "Preference" : "Value";
+		}
+		
+		
+		@Override
+		public boolean isCellEditable(int row, int column) {
+			return column == 1 && rows.get(row) != null;
+		}
+		
+		
+		@Override
+		public Object getValueAt(int row, int column) {
+			
+			String k = rows.get(row);
+			if (k == null)
+				return column == 0 ? groups.get(row) : "";
+			if (column == 0)
+				return store.getDescr(k);
+			if (pending.containsKey(k))
+				return pending.get(k);
+			switch (store.getType(k)) {
+			case AppSettings.BOOLEAN:
+				return store.getBool(k);
+			case AppSettings.INTEGER:
+				return store.getInt(k);
+			case AppSettings.FLOAT:
+				return String.format(Locale.US,"%s", store.getFloat(k));
+			default:
+				return store.get(k);
+			}
+		}
+		
+		
+		@Override
+		public void setValueAt(Object value, int row, int column) {
+			
+			String k = rows.get(row);
+			if (k == null || column != 1)
+				return;
+			switch (store.getType(k)) {
+			case AppSettings.BOOLEAN:
+				tx.putBool(k, (Boolean) value);
+				break;
+			case AppSettings.INTEGER:
+				tx.putInt(k, (Integer) value);
+				break;
+			case AppSettings.FLOAT:
+				try {
+					tx.putFloat(k, Float.parseFloat((String) value));
+				} catch (NumberFormatException e) {
+					tx.putFloat(k, 0f);
+				}
+				break;
+			default:
+				tx.put(k, (String) value);
+			}
+			pending.put(k, value);
+			fireTableCellUpdated(row, column);
+		}
+	}
+	
+	
+	
+	/**
+	 * Integer editor, a single spinner for all rows
+	 */
+	private static class SpinnerEditor extends AbstractCellEditor implements TableCellEditor {
+		
+		private static final long serialVersionUID = 1L;
+		private final JSpinner spinner = new JSpinner();
+		
+		
+		@Override
+		public Component getTableCellEditorComponent(JTable table, Object value, 
+				boolean isSelected, int row, int column) {
+			spinner.setValue(value);
+			return spinner;
+		}
+		
+		
+		@Override
+		public Object getCellEditorValue() {
+			
+			try {
+				spinner.commitEdit();
+			} catch (ParseException e) {
+				// keeps last valid value
+			}
+			return spinner.getValue();
+		}
+	}
+	
+	
+	
+	/**
+	 * File or folder editor, opens a file chooser
+	 */
+	private class FileEditor extends AbstractCellEditor implements TableCellEditor, ActionListener {
+		
+		private static final long serialVersionUID = 1L;
+		private final JButton button = new JButton();
+		private String name;
+		private String value;
+		
+		
+		FileEditor() {
+			
+			button.setBorderPainted(false);
+			button.setHorizontalAlignment(JButton.LEFT);
+			button.addActionListener(this);
+		}
+		
+		
+		@Override
+		public Component getTableCellEditorComponent(JTable table, Object value, 
+				boolean isSelected, int row, int column) {
+			
+			name = model.getName(row);
+			this.value = (String) value;
+			button.setText(this.value);
+			// open chooser as soon as editing starts
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					if (button.isShowing())
+						button.doClick();
+				}
+			});
+			return button;
+		}
+		
+		
+		@Override
+		public Object getCellEditorValue() {
+			return value;
+		}
+		
+		
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			
+			JFileChooser dlg = new JFileChooser(store.get(name));
+			if (store.getType(name) == AppSettings.FILE) {
 				dlg.setFileSelectionMode(JFileChooser.FILES_ONLY);
 			}
-			else if (AppSettings.getType(name) == AppSettings.FOLDER) {
+			else if (store.getType(name) == AppSettings.FOLDER) {
 				dlg.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
 			}
-			dlg.setDialogTitle(AppSettings.getDescr(name));
-			int res = dlg.showOpenDialog(this);
+			dlg.setDialogTitle(store.getDescr(name));
+			int res = dlg.showOpenDialog(OptionsDialog.this);
 			if (res == JFileChooser.APPROVE_OPTION) {
 				try {
 					String file = dlg.getSelectedFile().getCanonicalPath();
-					((JButton)e.getSource()).setText(file);
-					AppSettings.put(name, file);
+					value = file;
 				} catch (IOException e1) {
-					Logger.getGlobal().log(Level.SEVERE,"File path read error", e);
+					Logger.getGlobal().log(Level.SEVERE,"File path read error", e1);
 				}
+				stopCellEditing();
+			}
+			else {
+				cancelCellEditing();
 			}
 		}
-		
 	}
 
 }
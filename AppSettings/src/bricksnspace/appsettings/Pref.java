@@ -0,0 +1,68 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Defines a preference in a {@link PrefSchema} interface
+ * 
+ * Annotated method is the getter for preference, its return type gives preference type: 
+ * int for INTEGER, boolean for BOOLEAN, float for FLOAT, String for STRING. 
+ * Use type to declare a String preference as FILE or FOLDER.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.METHOD)
+public @interface Pref {
+	
+	/**
+	 * @return preference name, without schema prefix
+	 */
+	String name();
+	
+	/**
+	 * @return description text, used in options dialog
+	 */
+	String descr();
+	
+	/**
+	 * @return preference type (see AppSettings), 0 to use getter return type
+	 */
+	int type() default 0;
+	
+	/**
+	 * @return default value, as a string checked at compile time. Empty for no default
+	 */
+	String def() default "";
+	
+	/**
+	 * @return true for an app private preference, not shown in options dialog
+	 */
+	boolean appPrivate() default false;
+
+}
@@ -0,0 +1,154 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects preferences definitions and defaults, and registers all of them at once
+ * 
+ * Registering many preferences one by one copies preferences registry for every call,
+ * a batch publish a single new registry for all preferences added.
+ * A batch isn't thread safe, use one batch for every registering thread.
+ * 
+ * <pre>
+ * AppSettings.batch()
+ *     .addPref("width", "Window width", AppSettings.INTEGER)
+ *     .defInt("width", 800)
+ *     .commit();
+ * </pre>
+ * 
+ * @see AppSettings#batch()
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public class PrefBatch {
+	
+	private final PrefTable table;
+	private List<PrefTable.Registration> regs = new ArrayList<PrefTable.Registration>();
+	private List<PrefTable.Default> defs = new ArrayList<PrefTable.Default>();
+	
+	
+	PrefBatch(PrefTable table) {
+		
+		this.table = table;
+	}
+	
+	
+	/**
+	 * Add a preference to batch
+	 * @see AppSettings#addPref(String, String, int)
+	 * @param name unique name for preference
+	 * @param dispName description text
+	 * @param type preference type
+	 * @return this batch
+	 */
+	public PrefBatch addPref(String name, String dispName, int type) {
+		
+		AppSettings.checkPref(name, dispName, type);
+		regs.add(new PrefTable.Registration(name, dispName, type, false));
+		return this;
+	}
+	
+	
+	/**
+	 * Add an app private preference to batch
+	 * @see AppSettings#addPrivatePref(String, String, int)
+	 * @param name unique name for preference
+	 * @param dispName description text
+	 * @param type preference type
+	 * @return this batch
+	 */
+	public PrefBatch addPrivatePref(String name, String dispName, int type) {
+		
+		AppSettings.checkPref(name, dispName, type);
+		regs.add(new PrefTable.Registration(name, dispName, type, true));
+		return this;
+	}
+	
+	
+	/**
+	 * Define a default for type STRING, FILE or FOLDER
+	 * @param key preference name
+	 * @param def default value
+	 * @return this batch
+	 */
+	public PrefBatch defString(String key, String def) {
+		
+		defs.add(new PrefTable.Default(key, PrefTable.STR, def));
+		return this;
+	}
+	
+	
+	/**
+	 * Define a default for type INTEGER
+	 * @param key preference name
+	 * @param def default value
+	 * @return this batch
+	 */
+	public PrefBatch defInt(String key, int def) {
+		
+		defs.add(new PrefTable.Default(key, PrefTable.INT, def));
+		return this;
+	}
+	
+	
+	/**
+	 * Define a default for type BOOLEAN
+	 * @param key preference name
+	 * @param def default value
+	 * @return this batch
+	 */
+	public PrefBatch defBool(String key, boolean def) {
+		
+		defs.add(new PrefTable.Default(key, PrefTable.BOOL, def));
+		return this;
+	}
+	
+	
+	/**
+	 * Define a default for type FLOAT
+	 * @param key preference name
+	 * @param def default value
+	 * @return this batch
+	 */
+	public PrefBatch defFloat(String key, float def) {
+		
+		defs.add(new PrefTable.Default(key, PrefTable.FLOAT, def));
+		return this;
+	}
+	
+	
+	/**
+	 * Registers all preferences and defaults in batch. 
+	 * Batch is emptied and can be reused.
+	 * @return handles for added preferences, in same order as added
+	 */
+	public List<AppPref> commit() {
+		
+		List<AppPref> handles = table.apply(regs, defs);
+		regs = new ArrayList<PrefTable.Registration>();
+		defs = new ArrayList<PrefTable.Default>();
+		return handles;
+	}
+
+}
@@ -0,0 +1,62 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an interface as a preferences schema
+ * 
+ * Every method of interface is a getter annotated with {@link Pref}. Annotation processor 
+ * in appsettings-processor generates a class named as interface plus "Impl", that registers 
+ * all preferences with their defaults and implements getters with typed handles, 
+ * so reads don't need any lookup by name.
+ * 
+ * <pre>
+ * &#64;PrefSchema(prefix = "view.")
+ * public interface ViewPrefs {
+ *     &#64;Pref(name = "width", descr = "Window width", def = "800")
+ *     int width();
+ * }
+ * 
+ * ViewPrefs v = new ViewPrefsImpl(AppSettings.getDefault());
+ * int w = v.width();
+ * </pre>
+ * 
+ * Generated class has also a setter for every preference and constants with preference names.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface PrefSchema {
+	
+	/**
+	 * @return prefix added to all preference names in schema
+	 */
+	String prefix() default "";
+
+}
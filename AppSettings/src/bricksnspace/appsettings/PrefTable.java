@@ -0,0 +1,1446 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.prefs.BackingStoreException;
+
+/**
+ * Slot-indexed table for preferences metadata, defaults and parsed values
+ * 
+ * Every known key gets an integer slot in a set of parallel arrays, so a read 
+ * through a handle is a single array access without hashing or boxing.
+ * Keys used only with get/put/def methods get a slot too, but are not 
+ * registered, i.e. they don't appear in preferences list.
+ * 
+ * Descriptors live in an immutable registry snapshot, replaced when 
+ * preferences are added, so readers never lock. New slots are appended 
+ * to arrays with spare capacity, changes to existing slots copy arrays. 
+ * A batch of registrations publish a single new snapshot.
+ * 
+ * Cached values are read without locking, cache misses, writes and 
+ * invalidations are serialized on table lock. Valid marks are atomic and 
+ * set after cached value, so a reader never sees a stale or partial value. 
+ * 
+ * @author Mario Pascucci
+ *
+ */
+class PrefTable {
+
+	// flags: preference type in lower bits, then private and registered marks
+	private static final int TYPE_MASK = 0x07;
+	private static final int PRIVATE = 0x08;
+	private static final int REGISTERED = 0x10;
+	
+	// value kinds, as bit masks for defined defaults and valid cached values
+	static final int STR = 0x01;
+	static final int INT = 0x02;
+	static final int BOOL = 0x04;
+	static final int FLOAT = 0x08;
+	
+	private static final int INITIAL_SIZE = 32;
+	
+	
+	/**
+	 * Immutable snapshot of preferences descriptors. Arrays have spare capacity and 
+	 * are shared with next snapshots: new slots are appended after count, while 
+	 * a change to an existing slot copies arrays, so entries below count never change.
+	 */
+	private static final class Registry {
+		
+		final int count;
+		final String[] keys;
+		final String[] descr;
+		final byte[] flags;
+		final AppPref[] handles;
+		// registered names, append only
+		final String[] regNames;
+		final List<String> names;
+		
+		Registry(int count, String[] keys, String[] descr, byte[] flags, AppPref[] handles,
+				String[] regNames, int nameCount) {
+			this.count = count;
+			this.keys = keys;
+			this.descr = descr;
+			this.flags = flags;
+			this.handles = handles;
+			this.regNames = regNames;
+			this.names = Collections.unmodifiableList(Arrays.asList(regNames).subList(0, nameCount));
+		}
+	}
+	
+	
+	/**
+	 * Per-slot defaults and cached values, replaced as a whole when table grows
+	 */
+	private static final class Slots {
+		
+		// defaults
+		final byte[] defined;
+		final String[] defStrings;
+		final int[] defInts;
+		final boolean[] defBools;
+		final float[] defFloats;
+		// cached values, a kind bit in valid is set after value is stored, 
+		// so a reader seeing the bit sees the value too
+		final AtomicIntegerArray valid;
+		final byte[] defaulted;		// cached value is default value
+		final String[] strings;
+		final int[] ints;
+		final boolean[] bools;
+		final float[] floats;
+		
+		Slots(int size) {
+			defined = new byte[size];
+			defStrings = new String[size];
+			defInts = new int[size];
+			defBools = new boolean[size];
+			defFloats = new float[size];
+			valid = new AtomicIntegerArray(size);
+			defaulted = new byte[size];
+			strings = new String[size];
+			ints = new int[size];
+			bools = new boolean[size];
+			floats = new float[size];
+		}
+		
+		
+		Slots grow(int size, int count) {
+			
+			Slots s = new Slots(size);
+			System.arraycopy(defined, 0, s.defined, 0, count);
+			System.arraycopy(defStrings, 0, s.defStrings, 0, count);
+			System.arraycopy(defInts, 0, s.defInts, 0, count);
+			System.arraycopy(defBools, 0, s.defBools, 0, count);
+			System.arraycopy(defFloats, 0, s.defFloats, 0, count);
+			System.arraycopy(defaulted, 0, s.defaulted, 0, count);
+			System.arraycopy(strings, 0, s.strings, 0, count);
+			System.arraycopy(ints, 0, s.ints, 0, count);
+			System.arraycopy(bools, 0, s.bools, 0, count);
+			System.arraycopy(floats, 0, s.floats, 0, count);
+			for (int i = 0; i < count; i++) {
+				s.valid.set(i, valid.get(i));
+			}
+			return s;
+		}
+	}
+	
+	
+	/**
+	 * A preference waiting to be registered
+	 */
+	static final class Registration {
+		
+		final String name;
+		final String descr;
+		final int type;
+		final boolean appPrivate;
+		
+		Registration(String name, String descr, int type, boolean appPrivate) {
+			this.name = name;
+			this.descr = descr;
+			this.type = type;
+			this.appPrivate = appPrivate;
+		}
+	}
+	
+	
+	/**
+	 * A default waiting to be defined
+	 */
+	static final class Default {
+		
+		final String key;
+		final int kind;
+		final Object value;
+		
+		Default(String key, int kind, Object value) {
+			this.key = key;
+			this.kind = kind;
+			this.value = value;
+		}
+	}
+	
+	
+	/**
+	 * A value staged in a transaction
+	 */
+	static final class Staged {
+		
+		final String key;
+		final int kind;
+		final Object value;
+		
+		Staged(String key, int kind, Object value) {
+			this.key = key;
+			this.kind = kind;
+			this.value = value;
+		}
+	}
+	
+	
+	/**
+	 * Values from configuration layers other than stored values, merged when 
+	 * a layer changes, so a read looks at most in three maps. Immutable.
+	 */
+	static final class Layers {
+		
+		static final Layers EMPTY = new Layers(Collections.<String,String>emptyMap(), 
+				Collections.<String,Integer>emptyMap(), Collections.<String,String>emptyMap(), 
+				Collections.<String,String>emptyMap());
+		
+		// system properties and command line, above stored values
+		final Map<String,String> over;
+		// layer for every value in over
+		final Map<String,Integer> overSource;
+		// environment variables by normalized name, above stored values and below over
+		final Map<String,String> env;
+		// site file, below stored values
+		final Map<String,String> under;
+		
+		Layers(Map<String,String> over, Map<String,Integer> overSource, 
+				Map<String,String> env, Map<String,String> under) {
+			this.over = over;
+			this.overSource = overSource;
+			this.env = env;
+			this.under = under;
+		}
+	}
+	
+	
+	private final Object lock = new Object();
+	private volatile Registry registry = new Registry(0, new String[INITIAL_SIZE], new String[INITIAL_SIZE], 
+			new byte[INITIAL_SIZE], new AppPref[INITIAL_SIZE], new String[INITIAL_SIZE], 0);
+	// slot for every key, a key is added only after its slot is published in registry
+	private final Map<String,Integer> index = new ConcurrentHashMap<String,Integer>();
+	private volatile Slots slots = new Slots(INITIAL_SIZE);
+	private SettingsBackend store;
+	// values from a binary preferences file, below values in store
+	private BinaryPrefs base;
+	// configuration layers around stored values
+	private volatile Layers layers = Layers.EMPTY;
+	// read and write counters, null if disabled
+	private volatile SettingsMetrics metrics = null;
+	
+	// keys written since last save
+	private final Set<String> dirty = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+	// called after a value is changed, with table lock held
+	private volatile Runnable writeHook = null;
+	// delivers changes to listeners
+	private final ChangeDispatcher dispatcher = new ChangeDispatcher();
+	// contents of BLOB preferences
+	private final BlobStore blobs = new BlobStore(this);
+	// changes collected during a transaction commit, null otherwise. Guarded by lock
+	private List<SettingChange> batchEvents = null;
+	
+	// invalidates cached values on changes made to backend outside AppSettings
+	private final SettingsBackend.Listener storeListener = new SettingsBackend.Listener() {
+		@Override
+		public void changed(String key) {
+			int slot = find(key);
+			synchronized (lock) {
+				// old value is taken from cache before invalidating it
+				String old = slot >= 0 && dispatcher.isActive() ? cached(slot) : null;
+				if (slot >= 0) {
+					slots.valid.set(slot, 0);
+				}
+				if (dispatcher.isActive()) {
+					String v = store.get(key);
+					dispatcher.fire(new SettingChange(key, slot < 0 ? 0 : getType(slot), 
+							old, slot < 0 ? v : effective(slot, v)));
+				}
+			}
+			// listeners reading key see new value
+			flushEvents();
+		}
+	};
+	
+	
+	
+	/**
+	 * @return lock used for writes and cache misses
+	 */
+	Object getLock() {
+		return lock;
+	}
+	
+	
+	/**
+	 * @return current preferences backend
+	 */
+	SettingsBackend getStore() {
+		return store;
+	}
+	
+	
+	/**
+	 * Sets backend for preferences values, clearing all cached values and dirty marks
+	 * @param backend new preferences backend
+	 * @param binary values read from a binary preferences file, or null
+	 */
+	void setStore(SettingsBackend backend, BinaryPrefs binary) {
+		
+		synchronized (lock) {
+			if (store != null && store != backend) {
+				store.setListener(null);
+				store.close();
+			}
+			store = backend;
+			base = binary;
+			invalidateAll();
+			dirty.clear();
+			store.setListener(storeListener);
+		}
+	}
+	
+	
+	/**
+	 * Copies values from binary preferences file to backend, 
+	 * so backend contains all preferences values
+	 */
+	void materializeBase() {
+		
+		synchronized (lock) {
+			if (base == null)
+				return;
+			for (String k : base.keys()) {
+				if (store.get(k) == null) {
+					store.put(k, base.get(k));
+				}
+			}
+			base = null;
+		}
+	}
+	
+	
+	/**
+	 * @return all preferences values, from backend and binary file
+	 * @throws BackingStoreException
+	 */
+	Map<String,String> getValues() throws BackingStoreException {
+		
+		synchronized (lock) {
+			Map<String,String> v = new HashMap<String,String>();
+			if (base != null) {
+				for (String k : base.keys()) {
+					v.put(k, base.get(k));
+				}
+			}
+			for (String k : store.keys()) {
+				v.put(k, store.get(k));
+			}
+			return v;
+		}
+	}
+	
+	
+	/**
+	 * @return number of preferences values, from backend and binary file
+	 * @throws BackingStoreException
+	 */
+	int countValues() throws BackingStoreException {
+		
+		synchronized (lock) {
+			if (base == null)
+				return store.size();
+			int n = base.size();
+			for (String k : store.keys()) {
+				if (base.get(k) == null) {
+					n++;
+				}
+			}
+			return n;
+		}
+	}
+	
+	
+	/**
+	 * @return types of registered preferences
+	 */
+	Map<String,Integer> getTypes() {
+		
+		Registry r = registry;
+		Map<String,Integer> t = new HashMap<String,Integer>();
+		for (int i = 0; i < r.count; i++) {
+			if ((r.flags[i] & REGISTERED) != 0) {
+				t.put(r.keys[i], r.flags[i] & TYPE_MASK);
+			}
+		}
+		return t;
+	}
+	
+	
+	/**
+	 * Reads a value as string from backend, or from binary file if not in backend. 
+	 * Must be called holding table lock.
+	 * @return value or null if not defined
+	 */
+	private String raw(int slot) {
+		
+		String k = registry.keys[slot];
+		Layers l = layers;
+		String v = over(l, k);
+		if (v != null)
+			return v;
+		v = stored(slot);
+		if (v == null) {
+			v = l.under.get(k);
+		}
+		return v;
+	}
+	
+	
+	/**
+	 * Reads a value as string from backend or binary file, ignoring configuration layers. 
+	 * Must be called holding table lock.
+	 * @return value or null if not stored
+	 */
+	private String stored(int slot) {
+		
+		String k = registry.keys[slot];
+		String v = store.get(k);
+		if (v == null && base != null) {
+			v = base.get(k);
+		}
+		return v;
+	}
+	
+	
+	/**
+	 * @return value from a layer above stored values, or null
+	 */
+	private static String over(Layers l, String key) {
+		
+		String v = l.over.get(key);
+		if (v == null && !l.env.isEmpty()) {
+			v = l.env.get(envName(key));
+		}
+		return v;
+	}
+	
+	
+	/**
+	 * @return true if value for slot comes from a layer above stored values
+	 */
+	private boolean overridden(int slot) {
+		
+		return over(layers, registry.keys[slot]) != null;
+	}
+	
+	
+	/**
+	 * Normalized name for matching environment variables: uppercase, 
+	 * with any char that isn't a letter or digit replaced by "_"
+	 * @param key preference name
+	 * @return normalized name
+	 */
+	static String envName(String key) {
+		
+		StringBuilder sb = new StringBuilder(key.length());
+		for (int i = 0; i < key.length(); i++) {
+			char c = key.charAt(i);
+			sb.append(Character.isLetterOrDigit(c) ? Character.toUpperCase(c) : '_');
+		}
+		return sb.toString();
+	}
+	
+	
+	/**
+	 * Replaces configuration layers, notifying listeners of changed values
+	 * @param l new layers
+	 */
+	void setLayers(Layers l) {
+		
+		synchronized (lock) {
+			Map<String,String> before = null;
+			if (dispatcher.isActive() && store != null) {
+				before = rawValues();
+			}
+			layers = l;
+			invalidateAll();
+			if (before != null) {
+				fireDiff(before, rawValues());
+			}
+		}
+		flushEvents();
+	}
+	
+	
+	/**
+	 * @return values of all known preferences, from all layers. Must be called holding table lock.
+	 */
+	private Map<String,String> rawValues() {
+		
+		Registry r = registry;
+		Map<String,String> v = new HashMap<String,String>();
+		for (int i = 0; i < r.count; i++) {
+			String s = raw(i);
+			if (s != null)
+				v.put(r.keys[i], s);
+		}
+		return v;
+	}
+	
+	
+	/**
+	 * Finds layer supplying current value for a preference
+	 * @param slot preference slot
+	 * @return layer, one of AppSettings.LAYER_*
+	 */
+	int getSource(int slot) {
+		
+		String k = registry.keys[slot];
+		Layers l = layers;
+		Integer src = l.overSource.get(k);
+		if (src != null)
+			return src;
+		if (!l.env.isEmpty() && l.env.containsKey(envName(k)))
+			return AppSettings.LAYER_ENVIRONMENT;
+		synchronized (lock) {
+			if (store != null && (store.get(k) != null || (base != null && base.get(k) != null)))
+				return AppSettings.LAYER_USER;
+		}
+		if (l.under.containsKey(k))
+			return AppSettings.LAYER_SITE;
+		if (slots.defined[slot] != 0)
+			return AppSettings.LAYER_DEFAULT;
+		return AppSettings.LAYER_NONE;
+	}
+	
+	
+	/**
+	 * Sets a task to run after every value change, with table lock held. Task must not block.
+	 * @param hook task to run or null to remove
+	 */
+	void setWriteHook(Runnable hook) {
+		writeHook = hook;
+	}
+	
+	
+	/**
+	 * @return true if some value was changed since last call to clearDirty()
+	 */
+	boolean isDirty() {
+		return !dirty.isEmpty();
+	}
+	
+	
+	/**
+	 * Removes all dirty marks
+	 * @return keys marked as dirty
+	 */
+	Set<String> clearDirty() {
+		
+		synchronized (lock) {
+			Set<String> d = new HashSet<String>(dirty);
+			dirty.clear();
+			return d;
+		}
+	}
+	
+	
+	/**
+	 * @return current values of keys changed since last save
+	 */
+	Map<String,String> getChanges() {
+		
+		synchronized (lock) {
+			Map<String,String> c = new HashMap<String,String>();
+			for (String k : dirty) {
+				String v = store.get(k);
+				if (v != null) {
+					c.put(k, v);
+				}
+			}
+			return c;
+		}
+	}
+	
+	
+	/**
+	 * Marks keys as dirty, i.e. again when a save fails
+	 * @param keys keys to mark
+	 */
+	void markDirty(Collection<String> keys) {
+		
+		dirty.addAll(keys);
+	}
+	
+	
+	/**
+	 * Schedules delivery of changes collected holding table lock. 
+	 * Does nothing if called holding table lock, outer caller flushes.
+	 */
+	void flushEvents() {
+		
+		if (dispatcher.isActive() && !Thread.holdsLock(lock)) {
+			dispatcher.flush();
+		}
+	}
+	
+	
+	/**
+	 * @return dispatcher for changes listeners
+	 */
+	ChangeDispatcher getDispatcher() {
+		return dispatcher;
+	}
+	
+	
+	/**
+	 * @return contents of BLOB preferences
+	 */
+	BlobStore getBlobs() {
+		return blobs;
+	}
+	
+	
+	/**
+	 * Stores a value, notifying listeners. Must be called holding table lock.
+	 * @param slot preference slot
+	 * @param value value as string
+	 */
+	private void write(int slot, String value) {
+		
+		SettingsMetrics m = metrics;
+		if (m != null) {
+			m.write(keyClass(slot));
+		}
+		String k = registry.keys[slot];
+		if (!dispatcher.isActive()) {
+			store.put(k, value);
+			return;
+		}
+		String old = raw(slot);
+		store.put(k, value);
+		// a value overridden by an upper layer doesn't change
+		if (!value.equals(old) && !overridden(slot)) {
+			SettingChange c = new SettingChange(k, getType(slot), effective(slot, old), value);
+			if (batchEvents != null) 
+				batchEvents.add(c);
+			else
+				dispatcher.fire(c);
+		}
+	}
+	
+	
+	/**
+	 * Writes values staged in a transaction, skipping values equal to current ones.
+	 * All values are written holding table lock once, listeners get a single 
+	 * notification with all changes. If backend fails writing a value, values 
+	 * already written are restored and no change is notified.
+	 * @param values values to write
+	 * @return keys of values changed
+	 */
+	List<String> commit(Collection<Staged> values) {
+		
+		List<String> changed = new ArrayList<String>();
+		// stored values before commit, by slot, restored if a write fails
+		Map<Integer,String> previous = new LinkedHashMap<Integer,String>();
+		synchronized (lock) {
+			batchEvents = new ArrayList<SettingChange>();
+			try {
+				for (Staged v : values) {
+					int slot = slot(v.key);
+					switch (v.kind) {
+					case STR:
+						String str = (String) v.value;
+						if (str.equals(getString(slot)))
+							continue;
+						keep(previous, slot);
+						putString(slot, str);
+						break;
+					case INT:
+						int i = (Integer) v.value;
+						if (i == getInt(slot))
+							continue;
+						keep(previous, slot);
+						putInt(slot, i);
+						break;
+					case BOOL:
+						boolean b = (Boolean) v.value;
+						if (b == getBool(slot))
+							continue;
+						keep(previous, slot);
+						putBool(slot, b);
+						break;
+					case FLOAT:
+						float f = (Float) v.value;
+						if (Float.compare(f, getFloat(slot)) == 0)
+							continue;
+						keep(previous, slot);
+						putFloat(slot, f);
+						break;
+					}
+					changed.add(v.key);
+				}
+			}
+			catch (RuntimeException e) {
+				restore(previous, e);
+				batchEvents.clear();
+				throw e;
+			}
+			finally {
+				List<SettingChange> events = batchEvents;
+				batchEvents = null;
+				if (!events.isEmpty())
+					dispatcher.fire(events);
+			}
+		}
+		flushEvents();
+		return changed;
+	}
+	
+	
+	/**
+	 * Keeps stored value of a slot before its first write in a commit
+	 */
+	private void keep(Map<Integer,String> previous, int slot) {
+		
+		if (!previous.containsKey(slot)) {
+			previous.put(slot, store.get(registry.keys[slot]));
+		}
+	}
+	
+	
+	/**
+	 * Restores stored values kept before a failed commit. Must be called holding table lock.
+	 * @param previous stored values by slot, null if slot had no value
+	 * @param e commit failure, gets restore failures as suppressed exceptions
+	 */
+	private void restore(Map<Integer,String> previous, RuntimeException e) {
+		
+		Slots s = slots;
+		for (Map.Entry<Integer,String> p : previous.entrySet()) {
+			String k = registry.keys[p.getKey()];
+			try {
+				if (p.getValue() == null)
+					store.remove(k);
+				else
+					store.put(k, p.getValue());
+			}
+			catch (RuntimeException r) {
+				e.addSuppressed(r);
+			}
+			s.valid.set(p.getKey(), 0);
+		}
+	}
+	
+	
+	/**
+	 * Effective value as string: stored value, or default if not stored. 
+	 * Must be called holding table lock.
+	 * @param slot preference slot
+	 * @param raw stored value or null
+	 * @return value as string
+	 */
+	private String effective(int slot, String raw) {
+		
+		if (raw != null)
+			return raw;
+		Slots s = slots;
+		switch (getType(slot)) {
+		case AppSettings.INTEGER:
+			return Integer.toString((s.defined[slot] & INT) != 0 ? s.defInts[slot] : 0);
+		case AppSettings.BOOLEAN:
+			return String.valueOf((s.defined[slot] & BOOL) != 0 ? s.defBools[slot] : false);
+		case AppSettings.FLOAT:
+			return Float.toString((s.defined[slot] & FLOAT) != 0 ? s.defFloats[slot] : 0f);
+		default:
+			return (s.defined[slot] & STR) != 0 ? s.defStrings[slot] : "";
+		}
+	}
+	
+	
+	/**
+	 * Cached value as string, or default value if value isn't cached. 
+	 * Must be called holding table lock.
+	 */
+	private String cached(int slot) {
+		
+		Slots s = slots;
+		int valid = s.valid.get(slot);
+		if ((valid & STR) != 0)
+			return s.strings[slot];
+		if ((valid & INT) != 0)
+			return Integer.toString(s.ints[slot]);
+		if ((valid & BOOL) != 0)
+			return String.valueOf(s.bools[slot]);
+		if ((valid & FLOAT) != 0)
+			return Float.toString(s.floats[slot]);
+		return effective(slot, null);
+	}
+	
+	
+	/**
+	 * Notifies listeners of differences between two sets of stored values, 
+	 * i.e. before and after reading a file. Must be called holding table lock.
+	 * @param before stored values before
+	 * @param after stored values after
+	 */
+	void fireDiff(Map<String,String> before, Map<String,String> after) {
+		
+		Set<String> keys = new HashSet<String>(before.keySet());
+		keys.addAll(after.keySet());
+		for (String k : keys) {
+			String o = before.get(k);
+			String n = after.get(k);
+			if (o == null ? n == null : o.equals(n))
+				continue;
+			int slot = find(k);
+			if (slot < 0) {
+				dispatcher.fire(new SettingChange(k, 0, o, n));
+			}
+			else {
+				dispatcher.fire(new SettingChange(k, getType(slot), effective(slot, o), effective(slot, n)));
+			}
+		}
+	}
+	
+	
+	/**
+	 * Marks a value as changed. Must be called holding table lock.
+	 */
+	private void changed(int slot) {
+		
+		dirty.add(registry.keys[slot]);
+		Runnable h = writeHook;
+		if (h != null) {
+			h.run();
+		}
+	}
+	
+	
+	/**
+	 * @return immutable list of registered preferences names
+	 */
+	List<String> getNames() {
+		return registry.names;
+	}
+	
+	
+	/**
+	 * Lookup slot for a key
+	 * @param key preference name
+	 * @return slot or -1 if key is unknown
+	 */
+	int find(String key) {
+		
+		Integer s = index.get(key);
+		return s == null ? -1 : s;
+	}
+	
+	
+	/**
+	 * Lookup slot for a key, allocating a new one if key is unknown
+	 * @param key preference name
+	 * @return slot for key
+	 */
+	int slot(String key) {
+		
+		Integer s = index.get(key);
+		if (s != null)
+			return s;
+		synchronized (lock) {
+			publish(Collections.<Registration>emptyList(), Collections.singletonList(key));
+			return index.get(key);
+		}
+	}
+	
+	
+	/**
+	 * Registers a preference, creating a typed handle for it
+	 * @param name unique name for preference
+	 * @param dispName description text
+	 * @param type preference type
+	 * @param appPrivate true if preference is app private
+	 * @return handle for preference
+	 */
+	AppPref register(String name, String dispName, int type, boolean appPrivate) {
+		
+		return apply(Collections.singletonList(new Registration(name, dispName, type, appPrivate)),
+				Collections.<Default>emptyList()).get(0);
+	}
+	
+	
+	/**
+	 * Registers preferences and defines defaults, publishing a single registry snapshot
+	 * @param regs preferences to register
+	 * @param defs defaults to define
+	 * @return handles for registered preferences, in same order
+	 */
+	List<AppPref> apply(List<Registration> regs, List<Default> defs) {
+		
+		List<String> keys = new ArrayList<String>(defs.size());
+		for (Default d : defs) {
+			keys.add(d.key);
+		}
+		synchronized (lock) {
+			publish(regs, keys);
+			for (Default d : defs) {
+				int slot = find(d.key);
+				switch (d.kind) {
+				case STR:
+					defString(slot, (String) d.value);
+					break;
+				case INT:
+					defInt(slot, (Integer) d.value);
+					break;
+				case BOOL:
+					defBool(slot, (Boolean) d.value);
+					break;
+				case FLOAT:
+					defFloat(slot, (Float) d.value);
+					break;
+				}
+			}
+			Registry r = registry;
+			List<AppPref> handles = new ArrayList<AppPref>(regs.size());
+			for (Registration reg : regs) {
+				handles.add(r.handles[index.get(reg.name)]);
+			}
+			return handles;
+		}
+	}
+	
+	
+	/**
+	 * Builds and publishes a new registry snapshot. New keys are appended to current 
+	 * arrays, grown geometrically, so adding keys one at a time has amortized constant cost. 
+	 * Must be called holding table lock.
+	 * @param regs preferences to register
+	 * @param keys other keys that need a slot
+	 */
+	private void publish(List<Registration> regs, List<String> keys) {
+		
+		Registry r = registry;
+		// slots for keys not yet in index
+		Map<String,Integer> added = new HashMap<String,Integer>();
+		int count = r.count;
+		for (String key : keys) {
+			if (!index.containsKey(key) && !added.containsKey(key)) {
+				added.put(key, count++);
+			}
+		}
+		boolean modified = false;
+		int nameCount = r.names.size();
+		for (Registration reg : regs) {
+			if (!index.containsKey(reg.name) && !added.containsKey(reg.name)) {
+				added.put(reg.name, count++);
+			}
+			else {
+				modified = true;
+			}
+			nameCount++;
+		}
+		if (count == r.count && regs.isEmpty())
+			return;
+		String[] k = r.keys;
+		String[] descr = r.descr;
+		byte[] flags = r.flags;
+		AppPref[] handles = r.handles;
+		String[] regNames = r.regNames;
+		if (modified || count > k.length) {
+			// existing slots change or arrays are full: copy, so old snapshots stay unchanged
+			int size = Math.max(count, modified ? k.length : k.length * 2);
+			k = Arrays.copyOf(k, size);
+			descr = Arrays.copyOf(descr, size);
+			flags = Arrays.copyOf(flags, size);
+			handles = Arrays.copyOf(handles, size);
+		}
+		if (nameCount > regNames.length) {
+			regNames = Arrays.copyOf(regNames, Math.max(nameCount, regNames.length * 2));
+		}
+		for (Map.Entry<String,Integer> e : added.entrySet()) {
+			k[e.getValue()] = e.getKey();
+		}
+		nameCount = r.names.size();
+		for (Registration reg : regs) {
+			Integer s = added.get(reg.name);
+			int slot = s != null ? s : index.get(reg.name);
+			if ((flags[slot] & REGISTERED) == 0) {
+				regNames[nameCount++] = reg.name;
+			}
+			descr[slot] = reg.descr;
+			flags[slot] = (byte) (reg.type | REGISTERED | (reg.appPrivate ? PRIVATE : 0));
+			if (handles[slot] == null || handles[slot].getType() != reg.type) {
+				handles[slot] = newHandle(slot, reg.type);
+			}
+		}
+		// value tables must be large enough before slots become visible
+		Slots v = slots;
+		if (count > v.valid.length()) {
+			slots = v.grow(Math.max(count, v.valid.length() * 2), r.count);
+		}
+		registry = new Registry(count, k, descr, flags, handles, regNames, nameCount);
+		index.putAll(added);
+	}
+	
+	
+	/**
+	 * Creates a handle of right class for preference type
+	 */
+	private AppPref newHandle(int slot, int type) {
+		
+		switch (type) {
+		case AppSettings.INTEGER:
+			return new IntPref(this, slot);
+		case AppSettings.BOOLEAN:
+			return new BoolPref(this, slot);
+		case AppSettings.FLOAT:
+			return new FloatPref(this, slot);
+		case AppSettings.BLOB:
+			return new BlobPref(this, slot);
+		default:
+			return new StringPref(this, slot);
+		}
+	}
+	
+	
+	/**
+	 * @param slot preference slot
+	 * @return handle for a registered preference, or null if not registered
+	 */
+	AppPref getHandle(int slot) {
+		return registry.handles[slot];
+	}
+	
+	
+	String getName(int slot) {
+		return registry.keys[slot];
+	}
+	
+	
+	String getDescr(int slot) {
+		return registry.descr[slot];
+	}
+	
+	
+	/**
+	 * @param slot preference slot
+	 * @return preference type, or 0 if preference isn't registered
+	 */
+	int getType(int slot) {
+		return registry.flags[slot] & TYPE_MASK;
+	}
+	
+	
+	boolean isAppPrivate(int slot) {
+		return (registry.flags[slot] & PRIVATE) != 0;
+	}
+	
+	
+	boolean isRegistered(int slot) {
+		return (registry.flags[slot] & REGISTERED) != 0;
+	}
+	
+	
+	/**
+	 * Removes cached values for a preference
+	 * @param key preference name
+	 */
+	void invalidate(String key) {
+		
+		int slot = find(key);
+		if (slot < 0)
+			return;
+		synchronized (lock) {
+			slots.valid.set(slot, 0);
+		}
+	}
+	
+	
+	/**
+	 * Removes all cached values
+	 */
+	void invalidateAll() {
+		
+		synchronized (lock) {
+			Slots s = slots;
+			int count = registry.count;
+			for (int i = 0; i < count; i++) {
+				s.valid.set(i, 0);
+			}
+		}
+	}
+	
+	
+	
+	/////////////////
+	// metrics
+	/////////////////
+	
+	
+	/**
+	 * @param m metrics to collect, null to disable
+	 */
+	void setMetrics(SettingsMetrics m) {
+		metrics = m;
+	}
+	
+	
+	/**
+	 * @return key class for metrics
+	 */
+	private int keyClass(int slot) {
+		
+		int f = registry.flags[slot];
+		if ((f & REGISTERED) == 0)
+			return SettingsMetrics.UNREGISTERED;
+		return (f & PRIVATE) != 0 ? SettingsMetrics.PRIVATE : SettingsMetrics.USER;
+	}
+	
+	
+	/**
+	 * Counts a read, if metrics are enabled
+	 */
+	private void count(Slots s, int slot, int kind, boolean miss) {
+		
+		SettingsMetrics m = metrics;
+		if (m != null) {
+			m.read(slot, keyClass(slot), (s.defaulted[slot] & kind) != 0, miss);
+		}
+	}
+	
+	
+	private static void setDefaulted(Slots s, int slot, int kind, boolean def) {
+		
+		s.defaulted[slot] = (byte) (def ? s.defaulted[slot] | kind : s.defaulted[slot] & ~kind);
+	}
+	
+	
+	/////////////////
+	// strings
+	/////////////////
+	
+	
+	String getString(int slot) {
+		
+		Slots s = slots;
+		if ((s.valid.get(slot) & STR) != 0) {
+			count(s, slot, STR, false);
+			return s.strings[slot];
+		}
+		synchronized (lock) {
+			s = slots;
+			boolean miss = (s.valid.get(slot) & STR) == 0;
+			if (miss) {
+				String v = raw(slot);
+				setDefaulted(s, slot, STR, v == null);
+				if (v == null) {
+					v = (s.defined[slot] & STR) != 0 ? s.defStrings[slot] : "";
+				}
+				s.strings[slot] = v;
+				s.valid.set(slot, s.valid.get(slot) | STR);
+			}
+			count(s, slot, STR, miss);
+			return s.strings[slot];
+		}
+	}
+	
+	
+	void putString(int slot, String value) {
+		
+		synchronized (lock) {
+			Slots s = slots;
+			boolean over = overridden(slot);
+			// cached value of an overridden key comes from upper layer, compare with stored one
+			boolean change = over ? !value.equals(stored(slot)) 
+					: (s.valid.get(slot) & STR) == 0 
+					|| (s.strings[slot] == null ? value != null : !s.strings[slot].equals(value));
+			write(slot, value);
+			s.strings[slot] = value;
+			s.defaulted[slot] = 0;
+			if (over) {
+				// effective value comes from an upper layer
+				s.valid.set(slot, 0);
+			}
+			else {
+				s.valid.set(slot, STR);
+			}
+			if (change) {
+				changed(slot);
+			}
+		}
+		flushEvents();
+	}
+	
+	
+	void defString(int slot, String def) {
+		
+		synchronized (lock) {
+			Slots s = slots;
+			s.defStrings[slot] = def;
+			s.defined[slot] = (byte) (s.defined[slot] | STR);
+			s.valid.set(slot, 0);
+		}
+	}
+	
+	
+	/////////////////
+	// integers
+	/////////////////
+	
+	
+	int getInt(int slot) {
+		
+		Slots s = slots;
+		if ((s.valid.get(slot) & INT) != 0) {
+			count(s, slot, INT, false);
+			return s.ints[slot];
+		}
+		synchronized (lock) {
+			s = slots;
+			boolean miss = (s.valid.get(slot) & INT) == 0;
+			if (miss) {
+				int def = (s.defined[slot] & INT) != 0 ? s.defInts[slot] : 0;
+				String v = raw(slot);
+				setDefaulted(s, slot, INT, v == null);
+				s.ints[slot] = parseInt(v, def);
+				s.valid.set(slot, s.valid.get(slot) | INT);
+			}
+			count(s, slot, INT, miss);
+			return s.ints[slot];
+		}
+	}
+	
+	
+	void putInt(int slot, int value) {
+		
+		synchronized (lock) {
+			Slots s = slots;
+			String v = Integer.toString(value);
+			boolean over = overridden(slot);
+			// cached value of an overridden key comes from upper layer, compare with stored one
+			boolean change = over ? !v.equals(stored(slot)) 
+					: (s.valid.get(slot) & INT) == 0 || s.ints[slot] != value;
+			write(slot, v);
+			s.ints[slot] = value;
+			s.defaulted[slot] = 0;
+			if (over) {
+				// effective value comes from an upper layer
+				s.valid.set(slot, 0);
+			}
+			else {
+				s.valid.set(slot, INT);
+			}
+			if (change) {
+				changed(slot);
+			}
+		}
+		flushEvents();
+	}
+	
+	
+	void defInt(int slot, int def) {
+		
+		synchronized (lock) {
+			Slots s = slots;
+			s.defInts[slot] = def;
+			s.defined[slot] = (byte) (s.defined[slot] | INT);
+			s.valid.set(slot, 0);
+		}
+	}
+	
+	
+	/////////////////
+	// booleans
+	/////////////////
+	
+	
+	boolean getBool(int slot) {
+		
+		Slots s = slots;
+		if ((s.valid.get(slot) & BOOL) != 0) {
+			count(s, slot, BOOL, false);
+			return s.bools[slot];
+		}
+		synchronized (lock) {
+			s = slots;
+			boolean miss = (s.valid.get(slot) & BOOL) == 0;
+			if (miss) {
+				boolean def = (s.defined[slot] & BOOL) != 0 ? s.defBools[slot] : false;
+				String v = raw(slot);
+				setDefaulted(s, slot, BOOL, v == null);
+				s.bools[slot] = parseBool(v, def);
+				s.valid.set(slot, s.valid.get(slot) | BOOL);
+			}
+			count(s, slot, BOOL, miss);
+			return s.bools[slot];
+		}
+	}
+	
+	
+	void putBool(int slot, boolean value) {
+		
+		synchronized (lock) {
+			Slots s = slots;
+			String v = String.valueOf(value);
+			boolean over = overridden(slot);
+			// cached value of an overridden key comes from upper layer, compare with stored one
+			boolean change = over ? !v.equals(stored(slot)) 
+					: (s.valid.get(slot) & BOOL) == 0 || s.bools[slot] != value;
+			write(slot, v);
+			s.bools[slot] = value;
+			s.defaulted[slot] = 0;
+			if (over) {
+				// effective value comes from an upper layer
+				s.valid.set(slot, 0);
+			}
+			else {
+				s.valid.set(slot, BOOL);
+			}
+			if (change) {
+				changed(slot);
+			}
+		}
+		flushEvents();
+	}
+	
+	
+	void defBool(int slot, boolean def) {
+		
+		synchronized (lock) {
+			Slots s = slots;
+			s.defBools[slot] = def;
+			s.defined[slot] = (byte) (s.defined[slot] | BOOL);
+			s.valid.set(slot, 0);
+		}
+	}
+	
+	
+	/////////////////
+	// floats
+	/////////////////
+	
+	
+	float getFloat(int slot) {
+		
+		Slots s = slots;
+		if ((s.valid.get(slot) & FLOAT) != 0) {
+			count(s, slot, FLOAT, false);
+			return s.floats[slot];
+		}
+		synchronized (lock) {
+			s = slots;
+			boolean miss = (s.valid.get(slot) & FLOAT) == 0;
+			if (miss) {
+				float def = (s.defined[slot] & FLOAT) != 0 ? s.defFloats[slot] : 0f;
+				String v = raw(slot);
+				setDefaulted(s, slot, FLOAT, v == null);
+				s.floats[slot] = parseFloat(v, def);
+				s.valid.set(slot, s.valid.get(slot) | FLOAT);
+			}
+			count(s, slot, FLOAT, miss);
+			return s.floats[slot];
+		}
+	}
+	
+	
+	void putFloat(int slot, float value) {
+		
+		synchronized (lock) {
+			Slots s = slots;
+			String v = Float.toString(value);
+			boolean over = overridden(slot);
+			// cached value of an overridden key comes from upper layer, compare with stored one
+			boolean change = over ? !v.equals(stored(slot)) 
+					: (s.valid.get(slot) & FLOAT) == 0 || Float.compare(s.floats[slot], value) != 0;
+			write(slot, v);
+			s.floats[slot] = value;
+			s.defaulted[slot] = 0;
+			if (over) {
+				// effective value comes from an upper layer
+				s.valid.set(slot, 0);
+			}
+			else {
+				s.valid.set(slot, FLOAT);
+			}
+			if (change) {
+				changed(slot);
+			}
+		}
+		flushEvents();
+	}
+	
+	
+	void defFloat(int slot, float def) {
+		
+		synchronized (lock) {
+			Slots s = slots;
+			s.defFloats[slot] = def;
+			s.defined[slot] = (byte) (s.defined[slot] | FLOAT);
+			s.valid.set(slot, 0);
+		}
+	}
+	
+	
+	/////////////////
+	// parsing, same rules as Preferences
+	/////////////////
+	
+	
+	static int parseInt(String v, int def) {
+		
+		if (v == null)
+			return def;
+		try {
+			return Integer.parseInt(v);
+		} catch (NumberFormatException e) {
+			return def;
+		}
+	}
+	
+	
+	static boolean parseBool(String v, boolean def) {
+		
+		if (v == null)
+			return def;
+		if (v.equalsIgnoreCase("true"))
+			return true;
+		if (v.equalsIgnoreCase("false"))
+			return false;
+		return def;
+	}
+	
+	
+	static float parseFloat(String v, float def) {
+		
+		if (v == null)
+			return def;
+		try {
+			return Float.parseFloat(v);
+		} catch (NumberFormatException e) {
+			return def;
+		}
+	}
+	
+}
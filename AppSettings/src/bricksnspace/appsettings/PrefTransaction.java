@@ -0,0 +1,166 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects preference changes and writes all of them at once, or discards them.
+ * 
+ * On commit only values different from current ones are written, all together 
+ * holding settings lock once, and listeners get a single notification with 
+ * all changes. If backend fails writing a value, values already written are restored 
+ * and exception is thrown, so a commit is applied all or nothing. 
+ * Staging same key twice keeps last value. 
+ * A transaction isn't thread safe, and can't be used after commit or rollback.
+ * 
+ * <pre>
+ * PrefTransaction t = AppSettings.begin();
+ * t.putInt("width", 800).putBool("maximized", false);
+ * if (ok)
+ *     t.commit();
+ * else
+ *     t.rollback();
+ * </pre>
+ * 
+ * @see AppSettings#begin()
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public class PrefTransaction {
+	
+	private final PrefTable table;
+	private Map<String,PrefTable.Staged> staged = new LinkedHashMap<String,PrefTable.Staged>();
+	
+	
+	PrefTransaction(PrefTable table) {
+		
+		this.table = table;
+	}
+	
+	
+	private PrefTransaction stage(String key, int kind, Object value) {
+		
+		if (staged == null)
+			throw new IllegalStateException("[PrefTransaction] Transaction already completed");
+		if (key == null)
+			throw new IllegalArgumentException("[PrefTransaction] Key can't be null");
+		staged.put(key, new PrefTable.Staged(key, kind, value));
+		return this;
+	}
+	
+	
+	/**
+	 * Stages a preference of type STRING, FILE or FOLDER
+	 * @param key preference name
+	 * @param value new value
+	 * @return this transaction
+	 */
+	public PrefTransaction put(String key, String value) {
+		
+		if (value == null)
+			throw new IllegalArgumentException("[PrefTransaction] Value can't be null");
+		return stage(key, PrefTable.STR, value);
+	}
+	
+	
+	/**
+	 * Stages a preference of type INTEGER
+	 * @param key preference name
+	 * @param value new value
+	 * @return this transaction
+	 */
+	public PrefTransaction putInt(String key, int value) {
+		
+		return stage(key, PrefTable.INT, value);
+	}
+	
+	
+	/**
+	 * Stages a preference of type BOOLEAN
+	 * @param key preference name
+	 * @param value new value
+	 * @return this transaction
+	 */
+	public PrefTransaction putBool(String key, boolean value) {
+		
+		return stage(key, PrefTable.BOOL, value);
+	}
+	
+	
+	/**
+	 * Stages a preference of type FLOAT
+	 * @param key preference name
+	 * @param value new value
+	 * @return this transaction
+	 */
+	public PrefTransaction putFloat(String key, float value) {
+		
+		return stage(key, PrefTable.FLOAT, value);
+	}
+	
+	
+	/**
+	 * @param key preference name
+	 * @return true if a value is staged for key
+	 */
+	public boolean isStaged(String key) {
+		
+		return staged != null && staged.containsKey(key);
+	}
+	
+	
+	/**
+	 * @return true if transaction isn't committed or rolled back
+	 */
+	public boolean isActive() {
+		
+		return staged != null;
+	}
+	
+	
+	/**
+	 * Writes all staged values that differ from current ones
+	 * @return names of preferences changed, in staging order
+	 * @throws RuntimeException if backend fails writing a value, after values 
+	 * already written are restored
+	 */
+	public List<String> commit() {
+		
+		if (staged == null)
+			throw new IllegalStateException("[PrefTransaction] Transaction already completed");
+		Map<String,PrefTable.Staged> s = staged;
+		staged = null;
+		return table.commit(s.values());
+	}
+	
+	
+	/**
+	 * Discards all staged values
+	 */
+	public void rollback() {
+		
+		staged = null;
+	}
+
+}
@@ -0,0 +1,175 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.InvalidPreferencesFormatException;
+import java.util.prefs.PreferenceChangeEvent;
+import java.util.prefs.PreferenceChangeListener;
+import java.util.prefs.Preferences;
+
+/**
+ * Preferences backend on a java.util.prefs user node, for compatibility 
+ * with code that reads application node directly
+ * 
+ * Node change events are delivered later on Preferences event thread, also for 
+ * changes done through this backend. Values written or read are remembered, 
+ * and only events for values that differ are forwarded to listener.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+class PreferencesBackend implements SettingsBackend, PreferenceChangeListener {
+	
+	private final Preferences node;
+	private volatile Listener listener = null;
+	// values as last written or seen, null for removed keys. Guarded by itself
+	private final Map<String,String> known = new HashMap<String,String>();
+	
+	
+	PreferencesBackend(Preferences node) {
+		
+		this.node = node;
+	}
+	
+
+	@Override
+	public String get(String key) {
+		return node.get(key, null);
+	}
+
+	
+	/**
+	 * @return true if backend uses this node
+	 */
+	boolean isNode(Preferences n) {
+		return node.equals(n);
+	}
+	
+
+	@Override
+	public void put(String key, String value) {
+		
+		synchronized (known) {
+			node.put(key, value);
+			known.put(key, value);
+		}
+	}
+
+	
+	@Override
+	public void remove(String key) {
+		
+		synchronized (known) {
+			node.remove(key);
+			known.put(key, null);
+		}
+	}
+
+	
+	@Override
+	public String[] keys() throws BackingStoreException {
+		return node.keys();
+	}
+
+	
+	@Override
+	public int size() throws BackingStoreException {
+		return node.keys().length;
+	}
+
+	
+	@Override
+	public void clear() throws BackingStoreException {
+		
+		synchronized (known) {
+			for (String k : node.keys()) {
+				known.put(k, null);
+			}
+			node.clear();
+		}
+	}
+
+	
+	@Override
+	public void importXml(InputStream is) throws IOException, InvalidPreferencesFormatException {
+		
+		synchronized (known) {
+			Preferences.importPreferences(is);
+			try {
+				for (String k : node.keys()) {
+					known.put(k, node.get(k, null));
+				}
+			} catch (BackingStoreException e) {
+				throw new IOException("Preferences node read error", e);
+			}
+		}
+	}
+
+	
+	@Override
+	public void exportXml(OutputStream os) throws IOException, BackingStoreException {
+		
+		node.exportSubtree(os);
+	}
+
+	
+	@Override
+	public void setListener(Listener l) {
+		
+		if (listener == null && l != null) {
+			node.addPreferenceChangeListener(this);
+		}
+		else if (listener != null && l == null) {
+			node.removePreferenceChangeListener(this);
+		}
+		listener = l;
+	}
+
+	
+	@Override
+	public void preferenceChange(PreferenceChangeEvent evt) {
+		
+		Listener l = listener;
+		if (l == null)
+			return;
+		String key = evt.getKey();
+		synchronized (known) {
+			String v = node.get(key, null);
+			if (known.containsKey(key) && (v == null ? known.get(key) == null : v.equals(known.get(key))))
+				// written by this backend, or already notified
+				return;
+			known.put(key, v);
+		}
+		l.changed(key);
+	}
+	
+	
+	@Override
+	public void close() {
+		// nothing to release
+	}
+
+}
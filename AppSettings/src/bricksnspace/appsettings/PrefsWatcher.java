@@ -0,0 +1,177 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Watches preferences file for changes done by other programs
+ * 
+ * Events are debounced: reload runs only when no more events arrive for a delay. 
+ * Reload runs only if file content really changed, compared by CRC32 
+ * with last content read or written by AppSettings.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+class PrefsWatcher implements Runnable {
+	
+	private final Path file;
+	private final long delay;
+	private final Runnable reload;
+	private final WatchService watcher;
+	private final Thread thread;
+	private volatile long knownCrc = -1;
+	
+	
+	/**
+	 * Starts watching a file
+	 * @param file file to watch
+	 * @param delay milliseconds without events before checking file
+	 * @param reload task to run when file content changed
+	 * @throws IOException if file folder can't be watched
+	 */
+	PrefsWatcher(Path file, long delay, Runnable reload) throws IOException {
+		
+		if (delay < 0)
+			throw new IllegalArgumentException("Reload delay can't be negative");
+		this.file = file.toAbsolutePath();
+		this.delay = delay;
+		this.reload = reload;
+		watcher = FileSystems.getDefault().newWatchService();
+		this.file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, 
+				StandardWatchEventKinds.ENTRY_MODIFY);
+		thread = new Thread(this, "AppSettings-reload");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	
+	/**
+	 * Sets checksum for file content written by AppSettings, so it isn't reloaded
+	 * @param crc CRC32 of file content
+	 */
+	void setKnownCrc(long crc) {
+		knownCrc = crc;
+	}
+	
+	
+	/**
+	 * Stops watching
+	 */
+	void stop() {
+		
+		try {
+			watcher.close();
+		} catch (IOException e) {
+			Logger.getGlobal().log(Level.WARNING,"Preferences watcher close error", e);
+		}
+	}
+	
+	
+	@Override
+	public void run() {
+		
+		try {
+			if (knownCrc == -1) {
+				knownCrc = fileCrc();
+			}
+			while (true) {
+				if (!relevant(watcher.take()))
+					continue;
+				// wait until events stop
+				WatchKey k;
+				while ((k = watcher.poll(delay, TimeUnit.MILLISECONDS)) != null) {
+					relevant(k);
+				}
+				long crc = fileCrc();
+				if (crc == -1 || crc == knownCrc)
+					continue;
+				knownCrc = crc;
+				try {
+					reload.run();
+				} catch (RuntimeException e) {
+					Logger.getGlobal().log(Level.SEVERE,"Preferences reload error", e);
+				}
+			}
+		}
+		catch (InterruptedException | ClosedWatchServiceException e) {
+			// watcher stopped
+		}
+	}
+	
+	
+	/**
+	 * Consumes events from a key
+	 * @return true if some event is for watched file
+	 */
+	private boolean relevant(WatchKey k) {
+		
+		boolean found = false;
+		for (WatchEvent<?> ev : k.pollEvents()) {
+			if (ev.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(ev.context())) {
+				found = true;
+			}
+		}
+		k.reset();
+		return found;
+	}
+	
+	
+	/**
+	 * @return CRC32 of current file content, or -1 if file can't be read
+	 */
+	private long fileCrc() {
+		
+		CRC32 crc = new CRC32();
+		ByteBuffer b = ByteBuffer.allocate(64*1024);
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			while (ch.read(b) > 0) {
+				b.flip();
+				crc.update(b.array(), 0, b.limit());
+				b.clear();
+			}
+			return crc.getValue();
+		}
+		catch (NoSuchFileException e) {
+			return -1;
+		}
+		catch (IOException e) {
+			Logger.getGlobal().log(Level.WARNING,"Preferences file read error", e);
+			return -1;
+		}
+	}
+	
+}
@@ -0,0 +1,218 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.prefs.InvalidPreferencesFormatException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Reads and writes Preferences XML export files without java.util.prefs
+ * 
+ * Files are compatible with Preferences.exportSubtree() and 
+ * Preferences.importPreferences() for a single node. 
+ * Reading is done with a streaming parser, and DTD isn't loaded.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+class PrefsXml {
+	
+	private static final String DOCTYPE = "<!DOCTYPE preferences SYSTEM \"http://java.sun.com/dtd/preferences.dtd\">";
+	
+	
+	/**
+	 * Collects entries for a node path
+	 */
+	private static final class Handler extends DefaultHandler {
+		
+		private final String path;
+		private final List<String> nodes = new ArrayList<String>();
+		private boolean inRoot = false;
+		final Map<String,String> values = new HashMap<String,String>();
+		
+		Handler(String path) {
+			this.path = path;
+		}
+		
+		@Override
+		public InputSource resolveEntity(String publicId, String systemId) {
+			// don't load DTD from network
+			return new InputSource(new StringReader(""));
+		}
+		
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+			
+			if (qName.equals("root")) {
+				inRoot = "user".equals(atts.getValue("type"));
+			}
+			else if (qName.equals("node")) {
+				nodes.add(atts.getValue("name"));
+			}
+			else if (qName.equals("entry")) {
+				String k = atts.getValue("key");
+				String v = atts.getValue("value");
+				if (k == null || v == null)
+					throw new SAXException("Invalid entry in preferences file");
+				if (inRoot && currentPath().equals(path)) {
+					values.put(k, v);
+				}
+			}
+		}
+		
+		@Override
+		public void endElement(String uri, String localName, String qName) {
+			
+			if (qName.equals("node")) {
+				nodes.remove(nodes.size() - 1);
+			}
+			else if (qName.equals("root")) {
+				inRoot = false;
+			}
+		}
+		
+		private String currentPath() {
+			
+			if (nodes.isEmpty())
+				return "/";
+			StringBuilder sb = new StringBuilder();
+			for (String n : nodes) {
+				sb.append('/').append(n);
+			}
+			return sb.toString();
+		}
+	}
+	
+	
+	
+	/**
+	 * Reads entries for a node from a Preferences XML export
+	 * @param is stream to read
+	 * @param path absolute path of node
+	 * @return entries for node, empty if node isn't in file
+	 * @throws IOException
+	 * @throws InvalidPreferencesFormatException if file isn't a valid preferences file
+	 */
+	static Map<String,String> read(InputStream is, String path) throws IOException, InvalidPreferencesFormatException {
+		
+		Handler h = new Handler(path);
+		try {
+			SAXParser p = SAXParserFactory.newInstance().newSAXParser();
+			p.parse(is, h);
+		} catch (SAXException | ParserConfigurationException e) {
+			throw new InvalidPreferencesFormatException(e);
+		}
+		return h.values;
+	}
+	
+	
+	/**
+	 * Writes entries of a node as Preferences XML export
+	 * @param os stream to write, not closed
+	 * @param path absolute path of node
+	 * @param values entries for node
+	 * @throws IOException
+	 */
+	static void write(OutputStream os, String path, Map<String,String> values) throws IOException {
+		
+		Writer w = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"));
+		w.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n");
+		w.write(DOCTYPE);
+		w.write("\n<preferences EXTERNAL_XML_VERSION=\"1.0\">\n  <root type=\"user\">\n    <map/>\n");
+		String[] nodes = path.equals("/") ? new String[0] : path.substring(1).split("/");
+		String indent = "    ";
+		for (int i = 0; i < nodes.length; i++) {
+			w.write(indent + "<node name=\"" + escape(nodes[i]) + "\">\n");
+			indent += "  ";
+			if (i < nodes.length - 1) {
+				w.write(indent + "<map/>\n");
+			}
+		}
+		if (values.isEmpty()) {
+			w.write(indent + "<map/>\n");
+		}
+		else {
+			w.write(indent + "<map>\n");
+			for (Map.Entry<String,String> e : new TreeMap<String,String>(values).entrySet()) {
+				w.write(indent + "  <entry key=\"" + escape(e.getKey()) + "\" value=\"" + escape(e.getValue()) + "\"/>\n");
+			}
+			w.write(indent + "</map>\n");
+		}
+		for (int i = 0; i < nodes.length; i++) {
+			indent = indent.substring(2);
+			w.write(indent + "</node>\n");
+		}
+		w.write("  </root>\n</preferences>\n");
+		w.flush();
+	}
+	
+	
+	/**
+	 * Escapes a string for an XML attribute
+	 */
+	private static String escape(String s) {
+		
+		StringBuilder sb = null;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			String r;
+			switch (c) {
+			case '&': r = "&amp;"; break;
+			case '<': r = "&lt;"; break;
+			case '>': r = "&gt;"; break;
+			case '"': r = "&quot;"; break;
+			default:
+				r = c < 0x20 ? "&#" + (int) c + ";" : null;
+			}
+			if (r != null && sb == null) {
+				sb = new StringBuilder(s.length() + 16);
+				sb.append(s, 0, i);
+			}
+			if (sb != null) {
+				if (r != null)
+					sb.append(r);
+				else
+					sb.append(c);
+			}
+		}
+		return sb == null ? s : sb.toString();
+	}
+
+}
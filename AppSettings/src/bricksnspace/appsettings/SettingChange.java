@@ -0,0 +1,135 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+/**
+ * A change of a preference value, from old value to new value
+ * 
+ * Values are effective values, i.e. default value if preference wasn't set. 
+ * Typed getters read values with same rules as AppSettings getters.
+ * Changes done to Java Preferences node outside AppSettings have unknown old value, 
+ * reported as default value.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public final class SettingChange {
+	
+	private final String key;
+	private final int type;
+	private final String oldValue;
+	private final String newValue;
+	
+	
+	SettingChange(String key, int type, String oldValue, String newValue) {
+		
+		this.key = key;
+		this.type = type;
+		this.oldValue = oldValue;
+		this.newValue = newValue;
+	}
+	
+	
+	/**
+	 * Combines this change with a later change to same key
+	 */
+	SettingChange merge(SettingChange later) {
+		
+		return new SettingChange(key, later.type, oldValue, later.newValue);
+	}
+	
+	
+	/**
+	 * @return true if value is really changed
+	 */
+	boolean isChanged() {
+		
+		return oldValue == null ? newValue != null : !oldValue.equals(newValue);
+	}
+	
+	
+	/**
+	 * @return preference name
+	 */
+	public String getKey() {
+		return key;
+	}
+	
+	
+	/**
+	 * @return preference type (see AppSettings), or 0 if preference isn't registered
+	 */
+	public int getType() {
+		return type;
+	}
+	
+	
+	/**
+	 * @return old value as stored
+	 */
+	public String getOldValue() {
+		return oldValue;
+	}
+	
+	
+	/**
+	 * @return new value as stored
+	 */
+	public String getNewValue() {
+		return newValue;
+	}
+	
+	
+	public int getOldInt() {
+		return PrefTable.parseInt(oldValue, 0);
+	}
+	
+	
+	public int getNewInt() {
+		return PrefTable.parseInt(newValue, 0);
+	}
+	
+	
+	public boolean getOldBool() {
+		return PrefTable.parseBool(oldValue, false);
+	}
+	
+	
+	public boolean getNewBool() {
+		return PrefTable.parseBool(newValue, false);
+	}
+	
+	
+	public float getOldFloat() {
+		return PrefTable.parseFloat(oldValue, 0f);
+	}
+	
+	
+	public float getNewFloat() {
+		return PrefTable.parseFloat(newValue, 0f);
+	}
+	
+	
+	@Override
+	public String toString() {
+		return key + ": " + oldValue + " -> " + newValue;
+	}
+
+}
@@ -0,0 +1,122 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.InvalidPreferencesFormatException;
+
+/**
+ * Storage for preferences values, as strings
+ * 
+ * AppSettings keeps parsed values, defaults and metadata, and uses a backend 
+ * only to store raw values and to read and write them as XML.
+ * 
+ * @see MemoryBackend
+ * @see PreferencesBackend
+ * 
+ * @author Mario Pascucci
+ *
+ */
+interface SettingsBackend {
+	
+	/**
+	 * Callback for changes done to backend outside AppSettings
+	 */
+	interface Listener {
+		void changed(String key);
+	}
+	
+	
+	/**
+	 * @param key preference name
+	 * @return stored value, or null if not stored
+	 */
+	String get(String key);
+	
+	
+	/**
+	 * @param key preference name
+	 * @param value value to store
+	 */
+	void put(String key, String value);
+	
+	
+	/**
+	 * @param key preference name to remove
+	 */
+	void remove(String key);
+	
+	
+	/**
+	 * @return all stored keys
+	 * @throws BackingStoreException
+	 */
+	String[] keys() throws BackingStoreException;
+	
+	
+	/**
+	 * @return number of stored keys
+	 * @throws BackingStoreException
+	 */
+	int size() throws BackingStoreException;
+	
+	
+	/**
+	 * Removes all stored values
+	 * @throws BackingStoreException
+	 */
+	void clear() throws BackingStoreException;
+	
+	
+	/**
+	 * Reads values from a Preferences XML export
+	 * @param is stream to read
+	 * @throws IOException
+	 * @throws InvalidPreferencesFormatException
+	 */
+	void importXml(InputStream is) throws IOException, InvalidPreferencesFormatException;
+	
+	
+	/**
+	 * Writes values as a Preferences XML export
+	 * @param os stream to write
+	 * @throws IOException
+	 * @throws BackingStoreException
+	 */
+	void exportXml(OutputStream os) throws IOException, BackingStoreException;
+	
+	
+	/**
+	 * Sets a listener for changes done outside AppSettings. 
+	 * Backends that can't be changed from outside ignore it.
+	 * @param l listener or null to remove
+	 */
+	void setListener(Listener l);
+	
+	
+	/**
+	 * Releases resources held by backend, called when backend is replaced
+	 */
+	void close();
+
+}
@@ -0,0 +1,44 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import java.util.List;
+
+/**
+ * Listener for preferences changes
+ * 
+ * Changes are delivered in batches on executor given when listener is added. 
+ * Many changes to same key before delivery are coalesced in a single change, 
+ * from value before first change to value after last change.
+ * 
+ * @see AppSettings#addSettingsListener(String, SettingsListener, java.util.concurrent.Executor)
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public interface SettingsListener {
+	
+	/**
+	 * Called on listener executor with changes for subscribed keys
+	 * @param changes changes, at most one for every key
+	 */
+	void settingsChanged(List<SettingChange> changes);
+
+}
@@ -0,0 +1,370 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Counters and timings for a settings store
+ * 
+ * Reads and writes are counted by operation and key class (user preference, 
+ * app private preference, or key not registered) with striped counters, so 
+ * concurrent readers don't contend. Reads are counted per key too, to find hot keys.
+ * Loads and saves are timed in a log2 histogram of microseconds.
+ * 
+ * Metrics are collected only when enabled, a disabled store pays a single field read 
+ * for every operation.
+ * 
+ * @see SettingsStore#enableMetrics(String)
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public final class SettingsMetrics implements SettingsMetricsMBean {
+	
+	// operations
+	static final int READ = 0;
+	static final int DEFAULT_READ = 1;
+	static final int CACHE_MISS = 2;
+	static final int WRITE = 3;
+	private static final String[] OPS = { "read", "defaultRead", "cacheMiss", "write" };
+	
+	// key classes
+	static final int USER = 0;
+	static final int PRIVATE = 1;
+	static final int UNREGISTERED = 2;
+	private static final String[] CLASSES = { "user", "private", "unregistered" };
+	
+	private static final int BUCKETS = 32;
+	private static final int HOT_KEYS = 20;
+	
+	
+	/**
+	 * Timings of an operation
+	 */
+	private static final class Timer {
+		
+		final LongAdder count = new LongAdder();
+		final LongAdder total = new LongAdder();
+		final LongAccumulator max = new LongAccumulator(new LongBinaryOperator() {
+			@Override
+			public long applyAsLong(long a, long b) {
+				return Math.max(a, b);
+			}
+		}, 0);
+		final LongAdder[] buckets = new LongAdder[BUCKETS];
+		
+		Timer() {
+			for (int i = 0; i < BUCKETS; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+		
+		void add(long nanos) {
+			
+			count.increment();
+			total.add(nanos);
+			max.accumulate(nanos);
+			long us = nanos / 1000;
+			int b = us < 2 ? 0 : 63 - Long.numberOfLeadingZeros(us);
+			buckets[Math.min(b, BUCKETS - 1)].increment();
+		}
+		
+		double mean() {
+			
+			long n = count.sum();
+			return n == 0 ? 0 : total.sum() / 1e6 / n;
+		}
+		
+		long[] histogram() {
+			
+			long[] h = new long[BUCKETS];
+			for (int i = 0; i < BUCKETS; i++) {
+				h[i] = buckets[i].sum();
+			}
+			return h;
+		}
+		
+		void reset() {
+			
+			count.reset();
+			total.reset();
+			max.reset();
+			for (LongAdder a : buckets) {
+				a.reset();
+			}
+		}
+	}
+	
+	
+	private final PrefTable table;
+	private final LongAdder[] counters = new LongAdder[OPS.length * CLASSES.length];
+	// reads per slot, grown when table grows
+	private volatile LongAdder[] keyReads = new LongAdder[0];
+	private final Timer load = new Timer();
+	private final Timer save = new Timer();
+	private volatile long fileSize = 0;
+	private volatile int keyCount = 0;
+	
+	
+	SettingsMetrics(PrefTable table) {
+		
+		this.table = table;
+		for (int i = 0; i < counters.length; i++) {
+			counters[i] = new LongAdder();
+		}
+	}
+	
+	
+	/**
+	 * Counts a read
+	 * @param slot key slot
+	 * @param keyClass one of USER, PRIVATE, UNREGISTERED
+	 * @param fromDefault true if value read is default value
+	 * @param miss true if value was not cached
+	 */
+	void read(int slot, int keyClass, boolean fromDefault, boolean miss) {
+		
+		counters[READ * CLASSES.length + keyClass].increment();
+		if (fromDefault) {
+			counters[DEFAULT_READ * CLASSES.length + keyClass].increment();
+		}
+		if (miss) {
+			counters[CACHE_MISS * CLASSES.length + keyClass].increment();
+		}
+		LongAdder[] k = keyReads;
+		if (slot >= k.length) {
+			k = growKeys(slot);
+		}
+		k[slot].increment();
+	}
+	
+	
+	/**
+	 * Counts a write
+	 */
+	void write(int keyClass) {
+		
+		counters[WRITE * CLASSES.length + keyClass].increment();
+	}
+	
+	
+	private synchronized LongAdder[] growKeys(int slot) {
+		
+		LongAdder[] k = keyReads;
+		if (slot < k.length)
+			return k;
+		LongAdder[] n = Arrays.copyOf(k, Math.max(slot + 1, k.length * 2));
+		for (int i = k.length; i < n.length; i++) {
+			n[i] = new LongAdder();
+		}
+		keyReads = n;
+		return n;
+	}
+	
+	
+	/**
+	 * Records a load of preferences file
+	 * @param nanos time taken
+	 * @param size file size in bytes
+	 * @param keys number of keys read
+	 */
+	void loaded(long nanos, long size, int keys) {
+		
+		load.add(nanos);
+		fileSize = size;
+		keyCount = keys;
+	}
+	
+	
+	/**
+	 * Records a save of preferences file
+	 * @param nanos time taken
+	 * @param size file size in bytes, journal included
+	 * @param keys number of keys saved
+	 */
+	void saved(long nanos, long size, int keys) {
+		
+		save.add(nanos);
+		fileSize = size;
+		keyCount = keys;
+	}
+	
+	
+	private long sum(int op) {
+		
+		long s = 0;
+		for (int c = 0; c < CLASSES.length; c++) {
+			s += counters[op * CLASSES.length + c].sum();
+		}
+		return s;
+	}
+	
+	
+	@Override
+	public long getReads() {
+		return sum(READ);
+	}
+	
+	
+	@Override
+	public long getDefaultReads() {
+		return sum(DEFAULT_READ);
+	}
+	
+	
+	@Override
+	public long getCacheMisses() {
+		return sum(CACHE_MISS);
+	}
+	
+	
+	@Override
+	public long getWrites() {
+		return sum(WRITE);
+	}
+	
+	
+	@Override
+	public String[] getCounters() {
+		
+		String[] s = new String[counters.length];
+		for (int op = 0; op < OPS.length; op++) {
+			for (int c = 0; c < CLASSES.length; c++) {
+				int i = op * CLASSES.length + c;
+				s[i] = OPS[op] + "." + CLASSES[c] + "=" + counters[i].sum();
+			}
+		}
+		return s;
+	}
+	
+	
+	@Override
+	public String[] getHotKeys() {
+		
+		LongAdder[] k = keyReads;
+		final long[] reads = new long[k.length];
+		List<Integer> slots = new ArrayList<Integer>();
+		for (int i = 0; i < k.length; i++) {
+			reads[i] = k[i].sum();
+			if (reads[i] > 0) {
+				slots.add(i);
+			}
+		}
+		Collections.sort(slots, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Long.compare(reads[b], reads[a]);
+			}
+		});
+		int n = Math.min(slots.size(), HOT_KEYS);
+		String[] s = new String[n];
+		for (int i = 0; i < n; i++) {
+			int slot = slots.get(i);
+			s[i] = table.getName(slot) + "=" + reads[slot];
+		}
+		return s;
+	}
+	
+	
+	@Override
+	public long getLoadCount() {
+		return load.count.sum();
+	}
+	
+	
+	@Override
+	public double getLoadMeanMillis() {
+		return load.mean();
+	}
+	
+	
+	@Override
+	public double getLoadMaxMillis() {
+		return load.max.get() / 1e6;
+	}
+	
+	
+	@Override
+	public long[] getLoadHistogram() {
+		return load.histogram();
+	}
+	
+	
+	@Override
+	public long getSaveCount() {
+		return save.count.sum();
+	}
+	
+	
+	@Override
+	public double getSaveMeanMillis() {
+		return save.mean();
+	}
+	
+	
+	@Override
+	public double getSaveMaxMillis() {
+		return save.max.get() / 1e6;
+	}
+	
+	
+	@Override
+	public long[] getSaveHistogram() {
+		return save.histogram();
+	}
+	
+	
+	@Override
+	public long getFileSize() {
+		return fileSize;
+	}
+	
+	
+	@Override
+	public int getKeyCount() {
+		return keyCount;
+	}
+	
+	
+	/**
+	 * Resets all counters and timings
+	 */
+	@Override
+	public void reset() {
+		
+		for (LongAdder a : counters) {
+			a.reset();
+		}
+		for (LongAdder a : keyReads) {
+			a.reset();
+		}
+		load.reset();
+		save.reset();
+	}
+
+}
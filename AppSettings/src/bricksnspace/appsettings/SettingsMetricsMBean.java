@@ -0,0 +1,78 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+/**
+ * Management interface for settings metrics, published as platform MBean
+ * 
+ * @see SettingsMetrics
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public interface SettingsMetricsMBean {
+	
+	long getReads();
+	
+	long getDefaultReads();
+	
+	long getCacheMisses();
+	
+	long getWrites();
+	
+	/**
+	 * @return counters by operation and key class, as "operation.class=count"
+	 */
+	String[] getCounters();
+	
+	/**
+	 * @return most read keys, as "key=count", most read first
+	 */
+	String[] getHotKeys();
+	
+	long getLoadCount();
+	
+	double getLoadMeanMillis();
+	
+	double getLoadMaxMillis();
+	
+	/**
+	 * @return load times histogram, element i counts loads taking less than 2^(i+1) microseconds
+	 */
+	long[] getLoadHistogram();
+	
+	long getSaveCount();
+	
+	double getSaveMeanMillis();
+	
+	double getSaveMaxMillis();
+	
+	/**
+	 * @return save times histogram, element i counts saves taking less than 2^(i+1) microseconds
+	 */
+	long[] getSaveHistogram();
+	
+	long getFileSize();
+	
+	int getKeyCount();
+	
+	void reset();
+
+}
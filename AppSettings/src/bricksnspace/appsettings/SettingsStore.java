@@ -0,0 +1,1359 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+
+package bricksnspace.appsettings;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.InvalidPreferencesFormatException;
+import java.util.prefs.Preferences;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * A settings store: preferences registry, values and preferences file.
+ * 
+ * Same API as static AppSettings, that uses a default store (see AppSettings.getDefault()).
+ * Every store has its own registry, values, file and locks, so many stores can be 
+ * opened and used at the same time, i.e. a store for every open document 
+ * next to application settings.
+ * 
+ * <pre>
+ * SettingsStore doc = new SettingsStore();
+ * doc.setPrefsFile("drawing.prefs");
+ * doc.openPreferences(app);
+ * doc.addPref("zoom", "Zoom", AppSettings.FLOAT);
+ * </pre>
+ * 
+ * @see AppSettings
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public class SettingsStore {
+	
+	// true if preferences was read from file
+	private boolean configured = false;
+	
+	// preferences descriptors, defaults and cached values
+	private final PrefTable table = new PrefTable();
+	
+	private String prefsFile = null;
+	
+	// application class, for preferences backend
+	private Class<?> appClass = null;
+	
+	// serializes writes to preferences file
+	private final Object saveLock = new Object();
+	
+	// force preferences file on disk when saving
+	private volatile boolean syncOnSave = true;
+	
+	// backend for preferences values
+	private volatile int backend = AppSettings.MEMORY_BACKEND;
+	
+	// save in binary format instead of XML
+	private volatile boolean binaryFormat = false;
+	
+	// append-only change log, null if disabled
+	private Journal journal = null;
+	
+	// preferences file watcher for hot reload, null if disabled
+	private volatile PrefsWatcher watcher = null;
+	
+	// write-behind saving, null if disabled
+	private AutoSave autoSave = null;
+	
+	// metrics, null if disabled
+	private volatile SettingsMetrics metrics = null;
+	private ObjectName metricsName = null;
+	
+	// configuration layers other than preferences file, guarded by layersLock
+	private final Object layersLock = new Object();
+	private Map<String,String> siteValues = Collections.emptyMap();
+	private String envPrefix = null;
+	private String sysPrefix = null;
+	private Map<String,String> cmdLine = Collections.emptyMap();
+	
+
+
+	/**
+	 * @return the prefsFile
+	 */
+	public String getPrefsFile() {
+		return prefsFile;
+	}
+
+
+
+	/**
+	 * @param prefsFile the prefsFile to set
+	 */
+	public void setPrefsFile(String prefsFile) {
+		this.prefsFile = prefsFile;
+	}
+
+
+
+	/**
+	 * Opens and reads preferences from file, if exists.
+	 * If not exists, creates a new file, and set a boolean to false to notify that is a first run.
+	 * File name is generated from SimpleClassName() + ".prefs" and stored in current directory.
+	 * After preference file is inited, we can add our preferences with addPref method
+	 * @param app application object Class
+	 * @return true if 
+	 */
+	public boolean openPreferences(Object app) {		
+		
+		if (prefsFile == null) {
+			if (app == null) {
+				throw new IllegalArgumentException("Application Class can't be null"); 
+			}
+			else {
+				prefsFile = app.getClass().getSimpleName()+".prefs";
+			}
+		}
+		appClass = app.getClass();
+		table.getBlobs().setFolder(BlobStore.folderFor(new File(prefsFile)));
+		return readPreferences(new File(prefsFile), false);
+	}
+	
+	
+	/**
+	 * Values read from preferences file
+	 */
+	private static final class Loaded {
+		
+		final SettingsBackend store;
+		final BinaryPrefs base;
+		final boolean configured;
+		
+		Loaded(SettingsBackend store, BinaryPrefs base, boolean configured) {
+			this.store = store;
+			this.base = base;
+			this.configured = configured;
+		}
+	}
+	
+	
+	/**
+	 * Reads preferences file and replaces current values with values read.
+	 * Values are read into a new backend, then swapped in at once, so readers 
+	 * never see a partially read file. Java Preferences node and shared file 
+	 * are read in place, holding table lock.
+	 * @param pf preferences file
+	 * @param keepChanges true to keep changes not saved yet
+	 * @return true if preferences was read from file
+	 */
+	private boolean readPreferences(File pf, boolean keepChanges) {
+		
+		long start = System.nanoTime();
+		TraceEvent ev = Tracing.begin(Tracer.LOAD);
+		boolean read;
+		if (backend == AppSettings.PREFERENCES_BACKEND || backend == AppSettings.SHARED_BACKEND) {
+			synchronized (table.getLock()) {
+				// node or shared file is read in place, take values before reading
+				Map<String,String> before = valuesBefore();
+				Map<String,String> changes = keepChanges ? table.getChanges() : null;
+				read = swapStore(loadStore(pf), changes, before);
+			}
+		}
+		else {
+			Loaded l = loadStore(pf);
+			synchronized (table.getLock()) {
+				read = swapStore(l, keepChanges ? table.getChanges() : null, valuesBefore());
+			}
+		}
+		table.flushEvents();
+		long elapsed = System.nanoTime() - start;
+		if (ev != null) {
+			ev.end();
+		}
+		SettingsMetrics m = metrics;
+		if (m != null || ev != null) {
+			long size = fileSize(pf);
+			int keys = storedCount();
+			if (m != null) {
+				m.loaded(elapsed, size, keys);
+			}
+			if (ev != null) {
+				ev.setPath(pf.getPath());
+				ev.setBytes(size);
+				ev.setKeys(keys);
+				ev.setOutcome(read ? "read" : "not found");
+				ev.commit();
+			}
+		}
+		return read;
+	}
+	
+	
+	/**
+	 * @return current values to compare with values read, or null if no listener needs them.
+	 * Must be called holding table lock.
+	 */
+	private Map<String,String> valuesBefore() {
+		
+		if (table.getDispatcher().isActive() && table.getStore() != null) {
+			return storedValues();
+		}
+		return null;
+	}
+	
+	
+	/**
+	 * Replaces current backend, holding table lock
+	 * @param l values read from file
+	 * @param changes changes not saved to keep, or null
+	 * @param before values before reading, or null
+	 * @return true if preferences was read from file
+	 */
+	private boolean swapStore(Loaded l, Map<String,String> changes, Map<String,String> before) {
+		
+		table.setStore(l.store, l.base);
+		if (changes != null) {
+			for (Map.Entry<String,String> e : changes.entrySet()) {
+				l.store.put(e.getKey(), e.getValue());
+			}
+			table.markDirty(changes.keySet());
+		}
+		if (before != null) {
+			table.fireDiff(before, storedValues());
+		}
+		configured = l.configured;
+		return configured;
+	}
+	
+	
+	/**
+	 * Reads preferences file into a new backend.
+	 * If preferences file is damaged, reads backup file left by last save.
+	 * Changes logged in journal file, if any, are applied after preferences file.
+	 * @param pf preferences file
+	 * @return values read
+	 */
+	private Loaded loadStore(File pf) {
+		
+		SettingsBackend prefs = newBackend(appClass);
+		if (prefs instanceof SharedBackend) {
+			return loadShared((SharedBackend) prefs, pf);
+		}
+		return loadInto(prefs, pf);
+	}
+	
+	
+	/**
+	 * Reads preferences file into a backend, replacing its values
+	 * @param prefs preferences backend
+	 * @param pf preferences file
+	 * @return values read
+	 */
+	private Loaded loadInto(SettingsBackend prefs, File pf) {
+		
+		boolean read = false;
+		BinaryPrefs base = null;
+		clearStore(prefs);
+		if (pf.canRead() && pf.isFile()) {
+			try {
+				base = loadFile(prefs, pf);
+				read = true;
+			} catch (IOException e) {
+				Logger.getGlobal().log(Level.SEVERE,"Preferences read error", e);
+				clearStore(prefs);
+			}
+			File backup = new AtomicFile(pf).getBackup();
+			if (!read && backup.canRead() && backup.isFile()) {
+				Logger.getGlobal().log(Level.WARNING,"Preferences file damaged, reading backup "+backup.getPath());
+				try {
+					base = loadFile(prefs, backup);
+					read = true;
+				} catch (IOException e) {
+					Logger.getGlobal().log(Level.SEVERE,"Preferences backup read error", e);
+					clearStore(prefs);
+				}
+			}
+		}
+		if (read) {
+			// changes saved after last full save
+			try {
+				Journal.replay(pf, prefs);
+			} catch (IOException e) {
+				Logger.getGlobal().log(Level.SEVERE,"Preferences journal read error", e);
+			}
+		}
+		return new Loaded(prefs, base, read);
+	}
+	
+	
+	/**
+	 * Reads preferences file into shared file, if shared file is still empty or 
+	 * is already in use by this store, so file is read again.
+	 * Values are read in memory, then copied at once, so other processes 
+	 * never see a partially read file.
+	 * @param shared shared backend
+	 * @param pf preferences file
+	 * @return values read
+	 */
+	private Loaded loadShared(SharedBackend shared, File pf) {
+		
+		boolean reload = shared == table.getStore();
+		if (!reload && !shared.startFill()) {
+			// values already read by first process using shared file
+			try {
+				binaryFormat = pf.isFile() && BinaryPrefs.isBinary(pf);
+			} catch (IOException e) {
+				Logger.getGlobal().log(Level.WARNING,"Preferences read error", e);
+			}
+			return new Loaded(shared, null, pf.isFile());
+		}
+		try {
+			MemoryBackend m = new MemoryBackend(MemoryBackend.pathForPackage(appClass));
+			Loaded l = loadInto(m, pf);
+			Map<String,String> values = new HashMap<String,String>();
+			if (l.base != null) {
+				// other processes read values only from shared file
+				for (String k : l.base.keys()) {
+					values.put(k, l.base.get(k));
+				}
+			}
+			for (String k : m.keys()) {
+				values.put(k, m.get(k));
+			}
+			shared.replaceAll(values);
+			return new Loaded(shared, null, l.configured);
+		}
+		finally {
+			if (!reload) {
+				shared.endFill();
+			}
+		}
+	}
+	
+	
+	/**
+	 * Creates an empty backend of selected type
+	 * @param app application class
+	 */
+	private SettingsBackend newBackend(Class<?> app) {
+		
+		if (backend == AppSettings.PREFERENCES_BACKEND) {
+			Preferences node = Preferences.userNodeForPackage(app);
+			SettingsBackend current = table.getStore();
+			if (current instanceof PreferencesBackend && ((PreferencesBackend) current).isNode(node)) {
+				// node is shared, keep backend with its listener
+				return current;
+			}
+			return new PreferencesBackend(node);
+		}
+		if (backend == AppSettings.SHARED_BACKEND) {
+			File f = SharedBackend.fileFor(new File(prefsFile));
+			SettingsBackend current = table.getStore();
+			if (current instanceof SharedBackend && ((SharedBackend) current).isFile(f)) {
+				// keep backend with its listener, file is read again in place
+				return current;
+			}
+			try {
+				return new SharedBackend(f, MemoryBackend.pathForPackage(app));
+			} catch (IOException e) {
+				Logger.getGlobal().log(Level.SEVERE,"Unable to open shared settings, using private values", e);
+			}
+		}
+		return new MemoryBackend(MemoryBackend.pathForPackage(app));
+	}
+	
+	
+	/**
+	 * Reads a preferences file, detecting file format.
+	 * XML files are imported in backend, binary files are read 
+	 * in a buffer and values are decoded only when needed.
+	 * @param prefs preferences backend
+	 * @param f file to read
+	 * @return values from a binary file, or null for XML files
+	 * @throws IOException if file can't be read or is damaged
+	 */
+	private BinaryPrefs loadFile(SettingsBackend prefs, File f) throws IOException {
+		
+		if (BinaryPrefs.isBinary(f)) {
+			binaryFormat = true;
+			return BinaryPrefs.open(f);
+		}
+		try (InputStream is = new BufferedInputStream(new FileInputStream(f))) {
+			prefs.importXml(is);
+			binaryFormat = false;
+			return null;
+		} catch (InvalidPreferencesFormatException e) {
+			throw new IOException("Invalid preferences file "+f.getPath(), e);
+		}
+	}
+	
+	
+	/**
+	 * @return size of preferences file and its journal
+	 */
+	private static long fileSize(File pf) {
+		
+		return pf.length() + Journal.fileFor(pf).length();
+	}
+	
+	
+	/**
+	 * @return number of stored values, 0 on backend errors
+	 */
+	private int storedCount() {
+		
+		try {
+			return table.countValues();
+		} catch (BackingStoreException e) {
+			Logger.getGlobal().log(Level.SEVERE,"Preferences internal error", e);
+			return 0;
+		}
+	}
+	
+	
+	/**
+	 * @return all stored values, empty on backend errors
+	 */
+	private Map<String,String> storedValues() {
+		
+		try {
+			return table.getValues();
+		} catch (BackingStoreException e) {
+			Logger.getGlobal().log(Level.SEVERE,"Preferences internal error", e);
+			return Collections.emptyMap();
+		}
+	}
+	
+	
+	/**
+	 * Removes all values from preferences backend
+	 */
+	private void clearStore(SettingsBackend prefs) {
+		
+		try {
+			prefs.clear();
+		} catch (BackingStoreException e1) {
+			// nothing to do
+			Logger.getGlobal().log(Level.SEVERE,"Preferences internal error", e1);
+		}
+	}
+	
+	
+	/**
+	 * Choose where preferences values are kept. Takes effect on next openPreferences().
+	 * AppSettings.MEMORY_BACKEND (default) keeps values in memory, and stores them only in preferences file.
+	 * AppSettings.PREFERENCES_BACKEND keeps values in Java Preferences user node for application package, 
+	 * as in previous versions, for code that reads that node directly. 
+	 * AppSettings.SHARED_BACKEND keeps values in a memory mapped file next to preferences file, 
+	 * shared by all processes using same preferences file: a value changed by a process is seen 
+	 * by others within a fraction of a second, and notified to their listeners. 
+	 * First process reads preferences file, others use values already in shared file. 
+	 * Reopening or reloading preferences file replaces values for all processes, 
+	 * discarding changes not saved by other processes.
+	 * @param type AppSettings.MEMORY_BACKEND, AppSettings.PREFERENCES_BACKEND or AppSettings.SHARED_BACKEND
+	 */
+	public void setBackend(int type) {
+		
+		if (type != AppSettings.MEMORY_BACKEND && type != AppSettings.PREFERENCES_BACKEND 
+				&& type != AppSettings.SHARED_BACKEND)
+			throw new IllegalArgumentException("Invalid preferences backend");
+		backend = type;
+	}
+	
+	
+	/**
+	 * @return current backend type
+	 */
+	public int getBackend() {
+		
+		return backend;
+	}
+	
+	
+	/**
+	 * Checks if it is a first run, i.e. return false if preference file doesn't exists
+	 * @return true if a preference file already exists
+	 */
+	public boolean isConfigured() {
+		
+		return configured;
+	}
+	
+	
+	/**
+	 * @return true if preferences are opened
+	 */
+	boolean isOpen() {
+		
+		return table.getStore() != null;
+	}
+
+
+	/**
+	 * Gets a list of user defined preferences
+	 * @return an immutable snapshot of preferences list
+	 */
+	public List<String> getPrefsList() {
+		
+		return table.getNames();
+	}
+	
+	
+	/**
+	 * Retrieve a description text for named preference
+	 * @param name preference to retrieve
+	 * @return a string that describes named preference
+	 */
+	public String getDescr(String name) {
+		
+		int slot = table.find(name);
+		return slot < 0 ? null : table.getDescr(slot);
+	}
+	
+	
+	
+	/**
+	 * Add a preference to settings list.
+	 * A preference is defined by a unique name, with a description text (used in OptionDialog as text description) and a type
+	 * 
+	 * @param name unique name for preference
+	 * @param dispName description text
+	 * @param type chosen from defined type (see above)
+	 * @return handle for preference, use asInt(), asBool()... to get a typed handle
+	 */
+	public AppPref addPref(String name, String dispName, int type) {
+		
+		AppSettings.checkPref(name, dispName, type);
+		return table.register(name, dispName, type, false); 	// user defined
+	}
+
+	
+	/**
+	 * Add an app private preference to settings list.
+	 * A private preference is defined by a unique name, with a description text (used in OptionDialog as text description) and a type, 
+	 * but isn't user defined, and don't appear in options setting dialog
+	 * 
+	 * @param name unique name for preference
+	 * @param dispName description text
+	 * @param type chosen from defined type (see above)
+	 * @return handle for preference, use asInt(), asBool()... to get a typed handle
+	 */
+	public AppPref addPrivatePref(String name, String dispName, int type) {
+		
+		AppSettings.checkPref(name, dispName, type);
+		return table.register(name, dispName, type, true); 	// app private
+	}
+	
+	
+	/**
+	 * Starts a batch of preferences definitions, registered all at once with commit()
+	 * @return a new empty batch
+	 */
+	public PrefBatch batch() {
+		
+		return new PrefBatch(table);
+	}
+	
+	
+	/**
+	 * Starts a transaction, to write many preferences at once with commit() 
+	 * or discard them with rollback()
+	 * @return a new empty transaction
+	 */
+	public PrefTransaction begin() {
+		
+		return new PrefTransaction(table);
+	}
+	
+	
+	/**
+	 * Gets handle for a registered preference
+	 * @param name preference name
+	 * @return handle for preference, use asInt(), asBool()... to get a typed handle
+	 */
+	public AppPref getPref(String name) {
+		
+		return table.getHandle(registeredSlot(name));
+	}
+	
+	
+	/**
+	 * Lookup slot for a registered preference
+	 */
+	private int registeredSlot(String name) {
+		
+		int slot = table.find(name);
+		if (slot < 0 || !table.isRegistered(slot))
+			throw new IllegalArgumentException("Unknown preference '" + name + "'");
+		return slot;
+	}
+
+	
+	/**
+	 * @param name preference to query
+	 * @return type of preference (see above)
+	 */
+	public int getType(String name) {
+		
+		return table.getType(registeredSlot(name));
+	}
+	
+	
+	
+	public boolean isAppPrivate(String key) {
+		
+		if (key == null || key =="")
+			throw new IllegalArgumentException("Parameter 'key' is null or empty string.");
+		return table.isAppPrivate(registeredSlot(key));
+	}
+	
+	
+	
+	/**
+	 * Write current preferences to preference file.
+	 * Preferences are written to a temporary file, then renamed over preference file, 
+	 * so a crash during save never leaves a damaged file. Previous file is kept 
+	 * as backup, with ".bak" extension.
+	 * If journal is enabled, only changed preferences are appended to journal file. 
+	 * @throws IOException
+	 * @throws BackingStoreException
+	 */
+	public void savePreferences() throws IOException, BackingStoreException {
+		
+		synchronized (saveLock) {
+			long start = System.nanoTime();
+			TraceEvent ev = Tracing.begin(Tracer.SAVE);
+			File pf = new File(prefsFile);
+			if (ev != null) {
+				ev.setPath(pf.getPath());
+			}
+			Set<String> saved = table.clearDirty();
+			boolean toJournal = journal != null && pf.isFile();
+			try {
+				if (toJournal) {
+					journal.append(table.getStore(), saved, syncOnSave);
+				}
+				else {
+					writeFull(pf);
+				}
+			} catch (IOException | BackingStoreException | RuntimeException e) {
+				table.markDirty(saved);
+				Tracing.failed(ev, e);
+				throw e;
+			}
+			// saved preferences don't refer to replaced BLOB files anymore
+			table.getBlobs().cleanup();
+			long elapsed = System.nanoTime() - start;
+			if (ev != null) {
+				ev.end();
+			}
+			SettingsMetrics m = metrics;
+			if (m != null || ev != null) {
+				long size = fileSize(pf);
+				int keys = storedCount();
+				if (m != null) {
+					m.saved(elapsed, size, keys);
+				}
+				if (ev != null) {
+					ev.setBytes(size);
+					ev.setKeys(toJournal ? saved.size() : keys);
+					ev.setOutcome(toJournal ? "journal" : "full");
+					ev.commit();
+				}
+			}
+		}
+	}
+	
+	
+	/**
+	 * Writes all preferences to preferences file, holding save lock.
+	 * Journal, if any, is deleted because new file contains all changes.
+	 * @param pf preferences file
+	 * @throws IOException
+	 * @throws BackingStoreException
+	 */
+	private void writeFull(File pf) throws IOException, BackingStoreException {
+		
+		AtomicFile af = new AtomicFile(pf);
+		OutputStream os = null;
+		try {
+			os = af.startWrite();
+			CheckedOutputStream cos = new CheckedOutputStream(os, new CRC32());
+			if (binaryFormat) {
+				BinaryPrefs.write(cos, table.getValues(), table.getTypes());
+			}
+			else {
+				table.materializeBase();
+				table.getStore().exportXml(cos);
+			}
+			cos.flush();
+			PrefsWatcher w = watcher;
+			if (w != null) {
+				// don't reload our own changes
+				w.setKnownCrc(cos.getChecksum().getValue());
+			}
+			af.finishWrite(os, syncOnSave);
+		} catch (IOException | BackingStoreException | RuntimeException e) {
+			af.failWrite(os);
+			throw e;
+		}
+		if (journal != null) {
+			journal.reset();
+		}
+		else {
+			Files.deleteIfExists(Journal.fileFor(pf).toPath());
+		}
+	}
+	
+	
+	/**
+	 * Enables journal: savePreferences() appends changed preferences to a journal file, 
+	 * next to preferences file, instead of writing all preferences. 
+	 * When journal grows over compactSize bytes, all preferences are written 
+	 * to preferences file in background, and journal is deleted.
+	 * Preferences must be already opened.
+	 * @param compactSize journal size in bytes that triggers compaction
+	 */
+	public void enableJournal(long compactSize) {
+		
+		synchronized (saveLock) {
+			if (prefsFile == null || table.getStore() == null)
+				throw new IllegalStateException("Preferences must be opened before enabling journal");
+			if (journal != null) {
+				journal.stop();
+			}
+			journal = new Journal(new File(prefsFile), compactSize, new Runnable() {
+				@Override
+				public void run() {
+					synchronized (saveLock) {
+						try {
+							writeFull(new File(prefsFile));
+						} catch (IOException | BackingStoreException | RuntimeException e) {
+							Logger.getGlobal().log(Level.SEVERE,"Preferences journal compaction error", e);
+						}
+					}
+				}
+			});
+		}
+	}
+	
+	
+	/**
+	 * Disables journal, writing all preferences to preferences file
+	 * @throws IOException
+	 * @throws BackingStoreException
+	 */
+	public void disableJournal() throws IOException, BackingStoreException {
+		
+		synchronized (saveLock) {
+			if (journal == null)
+				return;
+			journal.stop();
+			journal = null;
+			writeFull(new File(prefsFile));
+		}
+	}
+	
+	
+	/**
+	 * @return true if journal is enabled
+	 */
+	public boolean isJournal() {
+		
+		synchronized (saveLock) {
+			return journal != null;
+		}
+	}
+	
+	
+	/**
+	 * Choose preferences file format. Binary files are smaller and faster to open, 
+	 * because values are read only when needed. XML files are standard Preferences 
+	 * export files. File format is detected when preferences are opened, and 
+	 * same format is used to save. Use exportXml() and importXml() to exchange 
+	 * preferences in XML format.
+	 * @param binary true to save in binary format
+	 */
+	public void setBinaryFormat(boolean binary) {
+		
+		binaryFormat = binary;
+	}
+	
+	
+	/**
+	 * @return true if preferences are saved in binary format
+	 */
+	public boolean isBinaryFormat() {
+		
+		return binaryFormat;
+	}
+	
+	
+	/**
+	 * Writes all preferences to a file in XML format, as Preferences export
+	 * @param f file to write
+	 * @throws IOException
+	 * @throws BackingStoreException
+	 */
+	public void exportXml(File f) throws IOException, BackingStoreException {
+		
+		table.materializeBase();
+		try (OutputStream os = new BufferedOutputStream(new FileOutputStream(f))) {
+			table.getStore().exportXml(os);
+		}
+	}
+	
+	
+	/**
+	 * Reads preferences from a file in XML format, as Preferences export. 
+	 * Values read replace current values, and are saved with next save.
+	 * @param f file to read
+	 * @throws IOException
+	 * @throws InvalidPreferencesFormatException
+	 * @throws BackingStoreException
+	 */
+	public void importXml(File f) throws IOException, InvalidPreferencesFormatException, BackingStoreException {
+		
+		synchronized (table.getLock()) {
+			Map<String,String> before = table.getDispatcher().isActive() ? storedValues() : null;
+			try (InputStream is = new BufferedInputStream(new FileInputStream(f))) {
+				table.getStore().importXml(is);
+			}
+			table.invalidateAll();
+			if (before != null) {
+				table.fireDiff(before, storedValues());
+			}
+			table.markDirty(Arrays.asList(table.getStore().keys()));
+		}
+		table.flushEvents();
+	}
+	
+	
+	/**
+	 * Choose if saved preferences are forced to disk before replacing old file.
+	 * Without sync saving is faster, but a system crash can lose last saved changes.
+	 * Default is true.
+	 * @param sync false to skip sync to disk
+	 */
+	public void setSyncOnSave(boolean sync) {
+		
+		syncOnSave = sync;
+		table.getBlobs().setSync(sync);
+	}
+	
+	
+	/**
+	 * @return true if saved preferences are forced to disk
+	 */
+	public boolean isSyncOnSave() {
+		
+		return syncOnSave;
+	}
+	
+	
+	/**
+	 * Enables hot reload: preferences file is watched for changes done by other programs, 
+	 * and changed values replace current values. Bursts of file changes are reloaded 
+	 * once, after delay milliseconds without changes, and only if file content really changed.
+	 * Changes not saved yet are kept. Preferences must be already opened.
+	 * @param delay milliseconds without file changes before reloading
+	 * @throws IOException if preferences file folder can't be watched
+	 */
+	public synchronized void enableHotReload(long delay) throws IOException {
+		
+		if (prefsFile == null || table.getStore() == null)
+			throw new IllegalStateException("Preferences must be opened before enabling hot reload");
+		if (watcher != null) {
+			watcher.stop();
+		}
+		watcher = new PrefsWatcher(new File(prefsFile).toPath(), delay, new Runnable() {
+			@Override
+			public void run() {
+				readPreferences(new File(prefsFile), true);
+			}
+		});
+	}
+	
+	
+	/**
+	 * Disables hot reload
+	 */
+	public synchronized void disableHotReload() {
+		
+		if (watcher != null) {
+			watcher.stop();
+			watcher = null;
+		}
+	}
+	
+	
+	/**
+	 * @return true if hot reload is enabled
+	 */
+	public synchronized boolean isHotReload() {
+		
+		return watcher != null;
+	}
+	
+	
+	/**
+	 * Enables write-behind saving: changes done with put methods or handles are saved 
+	 * to preferences file after a delay, coalescing all changes done in the meantime.
+	 * Pending changes are saved when autosave is disabled and on JVM shutdown. 
+	 * Preferences must be already opened.
+	 * @param delay milliseconds from first change to save
+	 */
+	public synchronized void enableAutoSave(long delay) {
+		
+		if (prefsFile == null || table.getStore() == null)
+			throw new IllegalStateException("Preferences must be opened before enabling autosave");
+		if (autoSave != null) {
+			if (autoSave.getDelay() == delay)
+				return;
+			autoSave.stop();
+		}
+		autoSave = new AutoSave(this, table, delay);
+	}
+	
+	
+	/**
+	 * Disables write-behind saving, saving pending changes
+	 */
+	public synchronized void disableAutoSave() {
+		
+		if (autoSave != null) {
+			autoSave.stop();
+			autoSave = null;
+		}
+	}
+	
+	
+	/**
+	 * @return true if write-behind saving is enabled
+	 */
+	public synchronized boolean isAutoSave() {
+		
+		return autoSave != null;
+	}
+	
+	
+	/**
+	 * Enables metrics: counts reads and writes, times loads and saves, and publishes 
+	 * them as platform MBean "bricksnspace.appsettings:type=SettingsStore,name=&lt;name&gt;".
+	 * Enable before openPreferences() to time first load too.
+	 * @param name name for MBean, unique among stores
+	 * @return metrics collected
+	 */
+	public synchronized SettingsMetrics enableMetrics(String name) {
+		
+		if (name == null || name.isEmpty())
+			throw new IllegalArgumentException("[SettingsStore] Invalid name for metrics");
+		disableMetrics();
+		SettingsMetrics m = new SettingsMetrics(table);
+		try {
+			ObjectName on = new ObjectName("bricksnspace.appsettings:type=SettingsStore,name="+ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(m, on);
+			metricsName = on;
+		} catch (JMException e) {
+			// metrics are still available with getMetrics()
+			Logger.getGlobal().log(Level.WARNING,"Unable to register settings metrics MBean", e);
+		}
+		metrics = m;
+		table.setMetrics(m);
+		return m;
+	}
+	
+	
+	/**
+	 * Disables metrics and removes MBean
+	 */
+	public synchronized void disableMetrics() {
+		
+		table.setMetrics(null);
+		metrics = null;
+		if (metricsName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+			} catch (JMException e) {
+				Logger.getGlobal().log(Level.WARNING,"Unable to unregister settings metrics MBean", e);
+			}
+			metricsName = null;
+		}
+	}
+	
+	
+	/**
+	 * @return metrics collected, or null if disabled
+	 */
+	public SettingsMetrics getMetrics() {
+		
+		return metrics;
+	}
+	
+	
+	/**
+	 * Reads a site-wide preferences file, in XML or binary format, as a layer below 
+	 * user preferences file: its values are used for preferences not set by user.
+	 * Preferences must be already opened.
+	 * @param f site preferences file, null to remove site layer
+	 * @throws IOException if file can't be read
+	 */
+	public void loadSiteFile(File f) throws IOException {
+		
+		Map<String,String> v = Collections.emptyMap();
+		if (f != null) {
+			if (appClass == null)
+				throw new IllegalStateException("Preferences must be opened before loading site file");
+			if (BinaryPrefs.isBinary(f)) {
+				// all values are read, check whole file
+				BinaryPrefs b = BinaryPrefs.open(f, true);
+				v = new HashMap<String,String>();
+				for (String k : b.keys()) {
+					v.put(k, b.get(k));
+				}
+			}
+			else {
+				try (InputStream is = new BufferedInputStream(new FileInputStream(f))) {
+					v = PrefsXml.read(is, MemoryBackend.pathForPackage(appClass));
+				} catch (InvalidPreferencesFormatException e) {
+					throw new IOException("Invalid preferences file "+f.getPath(), e);
+				}
+			}
+		}
+		synchronized (layersLock) {
+			siteValues = v;
+			rebuildLayers();
+		}
+	}
+	
+	
+	/**
+	 * Uses environment variables as a layer above user preferences file.
+	 * A variable named prefix + preference name, in uppercase and with "_" for every 
+	 * char that isn't a letter or digit, overrides preference: with prefix "MYAPP_", 
+	 * MYAPP_NET_PROXY overrides "net.proxy".
+	 * @param prefix variable names prefix, null to remove environment layer
+	 */
+	public void useEnvironment(String prefix) {
+		
+		synchronized (layersLock) {
+			envPrefix = prefix;
+			rebuildLayers();
+		}
+	}
+	
+	
+	/**
+	 * Uses Java system properties as a layer above environment variables.
+	 * A property named prefix + preference name overrides preference: with prefix "myapp.",
+	 * -Dmyapp.width=800 overrides "width".
+	 * @param prefix property names prefix, null to remove system properties layer
+	 */
+	public void useSystemProperties(String prefix) {
+		
+		synchronized (layersLock) {
+			sysPrefix = prefix;
+			rebuildLayers();
+		}
+	}
+	
+	
+	/**
+	 * Uses command line arguments "--name=value" as top layer, overriding any other value
+	 * @param args command line arguments
+	 * @return arguments not used as preferences, in same order
+	 */
+	public List<String> setCommandLine(String... args) {
+		
+		Map<String,String> v = new HashMap<String,String>();
+		List<String> others = new ArrayList<String>();
+		for (String a : args) {
+			int eq = a.indexOf('=');
+			if (a.startsWith("--") && eq > 2) {
+				v.put(a.substring(2, eq), a.substring(eq + 1));
+			}
+			else {
+				others.add(a);
+			}
+		}
+		synchronized (layersLock) {
+			cmdLine = v;
+			rebuildLayers();
+		}
+		return others;
+	}
+	
+	
+	/**
+	 * Reads again environment variables and system properties
+	 */
+	public void refreshLayers() {
+		
+		synchronized (layersLock) {
+			rebuildLayers();
+		}
+	}
+	
+	
+	/**
+	 * Finds where current value of a preference comes from
+	 * @param key preference name
+	 * @return one of AppSettings.LAYER_* constants, LAYER_NONE if preference has no value nor default
+	 */
+	public int getSource(String key) {
+		
+		return table.getSource(table.slot(key));
+	}
+	
+	
+	/**
+	 * Merges layers and publishes them to table. Must be called holding layersLock
+	 */
+	private void rebuildLayers() {
+		
+		Map<String,String> over = new HashMap<String,String>();
+		Map<String,Integer> source = new HashMap<String,Integer>();
+		if (sysPrefix != null) {
+			for (String p : System.getProperties().stringPropertyNames()) {
+				if (p.startsWith(sysPrefix) && p.length() > sysPrefix.length()) {
+					String k = p.substring(sysPrefix.length());
+					over.put(k, System.getProperty(p));
+					source.put(k, AppSettings.LAYER_SYSTEM);
+				}
+			}
+		}
+		for (Map.Entry<String,String> e : cmdLine.entrySet()) {
+			over.put(e.getKey(), e.getValue());
+			source.put(e.getKey(), AppSettings.LAYER_COMMAND_LINE);
+		}
+		Map<String,String> env = Collections.emptyMap();
+		if (envPrefix != null) {
+			env = new HashMap<String,String>();
+			for (Map.Entry<String,String> e : System.getenv().entrySet()) {
+				String n = e.getKey();
+				if (n.startsWith(envPrefix) && n.length() > envPrefix.length()) {
+					env.put(n.substring(envPrefix.length()), e.getValue());
+				}
+			}
+		}
+		table.setLayers(new PrefTable.Layers(over, source, env, siteValues));
+	}
+	
+	
+	/**
+	 * @return true if there are changes not saved to preferences file
+	 */
+	public boolean isModified() {
+		
+		return table.isDirty();
+	}
+	
+	
+	/**
+	 * Save a preference of type STRING, FILE or FOLDER
+	 * @param key preference name to save
+	 * @param value
+	 */
+	public void put(String key, String value) {
+		table.putString(table.slot(key), value);
+	}
+	
+	
+	/**
+	 * Save a preference of type BOOLEAN
+	 * @param key preference name to save
+	 * @param value
+	 */
+	public void putBool(String key, boolean value) {
+		table.putBool(table.slot(key), value);
+	}
+	
+	
+	/**
+	 * Save a preference of type INTEGER
+	 * @param key preference name to save
+	 * @param value
+	 */
+	public void putInt(String key, int value) {
+		table.putInt(table.slot(key), value);
+	}
+	
+	
+	/**
+	 * Save a preference of type FLOAT
+	 * @param key preference name to save
+	 * @param value
+	 */
+	public void putFloat(String key, float value) {
+		table.putFloat(table.slot(key), value);
+	}
+	
+	
+	/**
+	 * Define a default for type STRING, FILE or FOLDER
+	 * @param key preference name to read
+	 * @param def default value if "key" is not present
+	 */
+	public void defString(String key, String def) {
+		table.defString(table.slot(key), def);
+	}
+	
+
+	/**
+	 * Read a preference of type STRING, FILE or FOLDER
+	 * @param key preference name to read
+	 * @return value for preference or default if defined or empty string if preference is not defined
+	 */
+	public String get(String key) {
+		return table.getString(table.slot(key));
+	}
+	
+
+	/**
+	 * Read a preference of type BOOLEAN
+	 * @param key preference name to read
+	 * @return value for preference or default if defined or false if preference is not defined
+	 */
+	public boolean getBool(String key) {
+		return table.getBool(table.slot(key));
+	}
+
+	
+	/**
+	 * Define a default for type BOOLEAN
+	 * @param key preference name to read
+	 * @param def default value if "key" is not present
+	 */
+	public void defBool(String key, boolean def) {
+		table.defBool(table.slot(key), def);
+	}
+	
+
+	/**
+	 * Read a preference of type INTEGER
+	 * @param key preference name to read
+	 * @return value for preference or default if defined or zero if preference is not defined
+	 */
+	public int getInt(String key) {
+		return table.getInt(table.slot(key));
+	}
+	
+	
+	/**
+	 * Define a default for type INTEGER
+	 * @param key preference name to read
+	 * @param def default value if "key" is not present
+	 */
+	public void defInt(String key, int def) {
+		table.defInt(table.slot(key), def);
+	}
+	
+
+	/**
+	 * Read a preference of type FLOAT
+	 * @param key preference name to read
+	 * @return value for preference or zero if preference is not defined
+	 */
+	public float getFloat(String key) {
+		return table.getFloat(table.slot(key));
+	}
+	
+
+	/**
+	 * Define a default for type FLOAT
+	 * @param key preference name to read
+	 * @param def default value if "key" is not present
+	 */
+	public void defFloat(String key, float def) {
+		table.defFloat(table.slot(key), def);
+	}
+	
+
+	
+	/**
+	 * Adds a listener for changes to a preference. 
+	 * Changes are delivered on executor, coalesced by key (see SettingsListener)
+	 * @param key preference name
+	 * @param l listener
+	 * @param executor executor for listener calls, i.e. one using SwingUtilities.invokeLater() for Swing components
+	 */
+	public void addSettingsListener(String key, SettingsListener l, Executor executor) {
+		
+		table.getDispatcher().add(l, executor, Collections.singleton(key));
+	}
+	
+
+	/**
+	 * Adds a listener for changes to a set of preferences
+	 * @param keys preferences names
+	 * @param l listener
+	 * @param executor executor for listener calls
+	 */
+	public void addSettingsListener(Collection<String> keys, SettingsListener l, Executor executor) {
+		
+		table.getDispatcher().add(l, executor, keys);
+	}
+	
+
+	/**
+	 * Adds a listener for changes to all preferences with name starting with a prefix
+	 * @param prefix preferences name prefix, empty string for all preferences
+	 * @param l listener
+	 * @param executor executor for listener calls
+	 */
+	public void addPrefixListener(String prefix, SettingsListener l, Executor executor) {
+		
+		table.getDispatcher().add(l, executor, prefix);
+	}
+	
+	
+	/**
+	 * Removes a listener from all preferences it was added to
+	 * @param l listener to remove
+	 */
+	public void removeSettingsListener(SettingsListener l) {
+		
+		table.getDispatcher().remove(l);
+	}
+	
+
+}
@@ -0,0 +1,336 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.InvalidPreferencesFormatException;
+
+/**
+ * Preferences backend shared by all processes using same preferences file
+ * 
+ * Values live in a memory mapped file next to preferences file (see {@link SharedRegion}), 
+ * so a value written by a process is read by others without reading preferences file again. 
+ * Shared file is polled for changes done by other processes, and only changed keys 
+ * are notified to listener. 
+ * 
+ * @author Mario Pascucci
+ *
+ */
+class SharedBackend implements SettingsBackend, Runnable {
+	
+	// milliseconds between checks for changes done by other processes
+	static final long POLL_INTERVAL = 100;
+	
+	private static ScheduledExecutorService poller = null;
+	
+	private final SharedRegion region;
+	private final File file;
+	private final String path;
+	// sequence numbers of own changes, not notified to listener
+	private final Set<Long> own = Collections.newSetFromMap(new ConcurrentHashMap<Long,Boolean>());
+	private volatile Listener listener = null;
+	// last sequence number seen, guarded by this
+	private volatile long seen;
+	private ScheduledFuture<?> polling = null;
+	
+	
+	/**
+	 * @param file shared file
+	 * @param path absolute path of equivalent Preferences node, used in XML files
+	 * @throws IOException if shared file can't be opened
+	 */
+	SharedBackend(File file, String path) throws IOException {
+		
+		region = SharedRegion.attach(file);
+		this.file = file;
+		this.path = path;
+	}
+	
+	
+	/**
+	 * @param prefsFile preferences file
+	 * @return shared file for a preferences file
+	 */
+	static File fileFor(File prefsFile) {
+		
+		return new File(prefsFile.getPath() + ".shared");
+	}
+	
+	
+	/**
+	 * @return true if backend uses this shared file
+	 */
+	boolean isFile(File f) {
+		return file.equals(f);
+	}
+	
+	
+	/**
+	 * Starts filling shared file from preferences file, waiting if another thread 
+	 * or process is filling it
+	 * @return true if shared file is empty, and caller must fill it and call endFill()
+	 */
+	boolean startFill() {
+		
+		try {
+			return region.startFill();
+		} catch (IOException e) {
+			throw new IllegalStateException("[SharedBackend] Shared settings read error", e);
+		}
+	}
+	
+	
+	/**
+	 * Ends filling shared file, other processes can use values
+	 */
+	void endFill() {
+		
+		try {
+			region.endFill();
+		} catch (IOException e) {
+			throw new IllegalStateException("[SharedBackend] Shared settings write error", e);
+		}
+	}
+	
+	
+	/**
+	 * Replaces all values in shared file at once
+	 * @param values new values
+	 */
+	void replaceAll(Map<String,String> values) {
+		
+		List<Long> seqs = new ArrayList<Long>();
+		try {
+			synchronized (this) {
+				region.replace(values, seqs);
+				for (long seq : seqs) {
+					changed(seq);
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("[SharedBackend] Shared settings write error", e);
+		}
+	}
+	
+	
+	@Override
+	public String get(String key) {
+		
+		try {
+			return region.get(key);
+		} catch (IOException e) {
+			throw new IllegalStateException("[SharedBackend] Shared settings read error", e);
+		}
+	}
+	
+	
+	@Override
+	public void put(String key, String value) {
+		
+		if (key == null || value == null)
+			throw new NullPointerException();
+		try {
+			synchronized (this) {
+				changed(region.put(key, value));
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("[SharedBackend] Shared settings write error", e);
+		}
+	}
+	
+	
+	@Override
+	public void remove(String key) {
+		
+		try {
+			synchronized (this) {
+				changed(region.remove(key));
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("[SharedBackend] Shared settings write error", e);
+		}
+	}
+	
+	
+	private void changed(long seq) {
+		
+		if (seq != 0 && listener != null) {
+			own.add(seq);
+		}
+	}
+	
+	
+	@Override
+	public String[] keys() throws BackingStoreException {
+		
+		try {
+			return region.values().keySet().toArray(new String[0]);
+		} catch (IOException e) {
+			throw new BackingStoreException(e);
+		}
+	}
+	
+	
+	@Override
+	public int size() throws BackingStoreException {
+		
+		try {
+			return region.size();
+		} catch (IOException e) {
+			throw new BackingStoreException(e);
+		}
+	}
+	
+	
+	@Override
+	public void clear() throws BackingStoreException {
+		
+		List<Long> seqs = new ArrayList<Long>();
+		try {
+			synchronized (this) {
+				region.clear(seqs);
+				for (long seq : seqs) {
+					changed(seq);
+				}
+			}
+		} catch (IOException e) {
+			throw new BackingStoreException(e);
+		}
+	}
+	
+	
+	@Override
+	public void importXml(InputStream is) throws IOException, InvalidPreferencesFormatException {
+		
+		for (Map.Entry<String,String> e : PrefsXml.read(is, path).entrySet()) {
+			put(e.getKey(), e.getValue());
+		}
+	}
+	
+	
+	@Override
+	public void exportXml(OutputStream os) throws IOException {
+		
+		PrefsXml.write(os, path, region.values());
+	}
+	
+	
+	@Override
+	public synchronized void setListener(Listener l) {
+		
+		listener = l;
+		if (l != null && polling == null) {
+			seen = region.seq();
+			polling = getPoller().scheduleWithFixedDelay(this, POLL_INTERVAL, POLL_INTERVAL, TimeUnit.MILLISECONDS);
+		}
+		else if (l == null && polling != null) {
+			polling.cancel(false);
+			polling = null;
+			own.clear();
+		}
+	}
+	
+	
+	@Override
+	public void close() {
+		
+		setListener(null);
+		region.detach();
+	}
+	
+	
+	/**
+	 * Notifies changes done by other processes
+	 */
+	@Override
+	public void run() {
+		
+		Listener l = listener;
+		if (l == null || region.seq() == seen)
+			return;
+		List<String> keys = new ArrayList<String>();
+		synchronized (this) {
+			// own changes are marked while holding this lock
+			Map<String,Long> changes = new HashMap<String,Long>();
+			long seq;
+			try {
+				seq = region.changes(seen, changes);
+			} catch (IOException e) {
+				Logger.getGlobal().log(Level.WARNING,"Shared settings read error", e);
+				return;
+			}
+			seen = seq;
+			for (Map.Entry<String,Long> e : changes.entrySet()) {
+				if (!own.remove(e.getValue())) {
+					keys.add(e.getKey());
+				}
+			}
+			// own changes overwritten by other processes
+			for (Iterator<Long> it = own.iterator(); it.hasNext(); ) {
+				if (it.next() <= seq) {
+					it.remove();
+				}
+			}
+		}
+		for (String k : keys) {
+			try {
+				l.changed(k);
+			} catch (RuntimeException e) {
+				Logger.getGlobal().log(Level.SEVERE,"Shared settings change error", e);
+			}
+		}
+	}
+	
+	
+	private static synchronized ScheduledExecutorService getPoller() {
+		
+		if (poller == null) {
+			poller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "AppSettings-shared");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return poller;
+	}
+
+}
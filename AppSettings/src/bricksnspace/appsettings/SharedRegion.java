@@ -0,0 +1,758 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Preferences values in a memory mapped file, shared by all processes using same file
+ * 
+ * File starts with a header, pointing to an area with a table of fixed size slots, one for 
+ * every key, and a heap with keys and values in UTF-8. A changed value is appended to heap 
+ * and its slot updated in place, writing position and length at once. When heap or slots 
+ * are full, a bigger area is built where it doesn't overlap current one, and header points 
+ * to it only when complete, so a process that dies while writing never leaves a partial change. 
+ * Slots keep their numbers in new area. File never shrinks while shared, as other processes 
+ * may have it mapped. Positions and lengths are checked before reading, so a damaged file 
+ * is reported as an IOException.
+ * 
+ * Every change increments a sequence counter in header, and stores new counter value in 
+ * changed slot, so a process that saw counter value n finds changed keys looking for slots 
+ * with a sequence greater than n.
+ * 
+ * Accesses are serialized by a lock on first byte of file: shared for reads, exclusive 
+ * for writes. Every attached process holds a shared lock on second byte, so first process 
+ * that attaches finds it unlocked and initializes file, discarding stale content.
+ * Initialized file is filled with values from preferences file by a process holding 
+ * a lock on third byte, that sets a flag in header when done: processes that attach 
+ * before wait on that lock, and fill file themselves if flag isn't set when they get it.
+ * Locks are released by OS if a process dies.
+ * 
+ * A JVM maps a file only once, file locks are owned by whole JVM. 
+ * 
+ * @author Mario Pascucci
+ *
+ */
+class SharedRegion {
+	
+	static final int MAGIC = 0x41535331;		// "ASS1"
+	private static final int FORMAT = 2;
+	
+	// header fields
+	private static final int H_MAGIC = 0;
+	private static final int H_FORMAT = 4;
+	private static final int H_SEQ = 8;
+	private static final int H_GEN = 16;
+	private static final int H_AREA = 24;
+	private static final int H_SIZE = 28;
+	private static final int H_FILLED = 32;
+	private static final int HEADER_SIZE = 64;
+	
+	// area fields
+	private static final int A_CAPACITY = 0;
+	private static final int A_USED = 4;
+	private static final int A_TOP = 8;
+	private static final int A_END = 12;
+	private static final int AREA_HEADER = 16;
+	
+	// slot fields, lengths follow positions so both are written at once
+	private static final int S_KEY = 0;
+	private static final int S_KEYLEN = 4;
+	private static final int S_VALUE = 8;
+	private static final int S_VALUELEN = 12;
+	private static final int S_SEQ = 16;
+	private static final int SLOT_SIZE = 24;
+	private static final int REMOVED = -1;
+	
+	// lock ranges
+	private static final long MUTEX = 0;
+	private static final long LIVE = 1;
+	private static final long FILL = 2;
+	
+	private static final int INITIAL_SLOTS = 64;
+	private static final int INITIAL_HEAP = 16*1024;
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	// regions mapped by this JVM, by canonical path
+	private static final Map<String,SharedRegion> regions = new HashMap<String,SharedRegion>();
+	
+	private final String name;
+	private final FileChannel channel;
+	private final FileLock live;
+	private MappedByteBuffer map;
+	private int mapped;
+	// position of current area
+	private int area;
+	// local index of slots, rebuilt when generation changes
+	private final Map<String,Integer> index = new HashMap<String,Integer>();
+	private long generation = -1;
+	private int indexed = 0;
+	// lock held while this process fills region, null if region is filled
+	private FileLock fill = null;
+	private boolean filling = false;
+	private int refs = 0;
+	
+	
+	/**
+	 * Maps a shared file, creating it if needed
+	 * @param f shared file
+	 * @return region for file
+	 * @throws IOException if file can't be opened or locked
+	 */
+	static SharedRegion attach(File f) throws IOException {
+		
+		synchronized (regions) {
+			String k = f.getCanonicalPath();
+			SharedRegion r = regions.get(k);
+			if (r == null) {
+				r = new SharedRegion(k);
+				regions.put(k, r);
+			}
+			r.refs++;
+			return r;
+		}
+	}
+	
+	
+	private SharedRegion(String name) throws IOException {
+		
+		this.name = name;
+		channel = FileChannel.open(new File(name).toPath(), StandardOpenOption.CREATE, 
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		FileLock m = null;
+		FileLock l = null;
+		try {
+			m = channel.lock(MUTEX, 1, false);
+			FileLock probe = channel.tryLock(LIVE, 1, false);
+			boolean alone = probe != null;
+			if (probe != null) {
+				probe.release();
+			}
+			l = channel.lock(LIVE, 1, true);
+			if (alone || !isValid()) {
+				// nobody is using content
+				init();
+			}
+			else {
+				remap(readSize());
+			}
+			boolean filled = map.getInt(H_FILLED) != 0;
+			m.release();
+			if (!filled) {
+				waitFilled();
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+		finally {
+			if (m != null && m.isValid()) {
+				m.release();
+			}
+		}
+		live = l;
+	}
+	
+	
+	/**
+	 * Releases region, unmapping it when last user detaches
+	 */
+	void detach() {
+		
+		synchronized (regions) {
+			if (--refs > 0)
+				return;
+			regions.remove(name);
+			try {
+				live.release();
+				channel.close();
+			} catch (IOException e) {
+				Logger.getGlobal().log(Level.WARNING,"Shared settings close error", e);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Waits for region to be filled by another process, or takes fill lock 
+	 * if region is still empty
+	 */
+	private void waitFilled() throws IOException {
+		
+		FileLock f = channel.lock(FILL, 1, false);
+		boolean filled;
+		FileLock m = channel.lock(MUTEX, 1, true);
+		try {
+			filled = map.getInt(H_FILLED) != 0;
+		}
+		finally {
+			m.release();
+		}
+		if (filled) {
+			f.release();
+		}
+		else {
+			// region just initialized, or process filling it died
+			fill = f;
+		}
+	}
+	
+	
+	/**
+	 * Starts filling region with values from preferences file, if still empty.
+	 * Waits if another thread is filling region.
+	 * @return true if caller must fill region, and then call endFill()
+	 */
+	synchronized boolean startFill() throws IOException {
+		
+		try {
+			while (filling) {
+				wait();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("[SharedRegion] Interrupted waiting for shared settings");
+		}
+		if (fill == null)
+			return false;
+		filling = true;
+		return true;
+	}
+	
+	
+	/**
+	 * Marks region as filled, so processes waiting for it can use values
+	 */
+	synchronized void endFill() throws IOException {
+		
+		try {
+			FileLock l = channel.lock(MUTEX, 1, false);
+			try {
+				map.putInt(H_FILLED, 1);
+			}
+			finally {
+				l.release();
+			}
+		}
+		finally {
+			fill.release();
+			fill = null;
+			filling = false;
+			notifyAll();
+		}
+	}
+	
+	
+	/**
+	 * @return current sequence counter, read without locking
+	 */
+	synchronized long seq() {
+		
+		return map.getLong(H_SEQ);
+	}
+	
+	
+	/**
+	 * @return value for key, or null
+	 */
+	synchronized String get(String key) throws IOException {
+		
+		FileLock l = channel.lock(MUTEX, 1, true);
+		try {
+			sync();
+			Integer s = index.get(key);
+			if (s == null)
+				return null;
+			int p = slotPos(s);
+			int len = map.getInt(p + S_VALUELEN);
+			if (len == REMOVED)
+				return null;
+			return readString(map.getInt(p + S_VALUE), len);
+		}
+		finally {
+			l.release();
+		}
+	}
+	
+	
+	/**
+	 * Stores a value
+	 * @return sequence number for change, 0 if value is unchanged
+	 */
+	synchronized long put(String key, String value) throws IOException {
+		
+		FileLock l = channel.lock(MUTEX, 1, false);
+		try {
+			sync();
+			return store(key, value);
+		}
+		finally {
+			l.release();
+		}
+	}
+	
+	
+	/**
+	 * Stores a value, holding file lock
+	 * @return sequence number for change, 0 if value is unchanged
+	 */
+	private long store(String key, String value) throws IOException {
+		
+		byte[] v = value.getBytes(UTF8);
+		Integer s = index.get(key);
+		if (s != null) {
+			int p = slotPos(s);
+			int len = map.getInt(p + S_VALUELEN);
+			if (len == v.length && Arrays.equals(v, readBytes(map.getInt(p + S_VALUE), len)))
+				return 0;
+		}
+		byte[] k = s == null ? key.getBytes(UTF8) : new byte[0];
+		int need = v.length + k.length;
+		if ((s == null && map.getInt(area + A_USED) == map.getInt(area + A_CAPACITY)) 
+				|| (long) map.getInt(area + A_TOP) + need > map.getInt(area + A_END)) {
+			grow(s == null ? 1 : 0, need);
+		}
+		if (s == null) {
+			s = map.getInt(area + A_USED);
+			int p = slotPos(s);
+			putRef(p + S_KEY, append(k), k.length);
+			putRef(p + S_VALUE, append(v), v.length);
+			long seq = map.getLong(H_SEQ) + 1;
+			map.putLong(p + S_SEQ, seq);
+			// slot is complete before it is counted
+			map.putInt(area + A_USED, s + 1);
+			map.putLong(H_SEQ, seq);
+			index.put(key, s);
+			indexed = s + 1;
+			return seq;
+		}
+		int p = slotPos(s);
+		putRef(p + S_VALUE, append(v), v.length);
+		return touch(p);
+	}
+	
+	
+	/**
+	 * Removes a value
+	 * @return sequence number for change, 0 if key has no value
+	 */
+	synchronized long remove(String key) throws IOException {
+		
+		FileLock l = channel.lock(MUTEX, 1, false);
+		try {
+			sync();
+			Integer s = index.get(key);
+			if (s == null)
+				return 0;
+			int p = slotPos(s);
+			if (map.getInt(p + S_VALUELEN) == REMOVED)
+				return 0;
+			map.putInt(p + S_VALUELEN, REMOVED);
+			return touch(p);
+		}
+		finally {
+			l.release();
+		}
+	}
+	
+	
+	/**
+	 * Replaces all values at once, so other processes never see a partial change
+	 * @param values new values
+	 * @param seqs filled with sequence numbers of changes
+	 */
+	synchronized void replace(Map<String,String> values, Collection<Long> seqs) throws IOException {
+		
+		FileLock l = channel.lock(MUTEX, 1, false);
+		try {
+			sync();
+			int used = map.getInt(area + A_USED);
+			for (int s = 0; s < used; s++) {
+				int p = slotPos(s);
+				if (map.getInt(p + S_VALUELEN) != REMOVED 
+						&& !values.containsKey(readString(map.getInt(p + S_KEY), map.getInt(p + S_KEYLEN)))) {
+					map.putInt(p + S_VALUELEN, REMOVED);
+					seqs.add(touch(p));
+				}
+			}
+			for (Map.Entry<String,String> e : values.entrySet()) {
+				long seq = store(e.getKey(), e.getValue());
+				if (seq != 0) {
+					seqs.add(seq);
+				}
+			}
+		}
+		finally {
+			l.release();
+		}
+	}
+	
+	
+	/**
+	 * Removes all values
+	 * @param seqs filled with sequence numbers of changes
+	 */
+	synchronized void clear(Collection<Long> seqs) throws IOException {
+		
+		FileLock l = channel.lock(MUTEX, 1, false);
+		try {
+			sync();
+			int used = map.getInt(area + A_USED);
+			for (int s = 0; s < used; s++) {
+				int p = slotPos(s);
+				if (map.getInt(p + S_VALUELEN) != REMOVED) {
+					map.putInt(p + S_VALUELEN, REMOVED);
+					seqs.add(touch(p));
+				}
+			}
+		}
+		finally {
+			l.release();
+		}
+	}
+	
+	
+	/**
+	 * @return number of keys with a value
+	 */
+	synchronized int size() throws IOException {
+		
+		FileLock l = channel.lock(MUTEX, 1, true);
+		try {
+			sync();
+			int n = 0;
+			int used = map.getInt(area + A_USED);
+			for (int s = 0; s < used; s++) {
+				if (map.getInt(slotPos(s) + S_VALUELEN) != REMOVED) {
+					n++;
+				}
+			}
+			return n;
+		}
+		finally {
+			l.release();
+		}
+	}
+	
+	
+	/**
+	 * @return all keys with a value, and their values
+	 */
+	synchronized Map<String,String> values() throws IOException {
+		
+		FileLock l = channel.lock(MUTEX, 1, true);
+		try {
+			sync();
+			Map<String,String> v = new LinkedHashMap<String,String>();
+			int used = map.getInt(area + A_USED);
+			for (int s = 0; s < used; s++) {
+				int p = slotPos(s);
+				int len = map.getInt(p + S_VALUELEN);
+				if (len != REMOVED) {
+					v.put(readString(map.getInt(p + S_KEY), map.getInt(p + S_KEYLEN)), 
+							readString(map.getInt(p + S_VALUE), len));
+				}
+			}
+			return v;
+		}
+		finally {
+			l.release();
+		}
+	}
+	
+	
+	/**
+	 * Finds keys changed after a sequence number
+	 * @param since last sequence number seen
+	 * @param changes filled with changed keys and their sequence number
+	 * @return current sequence number
+	 */
+	synchronized long changes(long since, Map<String,Long> changes) throws IOException {
+		
+		FileLock l = channel.lock(MUTEX, 1, true);
+		try {
+			sync();
+			int used = map.getInt(area + A_USED);
+			for (int s = 0; s < used; s++) {
+				int p = slotPos(s);
+				long seq = map.getLong(p + S_SEQ);
+				if (seq > since) {
+					changes.put(readString(map.getInt(p + S_KEY), map.getInt(p + S_KEYLEN)), seq);
+				}
+			}
+			return map.getLong(H_SEQ);
+		}
+		finally {
+			l.release();
+		}
+	}
+	
+	
+	/////////////////
+	// layout, called holding file lock
+	/////////////////
+	
+	
+	private int slotPos(int slot) {
+		return slotPos(area, slot);
+	}
+	
+	
+	private static int slotPos(int area, int slot) {
+		return area + AREA_HEADER + slot * SLOT_SIZE;
+	}
+	
+	
+	/**
+	 * Writes position and length of bytes in a slot with a single store
+	 */
+	private void putRef(int p, int pos, int len) {
+		map.putLong(p, (long) pos << 32 | (len & 0xffffffffL));
+	}
+	
+	
+	/**
+	 * Increments sequence counter, storing it in a slot
+	 */
+	private long touch(int p) {
+		
+		long seq = map.getLong(H_SEQ) + 1;
+		map.putLong(p + S_SEQ, seq);
+		map.putLong(H_SEQ, seq);
+		return seq;
+	}
+	
+	
+	/**
+	 * Appends bytes to heap
+	 * @return position of bytes
+	 */
+	private int append(byte[] b) {
+		
+		int top = map.getInt(area + A_TOP);
+		map.position(top);
+		map.put(b);
+		map.putInt(area + A_TOP, top + b.length);
+		return top;
+	}
+	
+	
+	/**
+	 * Reads bytes from heap of current area
+	 * @throws IOException if bytes are outside heap
+	 */
+	private byte[] readBytes(int pos, int len) throws IOException {
+		
+		if (len < 0 || pos < slotPos(map.getInt(area + A_CAPACITY)) 
+				|| (long) pos + len > map.getInt(area + A_TOP))
+			throw damaged();
+		byte[] b = new byte[len];
+		ByteBuffer d = map.duplicate();
+		d.position(pos);
+		d.get(b);
+		return b;
+	}
+	
+	
+	private String readString(int pos, int len) throws IOException {
+		return new String(readBytes(pos, len), UTF8);
+	}
+	
+	
+	private IOException damaged() {
+		return new IOException("[SharedRegion] Shared settings file damaged: " + name);
+	}
+	
+	
+	private boolean isValid() throws IOException {
+		
+		if (channel.size() < HEADER_SIZE)
+			return false;
+		remap(HEADER_SIZE);
+		return map.getInt(H_MAGIC) == MAGIC && map.getInt(H_FORMAT) == FORMAT 
+				&& map.getInt(H_SIZE) >= HEADER_SIZE && map.getInt(H_SIZE) <= channel.size();
+	}
+	
+	
+	private int readSize() {
+		return map.getInt(H_SIZE);
+	}
+	
+	
+	private void remap(int size) throws IOException {
+		
+		map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		mapped = size;
+	}
+	
+	
+	/**
+	 * Initializes an empty region. Called only when no other process uses file
+	 */
+	private void init() throws IOException {
+		
+		long gen = 0;
+		if (channel.size() >= HEADER_SIZE) {
+			remap(HEADER_SIZE);
+			gen = map.getLong(H_GEN);
+		}
+		// old content past header is overwritten as needed
+		int size = (int) Math.min(Integer.MAX_VALUE, 
+				Math.max(slotPos(HEADER_SIZE, INITIAL_SLOTS) + INITIAL_HEAP, channel.size()));
+		remap(size);
+		map.putInt(H_MAGIC, MAGIC);
+		map.putInt(H_FORMAT, FORMAT);
+		map.putLong(H_SEQ, 0);
+		map.putLong(H_GEN, gen + 1);
+		map.putInt(HEADER_SIZE + A_CAPACITY, INITIAL_SLOTS);
+		map.putInt(HEADER_SIZE + A_USED, 0);
+		map.putInt(HEADER_SIZE + A_TOP, slotPos(HEADER_SIZE, INITIAL_SLOTS));
+		map.putInt(HEADER_SIZE + A_END, size);
+		map.putInt(H_AREA, HEADER_SIZE);
+		map.putInt(H_SIZE, size);
+		map.putInt(H_FILLED, 0);
+	}
+	
+	
+	/**
+	 * Follows changes done by other processes to layout, and indexes new slots
+	 * @throws IOException if header or area are damaged
+	 */
+	private void sync() throws IOException {
+		
+		int size = map.getInt(H_SIZE);
+		if (size != mapped) {
+			if (size < HEADER_SIZE || size > channel.size())
+				throw damaged();
+			remap(size);
+		}
+		int a = map.getInt(H_AREA);
+		if (a < HEADER_SIZE || a > mapped - AREA_HEADER)
+			throw damaged();
+		int capacity = map.getInt(a + A_CAPACITY);
+		int used = map.getInt(a + A_USED);
+		int top = map.getInt(a + A_TOP);
+		int end = map.getInt(a + A_END);
+		if (capacity < 0 || used < 0 || used > capacity || end > mapped 
+				|| top > end || a + AREA_HEADER + (long) capacity * SLOT_SIZE > top)
+			throw damaged();
+		area = a;
+		long gen = map.getLong(H_GEN);
+		if (gen != generation) {
+			index.clear();
+			indexed = 0;
+			generation = gen;
+		}
+		for (; indexed < used; indexed++) {
+			int p = slotPos(indexed);
+			index.put(readString(map.getInt(p + S_KEY), map.getInt(p + S_KEYLEN)), indexed);
+		}
+	}
+	
+	
+	/**
+	 * Copies live keys and values to a new area with room for more slots and bytes, 
+	 * then points header to it. New area is placed before current one if there is room, 
+	 * else after it, so current area stays valid until new one is complete.
+	 * Removed keys are kept, so other processes see their sequence numbers.
+	 */
+	private void grow(int slots, int bytes) throws IOException {
+		
+		int used = map.getInt(area + A_USED);
+		int capacity = map.getInt(area + A_CAPACITY);
+		long live = 0;
+		for (int s = 0; s < used; s++) {
+			int p = slotPos(s);
+			live += map.getInt(p + S_KEYLEN);
+			int len = map.getInt(p + S_VALUELEN);
+			if (len != REMOVED) {
+				live += len;
+			}
+		}
+		while (used + slots > capacity) {
+			capacity *= 2;
+		}
+		long length = slotPos(0, capacity) + Math.max(INITIAL_HEAP, (live + bytes) * 2);
+		long start = HEADER_SIZE + length <= area ? HEADER_SIZE : map.getInt(area + A_END);
+		long size = Math.max(start + length, mapped);
+		if (size > Integer.MAX_VALUE)
+			throw new IOException("[SharedRegion] Shared settings too big");
+		if (size != mapped) {
+			remap((int) size);
+		}
+		int a = (int) start;
+		int top = slotPos(a, capacity);
+		for (int s = 0; s < used; s++) {
+			int p = slotPos(s);
+			int q = slotPos(a, s);
+			top = copy(p + S_KEY, q + S_KEY, top);
+			if (map.getInt(p + S_VALUELEN) != REMOVED) {
+				top = copy(p + S_VALUE, q + S_VALUE, top);
+			}
+			else {
+				map.putLong(q + S_VALUE, REMOVED);
+			}
+			map.putLong(q + S_SEQ, map.getLong(p + S_SEQ));
+		}
+		map.putInt(a + A_CAPACITY, capacity);
+		map.putInt(a + A_USED, used);
+		map.putInt(a + A_TOP, top);
+		map.putInt(a + A_END, (int) (start + length));
+		// switch to new area, size first so others map it
+		map.putInt(H_SIZE, (int) size);
+		map.putInt(H_AREA, a);
+		area = a;
+	}
+	
+	
+	/**
+	 * Copies bytes referenced by a slot of current area to a new area
+	 * @param from reference in current area
+	 * @param to reference in new area
+	 * @param top first free position in new area
+	 * @return new first free position
+	 */
+	private int copy(int from, int to, int top) throws IOException {
+		
+		byte[] b = readBytes(map.getInt(from), map.getInt(from + 4));
+		map.position(top);
+		map.put(b);
+		putRef(to, top, b.length);
+		return top + b.length;
+	}
+
+}
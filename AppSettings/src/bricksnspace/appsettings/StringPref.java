@@ -0,0 +1,64 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+/**
+ * Typed handle for a preference of type STRING, FILE or FOLDER
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public final class StringPref extends AppPref {
+	
+	
+	StringPref(PrefTable table, int slot) {
+		super(table, slot);
+	}
+	
+	
+	/**
+	 * Read preference value
+	 * @return value for preference or default if preference is not set
+	 */
+	public String get() {
+		return table.getString(slot);
+	}
+	
+	
+	/**
+	 * Save preference value
+	 * @param value
+	 */
+	public void set(String value) {
+		table.putString(slot, value);
+	}
+	
+	
+	/**
+	 * Define a default for preference
+	 * @param def default value if preference is not set
+	 * @return this handle
+	 */
+	public StringPref setDefault(String def) {
+		table.defString(slot, def);
+		return this;
+	}
+	
+}
@@ -0,0 +1,72 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+/**
+ * A started event for an operation, see {@link Tracer}
+ * 
+ * Fields not meaningful for an operation are ignored.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public interface TraceEvent {
+	
+	/**
+	 * @param path file read or written
+	 */
+	void setPath(String path);
+	
+	/**
+	 * @param bytes bytes read or written
+	 */
+	void setBytes(long bytes);
+	
+	/**
+	 * @param keys number of preferences read or written
+	 */
+	void setKeys(int keys);
+	
+	/**
+	 * @param url URL requested
+	 */
+	void setUrl(String url);
+	
+	/**
+	 * @param status HTTP status code
+	 */
+	void setStatus(int status);
+	
+	/**
+	 * @param outcome short operation result, i.e. "ok" or an error message
+	 */
+	void setOutcome(String outcome);
+	
+	/**
+	 * Stops timing, so fields collected after operation aren't counted in its duration
+	 */
+	void end();
+	
+	/**
+	 * Ends event, if not ended yet, and records it, if it lasted more than configured threshold
+	 */
+	void commit();
+
+}
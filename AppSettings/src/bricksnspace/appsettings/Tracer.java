@@ -0,0 +1,48 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+/**
+ * Receives timed events for slow operations: preferences load and save, 
+ * update checks and version reads from zip files
+ * 
+ * A tracer is found with ServiceLoader when first operation runs; module 
+ * appsettings-jfr provides one that emits Java Flight Recorder events.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public interface Tracer {
+	
+	// operations
+	int LOAD = 1;
+	int SAVE = 2;
+	int UPDATE_CHECK = 3;
+	int ZIP_VERSION = 4;
+	
+	
+	/**
+	 * Starts timing an operation
+	 * @param operation one of LOAD, SAVE, UPDATE_CHECK, ZIP_VERSION
+	 * @return a started event to fill and commit, or null if operation isn't recorded
+	 */
+	TraceEvent begin(int operation);
+
+}
@@ -0,0 +1,78 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Finds installed tracer, if any
+ * 
+ * @author Mario Pascucci
+ *
+ */
+class Tracing {
+	
+	// null if no tracer is installed
+	private static final Tracer tracer = find();
+	
+	
+	private static Tracer find() {
+		
+		try {
+			Iterator<Tracer> it = ServiceLoader.load(Tracer.class, Tracing.class.getClassLoader()).iterator();
+			if (it.hasNext())
+				return it.next();
+		}
+		catch (ServiceConfigurationError | LinkageError e) {
+			// i.e. JFR tracer on a JVM without JFR
+			Logger.getGlobal().log(Level.WARNING,"Unable to load settings tracer", e);
+		}
+		return null;
+	}
+	
+	
+	/**
+	 * Starts timing an operation
+	 * @param operation one of Tracer operations
+	 * @return a started event, or null if operation isn't recorded
+	 */
+	static TraceEvent begin(int operation) {
+		
+		Tracer t = tracer;
+		return t != null ? t.begin(operation) : null;
+	}
+	
+	
+	/**
+	 * Records an error as event outcome
+	 */
+	static void failed(TraceEvent ev, Exception e) {
+		
+		if (ev != null) {
+			ev.setOutcome(e.getClass().getSimpleName() + ": " + e.getMessage());
+			ev.commit();
+		}
+	}
+
+}
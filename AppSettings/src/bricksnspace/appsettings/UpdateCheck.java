@@ -0,0 +1,458 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Asynchronous check for updates: reads a version string from an URL.
+ * 
+ * Connections have connect and read timeout, and body size is limited. 
+ * Last result with ETag/Last-Modified headers is kept in an app private preference, 
+ * so a check within TTL makes no request, and later checks use a conditional GET
+ * that costs a 304 round-trip if version file didn't change. 
+ * URLs other than HTTP (file:, jar:...) are read with same timeouts and size limit.
+ * Changes to cache preference are saved with other preferences, if preferences
+ * aren't opened there is no cache.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public class UpdateCheck {
+	
+	public static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+	public static final int DEFAULT_READ_TIMEOUT = 5000;
+	public static final int DEFAULT_MAX_SIZE = 1024;
+	public static final long DEFAULT_TTL = 24L * 3600 * 1000;
+	
+	private static final String PREF_PREFIX = "appsettings.update.";
+	
+	private static ExecutorService defaultExecutor;
+	
+	private final URL url;
+	private final String prefName;
+	// cache preference, registered on first check with preferences opened
+	private volatile StringPref cachePref = null;
+	private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+	private int readTimeout = DEFAULT_READ_TIMEOUT;
+	private int maxSize = DEFAULT_MAX_SIZE;
+	private long ttl = DEFAULT_TTL;
+	private Executor executor;
+	
+	
+	
+	/**
+	 * Creates an update check for an URL
+	 * @param updateUrl URL of a plain text file with a version string
+	 * @throws IllegalArgumentException if URL is malformed
+	 */
+	public UpdateCheck(String updateUrl) {
+		
+		try {
+			url = new URL(updateUrl);
+		} catch (MalformedURLException e) {
+			throw new IllegalArgumentException("[UpdateCheck] Invalid URL: " + updateUrl, e);
+		}
+		prefName = PREF_PREFIX + Integer.toHexString(updateUrl.hashCode());
+	}
+	
+	
+	
+	/**
+	 * @param ms connect timeout in milliseconds
+	 * @return this check
+	 */
+	public UpdateCheck setConnectTimeout(int ms) {
+		
+		if (ms <= 0)
+			throw new IllegalArgumentException("[UpdateCheck] Timeout must be positive");
+		connectTimeout = ms;
+		return this;
+	}
+	
+	
+	
+	/**
+	 * @param ms read timeout in milliseconds
+	 * @return this check
+	 */
+	public UpdateCheck setReadTimeout(int ms) {
+		
+		if (ms <= 0)
+			throw new IllegalArgumentException("[UpdateCheck] Timeout must be positive");
+		readTimeout = ms;
+		return this;
+	}
+	
+	
+	
+	/**
+	 * @param bytes maximum size of version file, a longer file is an error
+	 * @return this check
+	 */
+	public UpdateCheck setMaxSize(int bytes) {
+		
+		if (bytes <= 0)
+			throw new IllegalArgumentException("[UpdateCheck] Size must be positive");
+		maxSize = bytes;
+		return this;
+	}
+	
+	
+	
+	/**
+	 * @param ms time to use last result without any request, 0 always sends a request
+	 * @return this check
+	 */
+	public UpdateCheck setTtl(long ms) {
+		
+		if (ms < 0)
+			throw new IllegalArgumentException("[UpdateCheck] TTL can't be negative");
+		ttl = ms;
+		return this;
+	}
+	
+	
+	
+	/**
+	 * @param executor executor to run requests, null to use a shared daemon thread
+	 * @return this check
+	 */
+	public UpdateCheck setExecutor(Executor executor) {
+		
+		this.executor = executor;
+		return this;
+	}
+	
+	
+	
+	private static synchronized Executor getDefaultExecutor() {
+		
+		if (defaultExecutor == null) {
+			defaultExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "AppSettings-update");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return defaultExecutor;
+	}
+	
+	
+	
+	/**
+	 * Checks version in background, using cached result if not older than TTL
+	 * @return future completed with version read, Version.ZERO if file is empty, 
+	 * or completed exceptionally with IOException if check fails
+	 */
+	public CompletableFuture<Version> check() {
+		
+		return check(false);
+	}
+	
+	
+	
+	/**
+	 * Checks version in background
+	 * @param force true to ignore TTL, a conditional request is sent anyway
+	 * @return future completed with version read, Version.ZERO if file is empty, 
+	 * or completed exceptionally with IOException if check fails
+	 */
+	public CompletableFuture<Version> check(final boolean force) {
+		
+		final StringPref pref = getCachePref();
+		final Cached cached = pref != null ? Cached.decode(pref.get()) : null;
+		if (!force && cached != null && ttl > 0 
+				&& System.currentTimeMillis() - cached.checked < ttl) {
+			// fresh enough, no request at all
+			return CompletableFuture.completedFuture(Version.parse(cached.version));
+		}
+		final CompletableFuture<Version> result = new CompletableFuture<Version>();
+		Executor ex = executor != null ? executor : getDefaultExecutor();
+		ex.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					result.complete(fetch(pref, cached));
+				}
+				catch (IOException | RuntimeException e) {
+					result.completeExceptionally(e);
+				}
+			}
+		});
+		return result;
+	}
+	
+	
+	
+	/**
+	 * @return cache preference, registered only once, or null if preferences aren't opened
+	 */
+	private StringPref getCachePref() {
+		
+		// without preferences file there is no cache
+		if (!AppSettings.isOpen())
+			return null;
+		StringPref p = cachePref;
+		if (p == null) {
+			// registering again would copy whole registry
+			p = AppSettings.addPrivatePref(prefName, "Update check cache", AppSettings.STRING).asString();
+			cachePref = p;
+		}
+		return p;
+	}
+	
+	
+	
+	/**
+	 * Sends a conditional request, updating cache preference
+	 */
+	private Version fetch(StringPref pref, Cached cached) throws IOException {
+		
+		TraceEvent ev = Tracing.begin(Tracer.UPDATE_CHECK);
+		if (ev != null) {
+			ev.setUrl(url.toString());
+		}
+		URLConnection conn = null;
+		try {
+			conn = open();
+			if (cached != null && conn instanceof HttpURLConnection) {
+				if (cached.etag.length() > 0)
+					conn.setRequestProperty("If-None-Match", cached.etag);
+				if (cached.lastModified.length() > 0)
+					conn.setRequestProperty("If-Modified-Since", cached.lastModified);
+			}
+			int code = status(conn);
+			if (ev != null) {
+				ev.setStatus(code);
+			}
+			String version;
+			if (code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+				version = cached.version;
+			}
+			else if (code == HttpURLConnection.HTTP_OK) {
+				version = read(conn, maxSize);
+			}
+			else if (code == HttpURLConnection.HTTP_NO_CONTENT) {
+				version = "";
+			}
+			else {
+				throw new IOException("[UpdateCheck] HTTP status " + code + " from " + url);
+			}
+			String etag = conn.getHeaderField("ETag");
+			String lastMod = conn.getHeaderField("Last-Modified");
+			if (code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+				// 304 may omit validators, keep old ones
+				if (etag == null) etag = cached.etag;
+				if (lastMod == null) lastMod = cached.lastModified;
+			}
+			if (pref != null)
+				pref.set(new Cached(version, etag, lastMod, System.currentTimeMillis()).encode());
+			if (ev != null) {
+				ev.setBytes(code == HttpURLConnection.HTTP_NOT_MODIFIED ? 0 : version.length());
+				ev.setOutcome(code == HttpURLConnection.HTTP_NOT_MODIFIED ? "not modified" : version);
+				ev.commit();
+			}
+			return Version.parse(version);
+		}
+		catch (IOException | RuntimeException e) {
+			Tracing.failed(ev, e);
+			throw e;
+		}
+		finally {
+			close(conn);
+		}
+	}
+	
+	
+	
+	/**
+	 * Opens a connection with timeouts. HTTP redirects aren't followed, 
+	 * other URL types (file:, jar:...) are read as they are.
+	 */
+	private URLConnection open() throws IOException {
+		
+		URLConnection conn = url.openConnection();
+		if (conn instanceof HttpURLConnection) {
+			((HttpURLConnection) conn).setInstanceFollowRedirects(false);
+		}
+		conn.setConnectTimeout(connectTimeout);
+		conn.setReadTimeout(readTimeout);
+		conn.setUseCaches(false);
+		return conn;
+	}
+	
+	
+	
+	/**
+	 * @return HTTP status code, or HTTP_OK for other URL types
+	 */
+	private static int status(URLConnection conn) throws IOException {
+		
+		if (conn instanceof HttpURLConnection)
+			return ((HttpURLConnection) conn).getResponseCode();
+		return HttpURLConnection.HTTP_OK;
+	}
+	
+	
+	
+	private static void close(URLConnection conn) {
+		
+		if (conn instanceof HttpURLConnection) {
+			((HttpURLConnection) conn).disconnect();
+		}
+	}
+	
+	
+	
+	/**
+	 * Reads a version string from a connection, with a size limit
+	 * @param conn opened connection
+	 * @param maxSize maximum body size
+	 * @return trimmed version string, empty if no content
+	 * @throws IOException if read fails or body is longer than maxSize
+	 */
+	static String read(URLConnection conn, int maxSize) throws IOException {
+		
+		long len = conn.getContentLengthLong();
+		if (len == 0)
+			return "";
+		if (len > maxSize)
+			throw new IOException("[UpdateCheck] Version file too big: " + len + " bytes");
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(len > 0 ? (int) len : 64);
+		byte[] buf = new byte[Math.min(maxSize + 1, 4096)];
+		try (InputStream is = conn.getInputStream()) {
+			int n;
+			while ((n = is.read(buf)) != -1) {
+				bos.write(buf, 0, n);
+				if (bos.size() > maxSize)
+					throw new IOException("[UpdateCheck] Version file too big, more than " + maxSize + " bytes");
+			}
+		}
+		return new String(bos.toByteArray(), StandardCharsets.UTF_8).trim();
+	}
+	
+	
+	
+	/**
+	 * Reads version once, synchronously and without cache
+	 * @return trimmed version string, empty if no content
+	 * @throws IOException if request fails
+	 */
+	String readOnce() throws IOException {
+		
+		TraceEvent ev = Tracing.begin(Tracer.UPDATE_CHECK);
+		if (ev != null) {
+			ev.setUrl(url.toString());
+		}
+		URLConnection conn = null;
+		try {
+			conn = open();
+			int code = status(conn);
+			if (ev != null) {
+				ev.setStatus(code);
+			}
+			String version = "";
+			if (code == HttpURLConnection.HTTP_OK)
+				version = read(conn, maxSize);
+			else if (code != HttpURLConnection.HTTP_NO_CONTENT)
+				throw new IOException("[UpdateCheck] HTTP status " + code + " from " + url);
+			if (ev != null) {
+				ev.setBytes(version.length());
+				ev.setOutcome(version);
+				ev.commit();
+			}
+			return version;
+		}
+		catch (IOException | RuntimeException e) {
+			Tracing.failed(ev, e);
+			throw e;
+		}
+		finally {
+			close(conn);
+		}
+	}
+	
+	
+	
+	/**
+	 * Last check result, stored as tab separated fields in a string preference
+	 */
+	private static class Cached {
+		
+		final String version;
+		final String etag;
+		final String lastModified;
+		final long checked;
+		
+		
+		Cached(String version, String etag, String lastModified, long checked) {
+			
+			this.version = clean(version);
+			this.etag = clean(etag);
+			this.lastModified = clean(lastModified);
+			this.checked = checked;
+		}
+		
+		
+		private static String clean(String s) {
+			
+			return s == null ? "" : s.replace('\t', ' ').replace('\n', ' ');
+		}
+		
+		
+		String encode() {
+			
+			return checked + "\t" + version + "\t" + etag + "\t" + lastModified;
+		}
+		
+		
+		static Cached decode(String s) {
+			
+			if (s == null || s.length() == 0)
+				return null;
+			String[] f = s.split("\t", -1);
+			if (f.length != 4)
+				return null;
+			try {
+				return new Cached(f[1], f[2], f[3], Long.parseLong(f[0]));
+			}
+			catch (NumberFormatException e) {
+				return null;
+			}
+		}
+	}
+
+}
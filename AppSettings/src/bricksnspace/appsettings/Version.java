@@ -0,0 +1,384 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+/**
+ * Immutable application version, as major.minor.patch with optional 
+ * pre-release and build suffixes ("2.0.0-rc1", "1.0.3a", "1.2.0+b45").
+ * 
+ * Numeric part and release flag are packed in a single long, so comparing 
+ * two versions is a single long compare unless both are pre-releases of 
+ * same major.minor.patch. Pre-release suffixes follow semantic versioning: 
+ * "2.0.0-rc1" is older than "2.0.0". Build suffix is kept but ignored 
+ * when comparing, so compareTo isn't consistent with equals.
+ * 
+ * Versions without suffixes and small numbers are shared instances.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public final class Version implements Comparable<Version> {
+	
+	// packed layout: major 19 bits, minor 20 bits, patch 20 bits, release flag 4 bits
+	private static final int MAJOR_SHIFT = 44;
+	private static final int MINOR_SHIFT = 24;
+	private static final int PATCH_SHIFT = 4;
+	private static final long RELEASE = 1;
+	public static final int MAX_MAJOR = (1 << 19) - 1;
+	public static final int MAX_LEVEL = (1 << 20) - 1;
+	
+	// shared instances for major < 8, minor < 32, patch < 64
+	private static final Version[] cache = new Version[8*32*64];
+	
+	public static final Version ZERO = of(0, 0, 0);
+	
+	private final long packed;
+	private final String pre;
+	private final String build;
+	
+	
+	
+	private Version(long packed, String pre, String build) {
+		
+		this.packed = packed;
+		this.pre = pre;
+		this.build = build;
+	}
+	
+	
+	
+	private static long pack(int major, int minor, int patch, boolean release) {
+		
+		return ((long)major << MAJOR_SHIFT) | ((long)minor << MINOR_SHIFT) 
+				| ((long)patch << PATCH_SHIFT) | (release ? RELEASE : 0);
+	}
+	
+	
+	
+	/**
+	 * Gets a release version, without suffixes
+	 * @param major major version, 0 to MAX_MAJOR
+	 * @param minor minor version, 0 to MAX_LEVEL
+	 * @param patch patchlevel, 0 to MAX_LEVEL
+	 * @return version, a shared instance if numbers are small
+	 * @throws IllegalArgumentException if any number is negative or too big
+	 */
+	public static Version of(int major, int minor, int patch) {
+		
+		if (major < 0 || major > MAX_MAJOR || minor < 0 || minor > MAX_LEVEL 
+				|| patch < 0 || patch > MAX_LEVEL) 
+			throw new IllegalArgumentException("[Version] Invalid version " + major + "." + minor + "." + patch);
+		return release(major, minor, patch);
+	}
+	
+	
+	
+	private static Version release(int major, int minor, int patch) {
+		
+		if (major < 8 && minor < 32 && patch < 64) {
+			int i = (major << 11) | (minor << 6) | patch;
+			// benign race: instances are immutable, worst case we create a duplicate
+			Version v = cache[i];
+			if (v == null) {
+				v = new Version(pack(major, minor, patch, true), null, null);
+				cache[i] = v;
+			}
+			return v;
+		}
+		return new Version(pack(major, minor, patch, true), null, null);
+	}
+	
+	
+	
+	/**
+	 * Parses a version string in a single pass, never throws.
+	 * 
+	 * Accepts up to three numeric levels, with omitted levels as zero ("1.4" -> "1.4.0"),
+	 * an optional leading "v", a pre-release suffix starting with "-" or directly after
+	 * a number ("2.0.0-rc1", "1.0.3a") and a build suffix starting with "+".
+	 * A level that doesn't start with a digit is evaluated as 0, numbers too big are 
+	 * clamped to maximum value, levels after third are kept as build suffix. Null or empty string is "0.0.0".
+	 * @param version string to parse
+	 * @return parsed version
+	 */
+	public static Version parse(String version) {
+		
+		if (version == null)
+			return ZERO;
+		int end = version.length();
+		int i = 0;
+		// trim
+		while (i < end && version.charAt(i) <= ' ')
+			i++;
+		while (end > i && version.charAt(end-1) <= ' ')
+			end--;
+		if (i < end && (version.charAt(i) == 'v' || version.charAt(i) == 'V'))
+			i++;
+		int major = 0, minor = 0, patch = 0;
+		int level = 0;
+		int preStart = -1, buildStart = -1;
+		while (i < end && level < 3) {
+			int n = 0;
+			int limit = level == 0 ? MAX_MAJOR : MAX_LEVEL;
+			char c = version.charAt(i);
+			if (c >= '0' && c <= '9') {
+				while (i < end && (c = version.charAt(i)) >= '0' && c <= '9') {
+					n = n * 10 + (c - '0');
+					if (n > limit)
+						n = limit;
+					i++;
+				}
+			}
+			else if (c != '-' && c != '+') {
+				// not a number: level is 0, skip to next level
+				while (i < end && version.charAt(i) != '.')
+					i++;
+			}
+			if (level == 0) major = n;
+			else if (level == 1) minor = n;
+			else patch = n;
+			level++;
+			if (i >= end)
+				break;
+			c = version.charAt(i);
+			if (c == '.') {
+				i++;
+				if (level == 3) {
+					// a fourth level or more, kept as build suffix
+					buildStart = i;
+					i = end;
+				}
+				continue;
+			}
+			// anything else starts suffix
+			break;
+		}
+		if (i < end) {
+			if (version.charAt(i) == '+') {
+				buildStart = i + 1;
+			}
+			else {
+				if (version.charAt(i) == '-')
+					i++;
+				preStart = i;
+				int plus = version.indexOf('+', i);
+				if (plus >= 0 && plus < end) 
+					buildStart = plus + 1;
+			}
+		}
+		String pre = null, build = null;
+		if (preStart >= 0) {
+			int preEnd = buildStart >= 0 ? buildStart - 1 : end;
+			if (preEnd > preStart)
+				pre = version.substring(preStart, preEnd);
+		}
+		if (buildStart >= 0 && buildStart < end)
+			build = version.substring(buildStart, end);
+		if (pre == null && build == null)
+			return release(major, minor, patch);
+		return new Version(pack(major, minor, patch, pre == null), pre, build);
+	}
+	
+	
+	
+	public int getMajor() {
+		return (int) (packed >>> MAJOR_SHIFT);
+	}
+	
+	
+	public int getMinor() {
+		return (int) (packed >>> MINOR_SHIFT) & MAX_LEVEL;
+	}
+	
+	
+	public int getPatch() {
+		return (int) (packed >>> PATCH_SHIFT) & MAX_LEVEL;
+	}
+	
+	
+	/**
+	 * @return pre-release suffix, or null if this is a release
+	 */
+	public String getPreRelease() {
+		return pre;
+	}
+	
+	
+	/**
+	 * @return build suffix or null
+	 */
+	public String getBuild() {
+		return build;
+	}
+	
+	
+	public boolean isPreRelease() {
+		return pre != null;
+	}
+	
+	
+	/**
+	 * Version packed in a long: ordering of packed values follows version ordering, 
+	 * except between pre-releases of same version
+	 * @return packed version
+	 */
+	public long toLong() {
+		return packed;
+	}
+	
+	
+	/**
+	 * @return numeric part as three integers, like {@link AppVersion#parseVersionString(String)}
+	 */
+	public int[] toArray() {
+		return new int[] {getMajor(), getMinor(), getPatch()};
+	}
+	
+	
+	
+	@Override
+	public int compareTo(Version o) {
+		
+		if (packed != o.packed)
+			return packed < o.packed ? -1 : 1;
+		if (pre == null)
+			return 0;
+		return comparePre(pre, o.pre);
+	}
+	
+	
+	
+	/**
+	 * Compares pre-release suffixes as dot separated identifiers: numeric identifiers
+	 * compare as numbers and are lower than alphanumeric ones, a shorter list of 
+	 * identifiers is lower if all preceding identifiers are equal
+	 */
+	private static int comparePre(String a, String b) {
+		
+		int i = 0, j = 0;
+		int la = a.length(), lb = b.length();
+		while (i < la && j < lb) {
+			int ea = a.indexOf('.', i);
+			if (ea < 0) ea = la;
+			int eb = b.indexOf('.', j);
+			if (eb < 0) eb = lb;
+			boolean na = isNumeric(a, i, ea);
+			boolean nb = isNumeric(b, j, eb);
+			int r;
+			if (na && nb) {
+				// compare as numbers without parsing: longer (without leading zeros) is bigger
+				while (i < ea - 1 && a.charAt(i) == '0') i++;
+				while (j < eb - 1 && b.charAt(j) == '0') j++;
+				r = (ea - i) - (eb - j);
+				for (int k = 0; r == 0 && k < ea - i; k++)
+					r = a.charAt(i + k) - b.charAt(j + k);
+			}
+			else if (na) {
+				r = -1;
+			}
+			else if (nb) {
+				r = 1;
+			}
+			else {
+				r = 0;
+				int k = 0;
+				for (; r == 0 && i + k < ea && j + k < eb; k++) 
+					r = a.charAt(i + k) - b.charAt(j + k);
+				if (r == 0)
+					r = (ea - i) - (eb - j);
+			}
+			if (r != 0)
+				return r < 0 ? -1 : 1;
+			i = ea + 1;
+			j = eb + 1;
+		}
+		if (i < la) 
+			return 1;
+		if (j < lb)
+			return -1;
+		return 0;
+	}
+	
+	
+	
+	private static boolean isNumeric(String s, int start, int end) {
+		
+		if (start >= end)
+			return false;
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if (c < '0' || c > '9')
+				return false;
+		}
+		return true;
+	}
+	
+	
+	
+	public boolean isNewerThan(Version o) {
+		return compareTo(o) > 0;
+	}
+	
+	
+	
+	@Override
+	public boolean equals(Object o) {
+		
+		if (this == o)
+			return true;
+		if (!(o instanceof Version))
+			return false;
+		Version v = (Version) o;
+		return packed == v.packed 
+				&& (pre == null ? v.pre == null : pre.equals(v.pre))
+				&& (build == null ? v.build == null : build.equals(v.build));
+	}
+	
+	
+	
+	@Override
+	public int hashCode() {
+		
+		int h = (int) (packed ^ (packed >>> 32));
+		if (pre != null)
+			h = h * 31 + pre.hashCode();
+		if (build != null)
+			h = h * 31 + build.hashCode();
+		return h;
+	}
+	
+	
+	
+	/**
+	 * @return version as major.minor.patch[-pre-release][+build]
+	 */
+	@Override
+	public String toString() {
+		
+		StringBuilder sb = new StringBuilder(16);
+		sb.append(getMajor()).append('.').append(getMinor()).append('.').append(getPatch());
+		if (pre != null)
+			sb.append('-').append(pre);
+		if (build != null)
+			sb.append('+').append(build);
+		return sb.toString();
+	}
+
+}
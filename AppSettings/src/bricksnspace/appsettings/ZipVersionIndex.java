@@ -0,0 +1,375 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Reads versions from many zip archives, in parallel and with an index.
+ * 
+ * Version is read from a text file called VERSION, or from Implementation-Version
+ * in archive manifest. Versions are kept in an index keyed by path, size and 
+ * modification time, so unchanged archives aren't opened again. If an index file 
+ * is given, index is loaded from it and saved after every scan that changed it.
+ * 
+ * <pre>
+ * ZipVersionIndex idx = new ZipVersionIndex(new File(appDir, "addons.idx"));
+ * Map&lt;File,String&gt; versions = idx.scan(addonDir);
+ * </pre>
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public class ZipVersionIndex {
+	
+	private static final int MAGIC = 0x41535a31;		// "ASZ1"
+	private static final int MAX_VERSION_SIZE = 1024;
+	public static final int DEFAULT_THREADS = 4;
+	
+	private final File indexFile;
+	private final Map<String,Entry> index = new ConcurrentHashMap<String,Entry>();
+	private boolean loaded = false;
+	private volatile boolean dirty = false;
+	private int threads = DEFAULT_THREADS;
+	
+	
+	/**
+	 * Index entry: version read from an archive with given size and modification time
+	 */
+	private static final class Entry {
+		
+		final long size;
+		final long mtime;
+		final String version;
+		
+		Entry(long size, long mtime, String version) {
+			this.size = size;
+			this.mtime = mtime;
+			this.version = version;
+		}
+	}
+	
+	
+	
+	/**
+	 * Creates an index
+	 * @param indexFile file to load and save index, null for an index in memory only
+	 */
+	public ZipVersionIndex(File indexFile) {
+		
+		this.indexFile = indexFile;
+	}
+	
+	
+	
+	/**
+	 * @param threads maximum number of archives read at the same time
+	 * @return this index
+	 */
+	public ZipVersionIndex setThreads(int threads) {
+		
+		if (threads <= 0)
+			throw new IllegalArgumentException("[ZipVersionIndex] Threads must be positive");
+		this.threads = threads;
+		return this;
+	}
+	
+	
+	
+	/**
+	 * Scans all zip archives (files with ".zip" extension) in a folder
+	 * @param dir folder to scan
+	 * @return versions for every archive, sorted by file name, empty string if archive has no version
+	 */
+	public Map<File,String> scan(File dir) {
+		
+		File[] files = dir.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File f) {
+				return f.isFile() && f.getName().toLowerCase().endsWith(".zip");
+			}
+		});
+		if (files == null) {
+			Logger.getGlobal().log(Level.WARNING,"Unable to list folder "+dir);
+			return new LinkedHashMap<File,String>();
+		}
+		Arrays.sort(files);
+		return scan(Arrays.asList(files));
+	}
+	
+	
+	
+	/**
+	 * Reads version from a list of archives
+	 * @param archives archives to read
+	 * @return versions for every archive, in same order, empty string if archive has no version
+	 */
+	public Map<File,String> scan(Collection<File> archives) {
+		
+		synchronized (this) {
+			if (!loaded) {
+				load();
+				loaded = true;
+			}
+		}
+		Map<File,String> result = new LinkedHashMap<File,String>();
+		List<File> toRead = new ArrayList<File>();
+		for (File f : archives) {
+			Entry e = index.get(f.getAbsolutePath());
+			if (e != null && e.size == f.length() && e.mtime == f.lastModified()) {
+				result.put(f, e.version);
+			}
+			else {
+				// placeholder, keeps order
+				result.put(f, "");
+				toRead.add(f);
+			}
+		}
+		if (toRead.size() == 1) {
+			File f = toRead.get(0);
+			result.put(f, update(f));
+		}
+		else if (toRead.size() > 1) {
+			readAll(toRead, result);
+		}
+		if (dirty && indexFile != null) {
+			save();
+		}
+		return result;
+	}
+	
+	
+	
+	private void readAll(List<File> toRead, Map<File,String> result) {
+		
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, toRead.size()), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "AppSettings-zipscan");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			List<Future<String>> futures = new ArrayList<Future<String>>(toRead.size());
+			for (final File f : toRead) {
+				futures.add(pool.submit(new Callable<String>() {
+					@Override
+					public String call() {
+						return update(f);
+					}
+				}));
+			}
+			for (int i = 0; i < toRead.size(); i++) {
+				try {
+					result.put(toRead.get(i), futures.get(i).get());
+				} catch (ExecutionException e) {
+					Logger.getGlobal().log(Level.WARNING,"Zip file read error", e.getCause());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	
+	
+	/**
+	 * Reads version from an archive and updates index
+	 */
+	private String update(File f) {
+		
+		// read size and time before opening, a change while reading is found on next scan
+		long size = f.length();
+		long mtime = f.lastModified();
+		String v;
+		try {
+			v = readVersion(f);
+		} catch (IOException e) {
+			// indexed anyway, read again only if file changes
+			Logger.getGlobal().log(Level.WARNING,"Zip file read error: "+f, e);
+			v = "";
+		}
+		index.put(f.getAbsolutePath(), new Entry(size, mtime, v));
+		dirty = true;
+		return v;
+	}
+	
+	
+	
+	/**
+	 * Reads version from a zip archive, from VERSION file or from manifest Implementation-Version
+	 * @param f archive to read
+	 * @return trimmed version string, empty string if archive has no version
+	 * @throws IOException if archive can't be read
+	 */
+	static String readVersion(File f) throws IOException {
+		
+		TraceEvent ev = Tracing.begin(Tracer.ZIP_VERSION);
+		if (ev != null) {
+			ev.setPath(f.getPath());
+			ev.setBytes(f.length());
+		}
+		try {
+			String v = readZip(f);
+			if (ev != null) {
+				ev.setOutcome(v);
+				ev.commit();
+			}
+			return v;
+		}
+		catch (IOException | RuntimeException e) {
+			Tracing.failed(ev, e);
+			throw e;
+		}
+	}
+	
+	
+	
+	private static String readZip(File f) throws IOException {
+		
+		try (ZipFile z = new ZipFile(f)) {
+			ZipEntry ze = z.getEntry("VERSION");
+			if (ze != null) {
+				try (InputStream is = z.getInputStream(ze)) {
+					return readText(is).trim();
+				}
+			}
+			ze = z.getEntry(JarFile.MANIFEST_NAME);
+			if (ze != null) {
+				try (InputStream is = new BufferedInputStream(z.getInputStream(ze))) {
+					String v = new Manifest(is).getMainAttributes().getValue(Attributes.Name.IMPLEMENTATION_VERSION);
+					return v != null ? v.trim() : "";
+				}
+			}
+			return "";
+		}
+	}
+	
+	
+	
+	private static String readText(InputStream is) throws IOException {
+		
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(32);
+		byte[] buf = new byte[256];
+		int n;
+		while ((n = is.read(buf)) != -1) {
+			bos.write(buf, 0, n);
+			if (bos.size() > MAX_VERSION_SIZE)
+				throw new IOException("VERSION file too big");
+		}
+		return new String(bos.toByteArray(), StandardCharsets.UTF_8);
+	}
+	
+	
+	
+	private void load() {
+		
+		if (indexFile == null || !indexFile.isFile())
+			return;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+			if (in.readInt() != MAGIC) {
+				Logger.getGlobal().log(Level.WARNING,"Invalid zip index file "+indexFile+", ignored");
+				return;
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String path = in.readUTF();
+				long size = in.readLong();
+				long mtime = in.readLong();
+				index.put(path, new Entry(size, mtime, in.readUTF()));
+			}
+		} catch (IOException e) {
+			// index is only a cache, rebuilt on scan
+			Logger.getGlobal().log(Level.WARNING,"Zip index read error, ignored: "+indexFile, e);
+			index.clear();
+		}
+	}
+	
+	
+	
+	private synchronized void save() {
+		
+		// forget archives removed
+		Iterator<Map.Entry<String,Entry>> it = index.entrySet().iterator();
+		while (it.hasNext()) {
+			if (!new File(it.next().getKey()).isFile())
+				it.remove();
+		}
+		dirty = false;
+		AtomicFile af = new AtomicFile(indexFile);
+		OutputStream os = null;
+		try {
+			os = af.startWrite();
+			DataOutputStream out = new DataOutputStream(os);
+			List<Map.Entry<String,Entry>> entries = new ArrayList<Map.Entry<String,Entry>>(index.entrySet());
+			out.writeInt(MAGIC);
+			out.writeInt(entries.size());
+			for (Map.Entry<String,Entry> e : entries) {
+				out.writeUTF(e.getKey());
+				out.writeLong(e.getValue().size);
+				out.writeLong(e.getValue().mtime);
+				out.writeUTF(e.getValue().version);
+			}
+			out.flush();
+			af.finishWrite(os, false);
+		} catch (IOException e) {
+			Logger.getGlobal().log(Level.WARNING,"Zip index write error: "+indexFile, e);
+			dirty = true;
+			if (os != null)
+				af.failWrite(os);
+		}
+	}
+
+}
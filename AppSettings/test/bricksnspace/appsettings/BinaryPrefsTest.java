@@ -0,0 +1,285 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Binary preferences file written and read back
+ *
+ * @author Mario Pascucci
+ *
+ */
+public class BinaryPrefsTest {
+	
+	// header size, and offsets of fields in header and index entries
+	private static final int HEADER = 28;
+	private static final int H_VERSION = 4;
+	private static final int ENTRY = 12;
+	
+	@Rule
+	public final TemporaryFolder tmp = new TemporaryFolder();
+	
+	private File file;
+	private final Map<String,String> values = new HashMap<String,String>();
+	private final Map<String,Integer> types = new HashMap<String,Integer>();
+	
+	
+	
+	@Before
+	public void setUp() throws IOException {
+		
+		file = new File(tmp.getRoot(), "test.prefs");
+		put("int", "-42", AppSettings.INTEGER);
+		put("float", "1.5", AppSettings.FLOAT);
+		put("bool", "true", AppSettings.BOOLEAN);
+		put("string", "àèìòù €", AppSettings.STRING);
+		put("empty", "", AppSettings.STRING);
+		// values that don't match type are kept as strings
+		put("badint", "12a", AppSettings.INTEGER);
+		put("longfloat", "1.50", AppSettings.FLOAT);
+		put("badbool", "yes", AppSettings.BOOLEAN);
+		put("untyped", "7", null);
+		// same hash code
+		put("Aa", "first", AppSettings.STRING);
+		put("BB", "second", AppSettings.STRING);
+	}
+	
+	
+	
+	private void put(String key, String value, Integer type) {
+		
+		values.put(key, value);
+		if (type != null) {
+			types.put(key, type);
+		}
+	}
+	
+	
+	
+	private void write() throws IOException {
+		
+		try (OutputStream os = new FileOutputStream(file)) {
+			BinaryPrefs.write(os, values, types);
+		}
+	}
+	
+	
+	
+	/**
+	 * @return position in file of index entry for key
+	 */
+	private int entry(String key) throws IOException {
+		
+		try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
+			for (int p = HEADER; ; p += ENTRY) {
+				f.seek(p);
+				if (f.readInt() == key.hashCode())
+					return p;
+			}
+		}
+	}
+	
+	
+	
+	private void writeInt(long pos, int v) throws IOException {
+		
+		try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+			f.seek(pos);
+			f.writeInt(v);
+		}
+	}
+	
+	
+	
+	@Test
+	public void roundTrip() throws IOException {
+		
+		write();
+		assertTrue(BinaryPrefs.isBinary(file));
+		BinaryPrefs b = BinaryPrefs.open(file, true);
+		assertEquals(values.size(), b.size());
+		assertEquals(values.keySet(), new HashSet<String>(b.keys()));
+		for (Map.Entry<String,String> e : values.entrySet()) {
+			assertEquals(e.getKey(), e.getValue(), b.get(e.getKey()));
+		}
+		assertNull(b.get("missing"));
+	}
+	
+	
+	
+	@Test
+	public void empty() throws IOException {
+		
+		values.clear();
+		write();
+		BinaryPrefs b = BinaryPrefs.open(file, true);
+		assertEquals(0, b.size());
+		assertTrue(b.keys().isEmpty());
+		assertNull(b.get("int"));
+	}
+	
+	
+	
+	@Test
+	public void notBinary() throws IOException {
+		
+		Files.write(file.toPath(), "<?xml version=\"1.0\"?>".getBytes(StandardCharsets.UTF_8));
+		assertFalse(BinaryPrefs.isBinary(file));
+		assertOpenFails(false);
+		Files.write(file.toPath(), new byte[2]);
+		assertFalse(BinaryPrefs.isBinary(file));
+	}
+	
+	
+	
+	@Test
+	public void unknownVersion() throws IOException {
+		
+		write();
+		writeInt(H_VERSION, 1);
+		assertOpenFails(false);
+	}
+	
+	
+	
+	@Test
+	public void truncated() throws IOException {
+		
+		write();
+		try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+			f.setLength(HEADER + 4);
+		}
+		assertOpenFails(false);
+	}
+	
+	
+	
+	@Test
+	public void checksumOnlyOnRequest() throws IOException {
+		
+		write();
+		try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+			// last byte of last value
+			f.seek(f.length() - 1);
+			int c = f.read();
+			f.seek(f.length() - 1);
+			f.write(c ^ 1);
+		}
+		assertEquals(values.size(), BinaryPrefs.open(file).size());
+		assertOpenFails(true);
+	}
+	
+	
+	
+	@Test
+	public void damagedValueIgnored() throws IOException {
+		
+		write();
+		writeInt(entry("int") + 8, Integer.MAX_VALUE);
+		BinaryPrefs b = BinaryPrefs.open(file);
+		assertNull(b.get("int"));
+		assertEquals("1.5", b.get("float"));
+		assertEquals("second", b.get("BB"));
+		assertTrue(b.keys().contains("int"));
+	}
+	
+	
+	
+	@Test
+	public void damagedKeyIgnored() throws IOException {
+		
+		write();
+		writeInt(entry("Aa") + 4, -100);
+		BinaryPrefs b = BinaryPrefs.open(file);
+		assertFalse(b.keys().contains("Aa"));
+		assertEquals(values.size() - 1, b.keys().size());
+		// other key with same hash is still found
+		assertEquals("second", b.get("BB"));
+	}
+	
+	
+	
+	@Test
+	public void savedByStore() throws Exception {
+		
+		SettingsStore s = open();
+		s.setBinaryFormat(true);
+		s.putInt("count", 3);
+		s.putFloat("zoom", 0.25f);
+		s.putBool("grid", true);
+		s.put("name", "àèìòù");
+		s.savePreferences();
+		assertTrue(BinaryPrefs.isBinary(file));
+		SettingsStore r = open();
+		assertEquals(3, r.getInt("count"));
+		assertEquals(0.25f, r.getFloat("zoom"), 0);
+		assertTrue(r.getBool("grid"));
+		assertEquals("àèìòù", r.get("name"));
+	}
+	
+	
+	
+	private SettingsStore open() {
+		
+		SettingsStore s = new SettingsStore();
+		s.setPrefsFile(file.getPath());
+		s.openPreferences(this);
+		s.addPref("count", "Count", AppSettings.INTEGER);
+		s.addPref("zoom", "Zoom", AppSettings.FLOAT);
+		s.addPref("grid", "Grid", AppSettings.BOOLEAN);
+		s.addPref("name", "Name", AppSettings.STRING);
+		return s;
+	}
+	
+	
+	
+	private void assertOpenFails(boolean check) {
+		
+		try {
+			BinaryPrefs.open(file, check);
+			fail("Damaged binary preferences file opened");
+		}
+		catch (IOException e) {
+			// expected
+		}
+	}
+
+}
@@ -0,0 +1,262 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * BLOB preferences written, read back and checked
+ *
+ * @author Mario Pascucci
+ *
+ */
+public class BlobStoreTest {
+	
+	@Rule
+	public final TemporaryFolder tmp = new TemporaryFolder();
+	
+	private File prefs;
+	private File folder;
+	private SettingsStore store;
+	private BlobPref layout;
+	
+	
+	
+	@Before
+	public void setUp() {
+		
+		prefs = new File(tmp.getRoot(), "test.prefs");
+		folder = BlobStore.folderFor(prefs);
+		open();
+	}
+	
+	
+	
+	private void open() {
+		
+		store = new SettingsStore();
+		store.setPrefsFile(prefs.getPath());
+		store.openPreferences(this);
+		layout = store.addPrivatePref("layout", "Window layout", AppSettings.BLOB).asBlob();
+	}
+	
+	
+	
+	private static ByteBuffer content(String s) {
+		
+		return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	
+	
+	private static String string(ByteBuffer b) {
+		
+		return StandardCharsets.UTF_8.decode(b).toString();
+	}
+	
+	
+	
+	private static String read(InputStream is) throws IOException {
+		
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (InputStream in = is) {
+			byte[] b = new byte[7];
+			int n;
+			while ((n = in.read(b)) > 0) {
+				bos.write(b, 0, n);
+			}
+		}
+		return new String(bos.toByteArray(), StandardCharsets.UTF_8);
+	}
+	
+	
+	
+	/**
+	 * @return BLOB files in folder
+	 */
+	private File[] files() {
+		
+		File[] f = folder.listFiles();
+		return f != null ? f : new File[0];
+	}
+	
+	
+	
+	@Test
+	public void empty() throws IOException {
+		
+		assertEquals(-1, layout.size());
+		assertEquals(0, layout.get().remaining());
+		assertEquals("", read(layout.openStream()));
+	}
+	
+	
+	
+	@Test
+	public void roundTrip() throws Exception {
+		
+		layout.set(content("àèìòù layout"));
+		assertEquals("àèìòù layout", string(layout.get()));
+		assertEquals("àèìòù layout", read(layout.openStream()));
+		assertEquals("àèìòù layout".getBytes(StandardCharsets.UTF_8).length, layout.size());
+		assertTrue(store.get("layout").matches("blob:\\d+:[0-9a-f]+:[0-9a-f]{16}"));
+		store.savePreferences();
+		open();
+		assertEquals("àèìòù layout", string(layout.get()));
+	}
+	
+	
+	
+	@Test
+	public void streamCommitted() throws IOException {
+		
+		layout.set(content("old"));
+		try (BlobOutput os = layout.openOutput()) {
+			os.write("new".getBytes(StandardCharsets.UTF_8));
+			// content replaced only on commit
+			assertEquals("old", string(layout.get()));
+			os.commit();
+		}
+		assertEquals("new", string(layout.get()));
+	}
+	
+	
+	
+	@Test
+	public void streamNotCommitted() throws IOException {
+		
+		layout.set(content("old"));
+		String ref = store.get("layout");
+		try (BlobOutput os = layout.openOutput()) {
+			os.write("new".getBytes(StandardCharsets.UTF_8));
+		}
+		assertEquals("old", string(layout.get()));
+		assertEquals(ref, store.get("layout"));
+		assertEquals(1, files().length);
+		BlobOutput os = layout.openOutput();
+		os.abort();
+		try {
+			os.commit();
+			fail("Aborted stream committed");
+		}
+		catch (IOException e) {
+			// expected
+		}
+		assertEquals(ref, store.get("layout"));
+	}
+	
+	
+	
+	@Test
+	public void replacedFilesDeletedOnSave() throws Exception {
+		
+		layout.set(content("one"));
+		layout.set(content("two"));
+		layout.set(content("three"));
+		// preferences file may still refer to old content
+		assertEquals(3, files().length);
+		store.savePreferences();
+		assertEquals(1, files().length);
+		layout.remove();
+		assertEquals(-1, layout.size());
+		store.savePreferences();
+		assertEquals(0, files().length);
+		open();
+		assertEquals(0, layout.get().remaining());
+	}
+	
+	
+	
+	@Test
+	public void damagedContent() throws IOException {
+		
+		layout.set(content("some content"));
+		try (RandomAccessFile f = new RandomAccessFile(files()[0], "rw")) {
+			f.seek(2);
+			f.write('X');
+		}
+		try {
+			layout.get();
+			fail("Damaged BLOB read");
+		}
+		catch (IOException e) {
+			// expected
+		}
+		try {
+			read(layout.openStream());
+			fail("Damaged BLOB read as stream");
+		}
+		catch (IOException e) {
+			// expected
+		}
+	}
+	
+	
+	
+	@Test
+	public void truncatedContent() throws IOException {
+		
+		layout.set(content("some content"));
+		try (RandomAccessFile f = new RandomAccessFile(files()[0], "rw")) {
+			f.setLength(4);
+		}
+		try {
+			layout.openStream().close();
+			fail("Truncated BLOB opened");
+		}
+		catch (IOException e) {
+			// expected
+		}
+	}
+	
+	
+	
+	@Test
+	public void missingFile() throws IOException {
+		
+		layout.set(content("some content"));
+		assertTrue(files()[0].delete());
+		assertEquals(-1, layout.size());
+		try {
+			layout.get();
+			fail("Missing BLOB read");
+		}
+		catch (FileNotFoundException e) {
+			// expected
+		}
+	}
+
+}
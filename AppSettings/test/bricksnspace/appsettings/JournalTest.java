@@ -0,0 +1,239 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Journal written and replayed on a base snapshot
+ *
+ * @author Mario Pascucci
+ *
+ */
+public class JournalTest {
+	
+	@Rule
+	public final TemporaryFolder tmp = new TemporaryFolder();
+	
+	private File prefs;
+	private File jf;
+	private Journal journal;
+	private MemoryBackend values;
+	
+	
+	
+	@Before
+	public void setUp() throws IOException {
+		
+		prefs = tmp.newFile("test.prefs");
+		Files.write(prefs.toPath(), "base snapshot".getBytes(StandardCharsets.UTF_8));
+		jf = Journal.fileFor(prefs);
+		journal = new Journal(prefs, Long.MAX_VALUE, new Runnable() {
+			@Override
+			public void run() {
+				// no compaction
+			}
+		});
+		values = new MemoryBackend("/test");
+	}
+	
+	
+	
+	@After
+	public void tearDown() {
+		
+		journal.stop();
+	}
+	
+	
+	
+	private void append(String... keys) throws IOException {
+		
+		journal.append(values, Arrays.asList(keys), false);
+	}
+	
+	
+	
+	private MemoryBackend replay(int records) throws IOException {
+		
+		MemoryBackend r = new MemoryBackend("/test");
+		r.put("removed", "old");
+		assertEquals(records, Journal.replay(prefs, r));
+		return r;
+	}
+	
+	
+	
+	@Test
+	public void roundTrip() throws IOException {
+		
+		values.put("a", "1");
+		values.put("text", "àèìòù €\n\ttab");
+		values.put("empty", "");
+		append("a", "text", "empty", "removed");
+		MemoryBackend r = replay(4);
+		assertEquals("1", r.get("a"));
+		assertEquals("àèìòù €\n\ttab", r.get("text"));
+		assertEquals("", r.get("empty"));
+		assertNull(r.get("removed"));
+	}
+	
+	
+	
+	@Test
+	public void laterRecordsWin() throws IOException {
+		
+		values.put("a", "1");
+		append("a");
+		journal.close();
+		// reopened journal appends after existing records
+		values.put("a", "2");
+		append("a");
+		values.remove("a");
+		values.put("b", "3");
+		append("a", "b");
+		MemoryBackend r = replay(4);
+		assertNull(r.get("a"));
+		assertEquals("3", r.get("b"));
+	}
+	
+	
+	
+	@Test
+	public void damagedTailDiscarded() throws IOException {
+		
+		values.put("a", "1");
+		append("a");
+		long good = jf.length();
+		values.put("b", "2");
+		append("b");
+		journal.close();
+		// partial last record, as after a crash
+		try (RandomAccessFile f = new RandomAccessFile(jf, "rw")) {
+			f.setLength(jf.length() - 3);
+		}
+		assertEquals("1", replay(1).get("a"));
+		assertEquals(good, jf.length());
+		// new records follow last good one
+		append("b");
+		assertEquals("2", replay(2).get("b"));
+	}
+	
+	
+	
+	@Test
+	public void badChecksumDiscarded() throws IOException {
+		
+		values.put("a", "1");
+		values.put("b", "2");
+		append("a");
+		long good = jf.length();
+		append("b");
+		journal.close();
+		try (RandomAccessFile f = new RandomAccessFile(jf, "rw")) {
+			f.seek(jf.length() - 5);
+			f.write('x');
+		}
+		MemoryBackend r = replay(1);
+		assertEquals("1", r.get("a"));
+		assertNull(r.get("b"));
+		assertEquals(good, jf.length());
+	}
+	
+	
+	
+	@Test
+	public void staleJournalDiscarded() throws IOException {
+		
+		values.put("a", "1");
+		append("a");
+		journal.close();
+		// new base snapshot, journal was not deleted
+		Files.write(prefs.toPath(), "new snapshot".getBytes(StandardCharsets.UTF_8));
+		assertNull(replay(0).get("a"));
+		assertFalse(jf.exists());
+	}
+	
+	
+	
+	@Test
+	public void unknownFormatIgnored() throws IOException {
+		
+		Files.write(jf.toPath(), new byte[] { 'A', 'S', 'J', '1', 0, 0, 0, 0 });
+		assertEquals("old", replay(0).get("removed"));
+		assertEquals(0, jf.length());
+	}
+	
+	
+	
+	@Test
+	public void savedByStore() throws Exception {
+		
+		File f = new File(tmp.getRoot(), "store.prefs");
+		SettingsStore s = open(f);
+		s.putInt("count", 1);
+		s.savePreferences();
+		long base = f.length();
+		s.putInt("count", 2);
+		s.savePreferences();
+		// only changes appended to journal
+		assertEquals(base, f.length());
+		assertTrue(Journal.fileFor(f).length() > 0);
+		assertEquals(2, open(f).getInt("count"));
+	}
+	
+	
+	
+	private SettingsStore open(File f) {
+		
+		SettingsStore s = new SettingsStore();
+		s.setPrefsFile(f.getPath());
+		s.openPreferences(this);
+		s.enableJournal(1024 * 1024);
+		s.addPref("count", "Count", AppSettings.INTEGER);
+		return s;
+	}
+	
+	
+	
+	@Test
+	public void noJournal() throws IOException {
+		
+		assertEquals("old", replay(0).get("removed"));
+		assertFalse(jf.exists());
+	}
+
+}
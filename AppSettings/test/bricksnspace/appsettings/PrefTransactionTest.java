@@ -0,0 +1,127 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Transactions committed all or nothing
+ *
+ * @author Mario Pascucci
+ *
+ */
+public class PrefTransactionTest {
+	
+	private PrefTable table;
+	private MemoryBackend store;
+	private IntPref width;
+	private StringPref title;
+	private final List<SettingChange> events = new ArrayList<SettingChange>();
+	
+	// runs listeners in caller thread
+	private static final Executor direct = new Executor() {
+		@Override
+		public void execute(Runnable r) {
+			r.run();
+		}
+	};
+	
+	
+	
+	@Before
+	public void setUp() {
+		
+		store = new MemoryBackend("/test") {
+			@Override
+			public void put(String key, String value) {
+				if (key.equals("broken"))
+					throw new IllegalStateException("Backend failure");
+				super.put(key, value);
+			}
+		};
+		store.put("width", "800");
+		table = new PrefTable();
+		table.setStore(store, null);
+		width = table.register("width", "Width", AppSettings.INTEGER, false).asInt();
+		title = table.register("title", "Title", AppSettings.STRING, false).asString().setDefault("none");
+		table.register("broken", "Broken", AppSettings.INTEGER, false);
+		table.getDispatcher().add(new SettingsListener() {
+			@Override
+			public void settingsChanged(List<SettingChange> changes) {
+				events.addAll(changes);
+			}
+		}, direct, "");
+	}
+	
+	
+	
+	@Test
+	public void committed() {
+		
+		List<String> changed = new PrefTransaction(table).putInt("width", 1024)
+				.put("title", "new").putInt("width", 640).commit();
+		assertEquals(Arrays.asList("width", "title"), changed);
+		assertEquals(640, width.get());
+		assertEquals("new", title.get());
+		assertEquals(2, events.size());
+	}
+	
+	
+	
+	@Test
+	public void unchangedSkipped() {
+		
+		assertTrue(new PrefTransaction(table).putInt("width", 800).commit().isEmpty());
+		assertTrue(events.isEmpty());
+	}
+	
+	
+	
+	@Test
+	public void failedCommitRestored() {
+		
+		PrefTransaction t = new PrefTransaction(table).putInt("width", 1024)
+				.put("title", "new").putInt("broken", 1);
+		try {
+			t.commit();
+			fail("Commit with backend failure succeeded");
+		}
+		catch (IllegalStateException e) {
+			// expected
+		}
+		assertEquals("800", store.get("width"));
+		assertNull(store.get("title"));
+		assertEquals(800, width.get());
+		assertEquals("none", title.get());
+		assertTrue(events.isEmpty());
+	}
+
+}
@@ -0,0 +1,306 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Shared settings file used by this and another process
+ *
+ * @author Mario Pascucci
+ *
+ */
+public class SharedRegionTest {
+	
+	// header field with position of current area
+	private static final int H_AREA = 24;
+	
+	@Rule
+	public final TemporaryFolder tmp = new TemporaryFolder();
+	
+	private File file;
+	private SharedRegion region;
+	
+	
+	
+	@Before
+	public void setUp() throws IOException {
+		
+		file = new File(tmp.getRoot(), "test.shared");
+		region = SharedRegion.attach(file);
+	}
+	
+	
+	
+	@After
+	public void tearDown() {
+		
+		if (region != null) {
+			region.detach();
+		}
+	}
+	
+	
+	
+	private void fill(Map<String,String> values) throws IOException {
+		
+		assertTrue(region.startFill());
+		for (Map.Entry<String,String> e : values.entrySet()) {
+			region.put(e.getKey(), e.getValue());
+		}
+		region.endFill();
+	}
+	
+	
+	
+	/**
+	 * @return values over initial size of slots and heap
+	 */
+	private static Map<String,String> many() {
+		
+		Map<String,String> v = new HashMap<String,String>();
+		for (int i = 0; i < 1000; i++) {
+			v.put("key." + i, i + " àèìòù " + new String(new char[i % 100]).replace('\0', 'x'));
+		}
+		return v;
+	}
+	
+	
+	
+	@Test
+	public void roundTrip() throws IOException {
+		
+		fill(new HashMap<String,String>());
+		long seq = region.seq();
+		assertTrue(region.put("a", "1") > seq);
+		assertTrue(region.put("text", "àèìòù €") > seq);
+		assertEquals(0, region.put("a", "1"));
+		assertEquals("1", region.get("a"));
+		assertEquals("àèìòù €", region.get("text"));
+		assertNull(region.get("missing"));
+		assertEquals(2, region.size());
+		assertTrue(region.remove("a") > 0);
+		assertEquals(0, region.remove("a"));
+		assertNull(region.get("a"));
+		assertEquals(1, region.size());
+		assertFalse(region.values().containsKey("a"));
+		// removed key gets a value again
+		region.put("a", "2");
+		assertEquals("2", region.get("a"));
+		assertEquals(2, region.values().size());
+	}
+	
+	
+	
+	@Test
+	public void grows() throws IOException {
+		
+		Map<String,String> v = many();
+		fill(v);
+		assertEquals(v, region.values());
+		assertEquals(v.size(), region.size());
+		// changed values after growing
+		region.put("key.1", "changed");
+		assertEquals("changed", region.get("key.1"));
+		assertEquals(v.get("key.999"), region.get("key.999"));
+	}
+	
+	
+	
+	@Test
+	public void changesSince() throws IOException {
+		
+		Map<String,String> v = many();
+		fill(v);
+		Map<String,Long> changes = new HashMap<String,Long>();
+		long seq = region.changes(0, changes);
+		assertEquals(v.keySet(), changes.keySet());
+		changes.clear();
+		region.put("key.5", "new");
+		region.remove("key.6");
+		long last = region.changes(seq, changes);
+		assertEquals(2, changes.size());
+		assertEquals(last, (long) changes.get("key.6"));
+		assertTrue(changes.get("key.5") > seq);
+	}
+	
+	
+	
+	@Test
+	public void replaceAndClear() throws IOException {
+		
+		fill(many());
+		Map<String,String> v = new HashMap<String,String>();
+		v.put("key.1", "1");
+		v.put("new", "value");
+		List<Long> seqs = new ArrayList<Long>();
+		region.replace(v, seqs);
+		assertEquals(v, region.values());
+		assertEquals(1000 - 1 + 2, seqs.size());
+		seqs.clear();
+		region.clear(seqs);
+		assertEquals(2, seqs.size());
+		assertEquals(0, region.size());
+		assertNull(region.get("new"));
+	}
+	
+	
+	
+	@Test
+	public void attachedOnce() throws IOException {
+		
+		fill(new HashMap<String,String>());
+		SharedRegion r = SharedRegion.attach(file);
+		assertSame(region, r);
+		assertFalse(r.startFill());
+		r.put("a", "1");
+		r.detach();
+		assertEquals("1", region.get("a"));
+	}
+	
+	
+	
+	@Test
+	public void initializedWhenUnused() throws IOException {
+		
+		Map<String,String> v = new HashMap<String,String>();
+		v.put("a", "1");
+		fill(v);
+		region.detach();
+		region = SharedRegion.attach(file);
+		// nobody was using content
+		assertNull(region.get("a"));
+		fill(new HashMap<String,String>());
+	}
+	
+	
+	
+	@Test
+	public void damagedFile() throws IOException {
+		
+		fill(many());
+		try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+			f.seek(H_AREA);
+			f.writeInt(Integer.MAX_VALUE - 8);
+		}
+		try {
+			region.get("key.1");
+			fail("Damaged shared file read");
+		}
+		catch (IOException e) {
+			// expected
+		}
+	}
+	
+	
+	
+	@Test
+	public void sharedWithProcess() throws Exception {
+		
+		// other process waits until this one fills file
+		assertTrue(region.startFill());
+		Process p = child("key.999", "child", "done");
+		Thread.sleep(200);
+		Map<String,String> v = many();
+		for (Map.Entry<String,String> e : v.entrySet()) {
+			region.put(e.getKey(), e.getValue());
+		}
+		long seq = region.seq();
+		region.endFill();
+		assertEquals(v.get("key.999"), output(p));
+		assertEquals("done", region.get("child"));
+		Map<String,Long> changes = new HashMap<String,Long>();
+		region.changes(seq, changes);
+		assertEquals(1, changes.size());
+		assertTrue(changes.containsKey("child"));
+		// this process still holds file, so content is kept
+		assertEquals("done", output(child("child", "x", "y")));
+	}
+	
+	
+	
+	private Process child(String read, String key, String value) throws IOException {
+		
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				Child.class.getName(), file.getPath(), read, key, value)
+				.redirectErrorStream(true).start();
+	}
+	
+	
+	
+	private static String output(Process p) throws Exception {
+		
+		StringBuilder sb = new StringBuilder();
+		try (BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+			String l;
+			while ((l = r.readLine()) != null) {
+				sb.append(sb.length() > 0 ? "\n" : "").append(l);
+			}
+		}
+		assertEquals(sb.toString(), 0, p.waitFor());
+		return sb.toString();
+	}
+	
+	
+	
+	/**
+	 * Other process: prints a value and stores another one
+	 */
+	public static class Child {
+		
+		public static void main(String[] args) throws IOException {
+			
+			SharedRegion r = SharedRegion.attach(new File(args[0]));
+			if (r.startFill()) {
+				System.out.print("not filled");
+				System.exit(1);
+			}
+			String v = r.get(args[1]);
+			r.put(args[2], args[3]);
+			r.detach();
+			System.out.write(v.getBytes(StandardCharsets.UTF_8));
+			System.out.flush();
+		}
+	}
+
+}
@@ -0,0 +1,257 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Update check against a local HTTP server, with cache in default store
+ *
+ * @author Mario Pascucci
+ *
+ */
+public class UpdateCheckTest {
+	
+	private static final String ETAG = "\"v1\"";
+	
+	@ClassRule
+	public static final TemporaryFolder tmp = new TemporaryFolder();
+	
+	private static HttpServer server;
+	private static String base;
+	
+	// requests, and not modified replies, since test start
+	private static final AtomicInteger requests = new AtomicInteger();
+	private static final AtomicInteger notModified = new AtomicInteger();
+	private static volatile String ifNoneMatch;
+	
+	// runs checks in caller thread
+	private static final Executor direct = new Executor() {
+		@Override
+		public void execute(Runnable r) {
+			r.run();
+		}
+	};
+	
+	
+	
+	@BeforeClass
+	public static void start() throws IOException {
+		
+		AppSettings.setPrefsFile(new File(tmp.getRoot(), "update.prefs").getPath());
+		AppSettings.openPreferences(new UpdateCheckTest());
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/version", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange ex) throws IOException {
+				requests.incrementAndGet();
+				ifNoneMatch = ex.getRequestHeaders().getFirst("If-None-Match");
+				if (ETAG.equals(ifNoneMatch)) {
+					notModified.incrementAndGet();
+					ex.sendResponseHeaders(304, -1);
+					ex.close();
+					return;
+				}
+				ex.getResponseHeaders().set("ETag", ETAG);
+				reply(ex, "1.2.3\n".getBytes(StandardCharsets.UTF_8), true);
+			}
+		});
+		server.createContext("/big", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange ex) throws IOException {
+				requests.incrementAndGet();
+				// chunked if query asks for it, so length isn't known in advance
+				reply(ex, big(), ex.getRequestURI().getQuery() == null);
+			}
+		});
+		server.start();
+		base = "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+	
+	
+	
+	@AfterClass
+	public static void stop() {
+		
+		server.stop(0);
+	}
+	
+	
+	
+	@Before
+	public void reset() {
+		
+		requests.set(0);
+		notModified.set(0);
+		ifNoneMatch = null;
+	}
+	
+	
+	
+	private static void reply(HttpExchange ex, byte[] body, boolean length) throws IOException {
+		
+		ex.sendResponseHeaders(200, length ? body.length : 0);
+		try (OutputStream os = ex.getResponseBody()) {
+			os.write(body);
+		}
+	}
+	
+	
+	
+	private static byte[] big() {
+		
+		byte[] b = new byte[UpdateCheck.DEFAULT_MAX_SIZE * 4];
+		Arrays.fill(b, (byte) '1');
+		return b;
+	}
+	
+	
+	
+	/**
+	 * @param path path and query on test server, every URL has its own cache
+	 */
+	private static UpdateCheck check(String path) {
+		
+		return new UpdateCheck(base + path).setExecutor(direct);
+	}
+	
+	
+	
+	@Test
+	public void readsVersion() throws Exception {
+		
+		assertEquals(Version.parse("1.2.3"), check("/version?ok").check().get());
+		assertEquals(1, requests.get());
+		assertNull(ifNoneMatch);
+	}
+	
+	
+	
+	@Test
+	public void notModifiedUsesCachedVersion() throws Exception {
+		
+		UpdateCheck c = check("/version?notmodified");
+		assertEquals(Version.parse("1.2.3"), c.check(true).get());
+		assertEquals(Version.parse("1.2.3"), c.check(true).get());
+		assertEquals(2, requests.get());
+		assertEquals(1, notModified.get());
+		assertEquals(ETAG, ifNoneMatch);
+	}
+	
+	
+	
+	@Test
+	public void cacheKeptAcrossChecks() throws Exception {
+		
+		check("/version?shared").check().get();
+		// a new check for same URL finds validators in cache
+		assertEquals(Version.parse("1.2.3"), check("/version?shared").setTtl(0).check().get());
+		assertEquals(1, notModified.get());
+	}
+	
+	
+	
+	@Test
+	public void noRequestWithinTtl() throws Exception {
+		
+		UpdateCheck c = check("/version?ttl").setTtl(3600 * 1000);
+		c.check().get();
+		assertEquals(Version.parse("1.2.3"), c.check().get());
+		assertEquals(1, requests.get());
+		// forced check ignores TTL
+		c.check(true).get();
+		assertEquals(2, requests.get());
+	}
+	
+	
+	
+	@Test
+	public void noTtlAlwaysSendsRequest() throws Exception {
+		
+		UpdateCheck c = check("/version?nottl").setTtl(0);
+		c.check().get();
+		c.check().get();
+		assertEquals(2, requests.get());
+	}
+	
+	
+	
+	@Test
+	public void tooBigWithLength() throws Exception {
+		
+		assertTooBig(check("/big"));
+	}
+	
+	
+	
+	@Test
+	public void tooBigChunked() throws Exception {
+		
+		assertTooBig(check("/big?chunked"));
+	}
+	
+	
+	
+	@Test
+	public void sizeLimitIsSetting() throws Exception {
+		
+		assertEquals(big().length, check("/big").setMaxSize(big().length).readOnce().length());
+		assertTooBig(check("/big?chunked").setMaxSize(16));
+	}
+	
+	
+	
+	private static void assertTooBig(UpdateCheck c) throws InterruptedException {
+		
+		try {
+			c.check().get();
+			fail("Version file over size limit accepted");
+		}
+		catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+			assertTrue(e.getCause().getMessage().contains("too big"));
+		}
+	}
+
+}
@@ -0,0 +1,43 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings.bench;
+
+import bricksnspace.appsettings.Pref;
+import bricksnspace.appsettings.PrefSchema;
+
+/**
+ * Preferences schema for generated accessors benchmark
+ * 
+ * @author Mario Pascucci
+ *
+ */
+@PrefSchema(prefix = "schema.")
+public interface BenchPrefs {
+	
+	@Pref(name = "hit.int", descr = "Int")
+	int hitInt();
+	
+	@Pref(name = "miss.int", descr = "Int", def = "42")
+	int missInt();
+	
+	@Pref(name = "hit.str", descr = "String")
+	String hitStr();
+
+}
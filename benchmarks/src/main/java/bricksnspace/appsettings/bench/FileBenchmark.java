@@ -0,0 +1,95 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.prefs.BackingStoreException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bricksnspace.appsettings.AppSettings;
+
+/**
+ * Opening and saving preferences files of different sizes and formats.
+ * Saves don't sync to disk, to measure AppSettings cost and not disk latency.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileBenchmark {
+	
+	@Param({"10", "1000", "50000"})
+	public int keys;
+	
+	@Param({"xml", "binary"})
+	public String format;
+	
+	private File dir;
+	
+	
+	@Setup
+	public void setup() throws IOException, BackingStoreException {
+		
+		dir = Files.createTempDirectory("appsettings-bench").toFile();
+		AppSettings.setBinaryFormat(format.equals("binary"));
+		Fixtures.open(this, dir, keys);
+		AppSettings.setSyncOnSave(false);
+		AppSettings.savePreferences();
+	}
+	
+	
+	@TearDown
+	public void tearDown() {
+		Fixtures.delete(dir);
+	}
+	
+	
+	@Benchmark
+	public boolean open() {
+		return AppSettings.openPreferences(this);
+	}
+	
+	
+	@Benchmark
+	public void save() throws IOException, BackingStoreException {
+		AppSettings.savePreferences();
+	}
+
+}
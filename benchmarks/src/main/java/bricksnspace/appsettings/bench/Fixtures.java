@@ -0,0 +1,84 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings.bench;
+
+import java.io.File;
+
+import bricksnspace.appsettings.AppSettings;
+import bricksnspace.appsettings.PrefBatch;
+
+/**
+ * Shared setup for benchmarks
+ * 
+ * @author Mario Pascucci
+ *
+ */
+class Fixtures {
+	
+	/**
+	 * Opens a new preferences file in a folder, with some preferences set
+	 * @param app benchmark object
+	 * @param dir folder for preferences file
+	 * @param keys number of preferences to add, a mix of all types
+	 */
+	static void open(Object app, File dir, int keys) {
+		
+		AppSettings.setPrefsFile(new File(dir, "bench.prefs").getPath());
+		AppSettings.openPreferences(app);
+		PrefBatch b = AppSettings.batch();
+		for (int i = 0; i < keys; i++) {
+			b.addPref("key" + i, "Preference " + i, AppSettings.STRING + i % 4);
+		}
+		b.commit();
+		for (int i = 0; i < keys; i++) {
+			String k = "key" + i;
+			switch (AppSettings.STRING + i % 4) {
+			case AppSettings.STRING:
+				AppSettings.put(k, "value of preference " + i);
+				break;
+			case AppSettings.BOOLEAN:
+				AppSettings.putBool(k, i % 3 == 0);
+				break;
+			case AppSettings.INTEGER:
+				AppSettings.putInt(k, i);
+				break;
+			case AppSettings.FLOAT:
+				AppSettings.putFloat(k, i * 0.25f);
+				break;
+			}
+		}
+	}
+	
+	
+	/**
+	 * Deletes a folder and its files
+	 */
+	static void delete(File dir) {
+		
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+		dir.delete();
+	}
+
+}
@@ -0,0 +1,151 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bricksnspace.appsettings.AppSettings;
+import bricksnspace.appsettings.IntPref;
+
+/**
+ * Single thread reads: values set in preferences (hit) and values 
+ * read from defaults (miss), with string keys, typed handles and generated accessors
+ * 
+ * @author Mario Pascucci
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadBenchmark {
+	
+	private File dir;
+	private IntPref handle;
+	private BenchPrefsImpl schema;
+	
+	
+	@Setup
+	public void setup() throws IOException {
+		
+		dir = Files.createTempDirectory("appsettings-bench").toFile();
+		Fixtures.open(this, dir, 0);
+		AppSettings.addPref("hit.int", "Int", AppSettings.INTEGER);
+		AppSettings.addPref("miss.int", "Int", AppSettings.INTEGER);
+		AppSettings.addPref("hit.bool", "Bool", AppSettings.BOOLEAN);
+		AppSettings.addPref("miss.bool", "Bool", AppSettings.BOOLEAN);
+		AppSettings.addPref("hit.str", "String", AppSettings.STRING);
+		AppSettings.addPref("miss.str", "String", AppSettings.STRING);
+		AppSettings.defInt("miss.int", 42);
+		AppSettings.defBool("miss.bool", true);
+		AppSettings.defString("miss.str", "default");
+		AppSettings.putInt("hit.int", 7);
+		AppSettings.putBool("hit.bool", true);
+		AppSettings.put("hit.str", "value");
+		handle = AppSettings.getPref("hit.int").asInt();
+		schema = new BenchPrefsImpl();
+		schema.setHitInt(7);
+		schema.setHitStr("value");
+	}
+	
+	
+	@TearDown
+	public void tearDown() {
+		Fixtures.delete(dir);
+	}
+	
+	
+	@Benchmark
+	public int getIntHit() {
+		return AppSettings.getInt("hit.int");
+	}
+	
+	
+	@Benchmark
+	public int getIntMiss() {
+		return AppSettings.getInt("miss.int");
+	}
+	
+	
+	@Benchmark
+	public boolean getBoolHit() {
+		return AppSettings.getBool("hit.bool");
+	}
+	
+	
+	@Benchmark
+	public boolean getBoolMiss() {
+		return AppSettings.getBool("miss.bool");
+	}
+	
+	
+	@Benchmark
+	public String getHit() {
+		return AppSettings.get("hit.str");
+	}
+	
+	
+	@Benchmark
+	public String getMiss() {
+		return AppSettings.get("miss.str");
+	}
+	
+	
+	@Benchmark
+	public int handleGet() {
+		return handle.get();
+	}
+	
+	
+	@Benchmark
+	public int schemaIntHit() {
+		return schema.hitInt();
+	}
+	
+	
+	@Benchmark
+	public int schemaIntMiss() {
+		return schema.missInt();
+	}
+	
+	
+	@Benchmark
+	public String schemaHit() {
+		return schema.hitStr();
+	}
+
+}
@@ -0,0 +1,107 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bricksnspace.appsettings.AppSettings;
+import bricksnspace.appsettings.SettingsStore;
+
+/**
+ * Adds keys one at a time to an empty store, without batches, 
+ * as unregistered keys written with put() or as registered preferences. 
+ * Time for all keys must grow linearly with number of keys.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistryBenchmark {
+	
+	@Param({"1000", "10000", "40000"})
+	public int keys;
+	
+	private File dir;
+	private SettingsStore store;
+	
+	
+	@Setup
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("appsettings-bench").toFile();
+	}
+	
+	
+	@Setup(Level.Invocation)
+	public void newStore() {
+		
+		store = new SettingsStore();
+		store.setPrefsFile(new File(dir, "bench.prefs").getPath());
+		store.openPreferences(this);
+	}
+	
+	
+	@TearDown
+	public void tearDown() {
+		Fixtures.delete(dir);
+	}
+	
+	
+	@Benchmark
+	public SettingsStore putNewKeys() {
+		
+		for (int i = 0; i < keys; i++) {
+			store.put("key" + i, "value");
+		}
+		return store;
+	}
+	
+	
+	@Benchmark
+	public SettingsStore addPrefs() {
+		
+		for (int i = 0; i < keys; i++) {
+			store.addPref("key" + i, "Preference " + i, AppSettings.INTEGER);
+		}
+		return store;
+	}
+
+}
@@ -0,0 +1,93 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bricksnspace.appsettings.AppVersion;
+import bricksnspace.appsettings.Version;
+
+/**
+ * Version strings parsing and comparison
+ * 
+ * @author Mario Pascucci
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VersionBenchmark {
+	
+	public String version = "2.13.4";
+	public String malformed = "1.0.3a";
+	private Version parsed;
+	
+	
+	@Setup
+	public void setup() {
+		AppVersion.setMyVersion("2.13.1");
+		parsed = Version.parse(version);
+	}
+	
+	
+	@Benchmark
+	public int[] parse() {
+		return AppVersion.parseVersionString(version);
+	}
+	
+	
+	@Benchmark
+	public int[] parseMalformed() {
+		return AppVersion.parseVersionString(malformed);
+	}
+	
+	
+	@Benchmark
+	public int compare() {
+		return AppVersion.compareVersion(version);
+	}
+	
+	
+	@Benchmark
+	public Version parseValue() {
+		return Version.parse(version);
+	}
+	
+	
+	@Benchmark
+	public int compareValue() {
+		return AppVersion.compareVersion(parsed);
+	}
+
+}
@@ -0,0 +1,101 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bricksnspace.appsettings.AppSettings;
+
+/**
+ * Writes with put methods, every call changes value
+ * 
+ * @author Mario Pascucci
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteBenchmark {
+	
+	private File dir;
+	private int counter = 0;
+	private static final String[] STRINGS = { "alpha", "beta", "gamma", "delta" };
+	
+	
+	@Setup
+	public void setup() throws IOException {
+		
+		dir = Files.createTempDirectory("appsettings-bench").toFile();
+		Fixtures.open(this, dir, 0);
+		AppSettings.addPref("w.int", "Int", AppSettings.INTEGER);
+		AppSettings.addPref("w.bool", "Bool", AppSettings.BOOLEAN);
+		AppSettings.addPref("w.float", "Float", AppSettings.FLOAT);
+		AppSettings.addPref("w.str", "String", AppSettings.STRING);
+	}
+	
+	
+	@TearDown
+	public void tearDown() {
+		Fixtures.delete(dir);
+	}
+	
+	
+	@Benchmark
+	public void put() {
+		AppSettings.put("w.str", STRINGS[counter++ & 3]);
+	}
+	
+	
+	@Benchmark
+	public void putInt() {
+		AppSettings.putInt("w.int", counter++);
+	}
+	
+	
+	@Benchmark
+	public void putBool() {
+		AppSettings.putBool("w.bool", (counter++ & 1) == 0);
+	}
+	
+	
+	@Benchmark
+	public void putFloat() {
+		AppSettings.putFloat("w.float", counter++ * 0.5f);
+	}
+
+}
@@ -0,0 +1,108 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bricksnspace.appsettings.AppVersion;
+import bricksnspace.appsettings.ZipVersionIndex;
+
+/**
+ * Reading version from synthetic zip archives with a VERSION entry 
+ * and some other entries
+ * 
+ * @author Mario Pascucci
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ZipVersionBenchmark {
+	
+	@Param({"1", "1000"})
+	public int entries;
+	
+	private File dir;
+	private String zip;
+	private ZipVersionIndex index;
+	
+	
+	@Setup
+	public void setup() throws IOException {
+		
+		dir = Files.createTempDirectory("appsettings-bench").toFile();
+		File z = new File(dir, "addon.zip");
+		try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(z))) {
+			for (int i = 0; i < entries; i++) {
+				zos.putNextEntry(new ZipEntry("parts/part" + i + ".dat"));
+				zos.write(new byte[64]);
+				zos.closeEntry();
+			}
+			zos.putNextEntry(new ZipEntry("VERSION"));
+			zos.write("1.4.12\n".getBytes("US-ASCII"));
+			zos.closeEntry();
+		}
+		zip = z.getPath();
+		index = new ZipVersionIndex(null);
+	}
+	
+	
+	@TearDown
+	public void tearDown() {
+		Fixtures.delete(dir);
+	}
+	
+	
+	@Benchmark
+	public String getZipVersion() {
+		return AppVersion.getZipVersion(zip);
+	}
+	
+	
+	@Benchmark
+	public Map<File,String> indexed() {
+		return index.scan(Collections.singletonList(new File(zip)));
+	}
+
+}
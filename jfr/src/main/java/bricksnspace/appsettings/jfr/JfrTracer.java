@@ -0,0 +1,64 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings.jfr;
+
+import bricksnspace.appsettings.TraceEvent;
+import bricksnspace.appsettings.Tracer;
+
+/**
+ * Emits Java Flight Recorder events for settings operations
+ * 
+ * Found by AppSettings with ServiceLoader when this module is in classpath. 
+ * An event is created only if its type is enabled in running recordings, 
+ * events shorter than threshold set in recording settings are discarded.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public class JfrTracer implements Tracer {
+	
+	
+	@Override
+	public TraceEvent begin(int operation) {
+		
+		SettingsEvent ev;
+		switch (operation) {
+		case LOAD:
+			ev = new LoadEvent();
+			break;
+		case SAVE:
+			ev = new SaveEvent();
+			break;
+		case UPDATE_CHECK:
+			ev = new UpdateCheckEvent();
+			break;
+		case ZIP_VERSION:
+			ev = new ZipVersionEvent();
+			break;
+		default:
+			return null;
+		}
+		if (!ev.isEnabled())
+			return null;
+		ev.begin();
+		return ev;
+	}
+
+}
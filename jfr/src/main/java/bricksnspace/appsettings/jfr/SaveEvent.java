@@ -0,0 +1,66 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings.jfr;
+
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Preferences file written
+ * 
+ * @author Mario Pascucci
+ *
+ */
+@Name("bricksnspace.appsettings.Save")
+@Label("Settings Save")
+@Description("Preferences file written")
+class SaveEvent extends SettingsEvent {
+	
+	@Label("Path")
+	String path;
+	
+	@Label("Size")
+	@DataAmount(DataAmount.BYTES)
+	long bytes;
+	
+	@Label("Keys")
+	int keys;
+	
+	
+	@Override
+	public void setPath(String path) {
+		this.path = path;
+	}
+	
+	
+	@Override
+	public void setBytes(long bytes) {
+		this.bytes = bytes;
+	}
+	
+	
+	@Override
+	public void setKeys(int keys) {
+		this.keys = keys;
+	}
+
+}
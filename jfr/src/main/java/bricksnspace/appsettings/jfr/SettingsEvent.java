@@ -0,0 +1,73 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings.jfr;
+
+import bricksnspace.appsettings.TraceEvent;
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Base for settings events, fields not defined in an event type are ignored
+ * 
+ * @author Mario Pascucci
+ *
+ */
+@Category("AppSettings")
+@Threshold("1 ms")
+@StackTrace(false)
+abstract class SettingsEvent extends jdk.jfr.Event implements TraceEvent {
+	
+	@Label("Outcome")
+	String outcome;
+	
+	
+	@Override
+	public void setPath(String path) {
+	}
+	
+	
+	@Override
+	public void setBytes(long bytes) {
+	}
+	
+	
+	@Override
+	public void setKeys(int keys) {
+	}
+	
+	
+	@Override
+	public void setUrl(String url) {
+	}
+	
+	
+	@Override
+	public void setStatus(int status) {
+	}
+	
+	
+	@Override
+	public void setOutcome(String outcome) {
+		this.outcome = outcome;
+	}
+
+}
@@ -0,0 +1,471 @@
+/**
+	Copyright 2016 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of AppSettings
+
+	AppSettings is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	AppSettings is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with AppSettings.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.appsettings.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+import bricksnspace.appsettings.AppSettings;
+import bricksnspace.appsettings.Pref;
+import bricksnspace.appsettings.PrefSchema;
+
+/**
+ * Generates an implementation for every interface annotated with {@link PrefSchema}
+ * 
+ * Generated class registers all preferences and defaults in a single batch, 
+ * and keeps a typed handle for every preference: getters read values by slot, 
+ * without any lookup by name. 
+ * Wrong names, types and defaults are reported as compile errors.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public class PrefSchemaProcessor extends AbstractProcessor {
+	
+	private static final String PKG = "bricksnspace.appsettings.";
+	
+	
+	/**
+	 * A preference read from an annotated method
+	 */
+	private static final class Entry {
+		
+		final ExecutableElement method;
+		final String name;
+		final String descr;
+		final int type;
+		final String def;		// default as Java literal, null if not set
+		final boolean appPrivate;
+		
+		Entry(ExecutableElement method, String name, String descr, int type, String def, boolean appPrivate) {
+			this.method = method;
+			this.name = name;
+			this.descr = descr;
+			this.type = type;
+			this.def = def;
+			this.appPrivate = appPrivate;
+		}
+		
+		String getter() {
+			return method.getSimpleName().toString();
+		}
+		
+		String field() {
+			return getter() + "Pref";
+		}
+	}
+	
+	
+	@Override
+	public Set<String> getSupportedAnnotationTypes() {
+		
+		Set<String> s = new HashSet<String>();
+		s.add(PrefSchema.class.getName());
+		s.add(Pref.class.getName());
+		return s;
+	}
+	
+	
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		
+		return SourceVersion.latestSupported();
+	}
+	
+	
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		
+		for (Element e : roundEnv.getElementsAnnotatedWith(Pref.class)) {
+			if (e.getEnclosingElement().getAnnotation(PrefSchema.class) == null) {
+				error(e, "@Pref method must be in a @PrefSchema interface");
+			}
+		}
+		for (Element e : roundEnv.getElementsAnnotatedWith(PrefSchema.class)) {
+			if (e.getKind() != ElementKind.INTERFACE) {
+				error(e, "@PrefSchema must annotate an interface");
+				continue;
+			}
+			TypeElement iface = (TypeElement) e;
+			if (iface.getModifiers().contains(Modifier.PRIVATE)) {
+				error(e, "@PrefSchema interface can't be private");
+				continue;
+			}
+			List<Entry> entries = readEntries(iface);
+			if (entries != null) {
+				write(iface, entries);
+			}
+		}
+		return true;
+	}
+	
+	
+	/**
+	 * Reads and checks preferences defined in schema
+	 * @return preferences, or null if there are errors
+	 */
+	private List<Entry> readEntries(TypeElement iface) {
+		
+		String prefix = iface.getAnnotation(PrefSchema.class).prefix();
+		List<Entry> entries = new ArrayList<Entry>();
+		Map<String,ExecutableElement> names = new HashMap<String,ExecutableElement>();
+		Map<String,ExecutableElement> members = new HashMap<String,ExecutableElement>();
+		boolean ok = true;
+		for (ExecutableElement m : ElementFilter.methodsIn(iface.getEnclosedElements())) {
+			if (m.getModifiers().contains(Modifier.STATIC) || m.getModifiers().contains(Modifier.DEFAULT))
+				continue;
+			Pref p = m.getAnnotation(Pref.class);
+			if (p == null) {
+				error(m, "Method in @PrefSchema interface must have @Pref annotation");
+				ok = false;
+				continue;
+			}
+			if (!m.getParameters().isEmpty() || !m.getTypeParameters().isEmpty()) {
+				error(m, "@Pref method must be a getter without parameters");
+				ok = false;
+				continue;
+			}
+			if (p.name().isEmpty()) {
+				error(m, "Invalid name for Preference");
+				ok = false;
+				continue;
+			}
+			if (p.descr().isEmpty()) {
+				error(m, "Invalid description for Preference");
+				ok = false;
+				continue;
+			}
+			String name = prefix + p.name();
+			ExecutableElement dup = names.put(name, m);
+			if (dup != null) {
+				error(m, "Preference '" + name + "' already defined by " + dup.getSimpleName() + "()");
+				ok = false;
+				continue;
+			}
+			String getter = m.getSimpleName().toString();
+			dup = members.put(constantName(getter), m);
+			if (dup != null) {
+				error(m, "Getter " + getter + "() clashes with " + dup.getSimpleName() + "() in generated names");
+				ok = false;
+				continue;
+			}
+			int type = typeOf(m, p.type());
+			if (type == 0) {
+				ok = false;
+				continue;
+			}
+			String def = null;
+			if (!p.def().isEmpty()) {
+				def = literal(p.def(), type);
+				if (def == null) {
+					error(m, "Invalid default '" + p.def() + "' for preference '" + name + "'");
+					ok = false;
+					continue;
+				}
+			}
+			entries.add(new Entry(m, name, p.descr(), type, def, p.appPrivate()));
+		}
+		return ok ? entries : null;
+	}
+	
+	
+	/**
+	 * Finds preference type from getter return type
+	 * @return preference type, 0 if return type doesn't match declared type
+	 */
+	private int typeOf(ExecutableElement m, int declared) {
+		
+		TypeMirror r = m.getReturnType();
+		int type;
+		if (r.getKind() == TypeKind.INT) {
+			type = AppSettings.INTEGER;
+		}
+		else if (r.getKind() == TypeKind.BOOLEAN) {
+			type = AppSettings.BOOLEAN;
+		}
+		else if (r.getKind() == TypeKind.FLOAT) {
+			type = AppSettings.FLOAT;
+		}
+		else if (r.toString().equals(String.class.getName())) {
+			type = AppSettings.STRING;
+			if (declared == AppSettings.FILE || declared == AppSettings.FOLDER) {
+				type = declared;
+			}
+		}
+		else {
+			error(m, "@Pref getter must return int, boolean, float or String");
+			return 0;
+		}
+		if (declared != 0 && declared != type) {
+			error(m, "Preference type " + declared + " doesn't match getter return type " + r);
+			return 0;
+		}
+		return type;
+	}
+	
+	
+	/**
+	 * Converts a default value to a Java literal for preference type
+	 * @return literal, or null if value isn't valid for type
+	 */
+	static String literal(String def, int type) {
+		
+		switch (type) {
+		case AppSettings.INTEGER:
+			try {
+				return Integer.toString(Integer.parseInt(def.trim()));
+			}
+			catch (NumberFormatException e) {
+				return null;
+			}
+		case AppSettings.BOOLEAN:
+			// same rule as PrefTable.parseBool()
+			if (def.equalsIgnoreCase("true") || def.equalsIgnoreCase("false"))
+				return def.toLowerCase(Locale.ROOT);
+			return null;
+		case AppSettings.FLOAT:
+			try {
+				float f = Float.parseFloat(def.trim());
+				if (Float.isNaN(f) || Float.isInfinite(f))
+					return null;
+				return Float.toString(f) + "f";
+			}
+			catch (NumberFormatException e) {
+				return null;
+			}
+		default:
+			return quote(def);
+		}
+	}
+	
+	
+	/**
+	 * @return string as a Java string literal
+	 */
+	static String quote(String s) {
+		
+		StringBuilder sb = new StringBuilder(s.length() + 2);
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (c < 0x20 || c > 0x7e) {
+					sb.append(String.format("\\u%04x", (int) c));
+				}
+				else {
+					sb.append(c);
+				}
+			}
+		}
+		return sb.append('"').toString();
+	}
+	
+	
+	/**
+	 * @return constant name for a getter: getWindowWidth() -> WINDOW_WIDTH
+	 */
+	static String constantName(String getter) {
+		
+		String s = propertyName(getter);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (Character.isUpperCase(c) && i > 0 && !Character.isUpperCase(s.charAt(i - 1))) {
+				sb.append('_');
+			}
+			sb.append(Character.toUpperCase(c));
+		}
+		return sb.toString();
+	}
+	
+	
+	/**
+	 * @return setter name for a getter: getWidth(), isWide(), width() -> setWidth(), setWide(), setWidth()
+	 */
+	static String setterName(String getter) {
+		
+		String s = propertyName(getter);
+		return "set" + Character.toUpperCase(s.charAt(0)) + s.substring(1);
+	}
+	
+	
+	private static String propertyName(String getter) {
+		
+		if (getter.length() > 3 && getter.startsWith("get") && Character.isUpperCase(getter.charAt(3)))
+			return Character.toLowerCase(getter.charAt(3)) + getter.substring(4);
+		if (getter.length() > 2 && getter.startsWith("is") && Character.isUpperCase(getter.charAt(2)))
+			return Character.toLowerCase(getter.charAt(2)) + getter.substring(3);
+		return getter;
+	}
+	
+	
+	private static String typeConstant(int type) {
+		
+		switch (type) {
+		case AppSettings.BOOLEAN:
+			return "BOOLEAN";
+		case AppSettings.INTEGER:
+			return "INTEGER";
+		case AppSettings.FLOAT:
+			return "FLOAT";
+		case AppSettings.FILE:
+			return "FILE";
+		case AppSettings.FOLDER:
+			return "FOLDER";
+		default:
+			return "STRING";
+		}
+	}
+	
+	
+	/**
+	 * @return handle class and value type for a preference type
+	 */
+	private static String[] handleType(int type) {
+		
+		switch (type) {
+		case AppSettings.BOOLEAN:
+			return new String[] { "BoolPref", "boolean", "asBool", "defBool" };
+		case AppSettings.INTEGER:
+			return new String[] { "IntPref", "int", "asInt", "defInt" };
+		case AppSettings.FLOAT:
+			return new String[] { "FloatPref", "float", "asFloat", "defFloat" };
+		default:
+			return new String[] { "StringPref", "String", "asString", "defString" };
+		}
+	}
+	
+	
+	/**
+	 * Writes generated class for a schema
+	 */
+	private void write(TypeElement iface, List<Entry> entries) {
+		
+		PackageElement pkg = processingEnv.getElementUtils().getPackageOf(iface);
+		String pkgName = pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+		String ifaceName = iface.getQualifiedName().toString();
+		String binary = processingEnv.getElementUtils().getBinaryName(iface).toString();
+		String simple = (pkgName.isEmpty() ? binary : binary.substring(pkgName.length() + 1)).replace('$', '_') + "Impl";
+		String fullName = pkgName.isEmpty() ? simple : pkgName + "." + simple;
+		
+		StringBuilder sb = new StringBuilder();
+		if (!pkgName.isEmpty()) {
+			sb.append("package ").append(pkgName).append(";\n\n");
+		}
+		sb.append("/**\n * Preferences for {@link ").append(ifaceName).append("}\n")
+			.append(" * Generated by ").append(getClass().getName()).append(", don't edit\n */\n");
+		sb.append("public final class ").append(simple).append(" implements ").append(ifaceName).append(" {\n\n");
+		for (Entry en : entries) {
+			sb.append("\t/** preference name for ").append(en.getter()).append("() */\n");
+			sb.append("\tpublic static final String ").append(constantName(en.getter()))
+				.append(" = ").append(quote(en.name)).append(";\n");
+		}
+		sb.append("\n");
+		for (Entry en : entries) {
+			sb.append("\tprivate final ").append(PKG).append(handleType(en.type)[0])
+				.append(' ').append(en.field()).append(";\n");
+		}
+		sb.append("\n\n\t/**\n\t * Registers preferences in a settings store\n\t */\n");
+		sb.append("\tpublic ").append(simple).append("(").append(PKG).append("SettingsStore store) {\n\n");
+		sb.append("\t\tjava.util.List<").append(PKG).append("AppPref> handles = store.batch()");
+		for (Entry en : entries) {
+			sb.append("\n\t\t\t.").append(en.appPrivate ? "addPrivatePref(" : "addPref(")
+				.append(constantName(en.getter())).append(", ").append(quote(en.descr))
+				.append(", ").append(PKG).append("AppSettings.").append(typeConstant(en.type)).append(")");
+			if (en.def != null) {
+				sb.append("\n\t\t\t.").append(handleType(en.type)[3]).append("(")
+					.append(constantName(en.getter())).append(", ").append(en.def).append(")");
+			}
+		}
+		sb.append("\n\t\t\t.commit();\n");
+		for (int i = 0; i < entries.size(); i++) {
+			Entry en = entries.get(i);
+			sb.append("\t\t").append(en.field()).append(" = handles.get(").append(i).append(").")
+				.append(handleType(en.type)[2]).append("();\n");
+		}
+		sb.append("\t}\n\n\n");
+		sb.append("\t/**\n\t * Registers preferences in default settings store\n\t */\n");
+		sb.append("\tpublic ").append(simple).append("() {\n\n\t\tthis(").append(PKG).append("AppSettings.getDefault());\n\t}\n");
+		for (Entry en : entries) {
+			String[] h = handleType(en.type);
+			sb.append("\n\n\t@Override\n\tpublic ").append(h[1]).append(' ').append(en.getter()).append("() {\n")
+				.append("\t\treturn ").append(en.field()).append(".get();\n\t}\n");
+			sb.append("\n\n\tpublic void ").append(setterName(en.getter())).append("(").append(h[1]).append(" value) {\n")
+				.append("\t\t").append(en.field()).append(".set(value);\n\t}\n");
+		}
+		sb.append("\n}\n");
+		
+		try {
+			Writer w = processingEnv.getFiler().createSourceFile(fullName, iface).openWriter();
+			try {
+				w.write(sb.toString());
+			}
+			finally {
+				w.close();
+			}
+		} catch (IOException e) {
+			error(iface, "Can't write " + fullName + ": " + e.getMessage());
+		}
+	}
+	
+	
+	private void error(Element e, String msg) {
+		
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "[PrefSchemaProcessor] " + msg, e);
+	}
+
+}